@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_FAMILY;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_QUALIFIER;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+/**
+ * Benchmark of merging scanners by ClientScanner of {@link HaeinsaTable}.
+ * HBase is replaced with HTableInterface stub which returns synthetic rows with stable locks,
+ * so only the client side of scan is measured: merging puts buffered in the transaction with rows from HBase,
+ * tracking deletes and columns, and tracking read rows of the transaction.
+ * <p>
+ * Each operation begins new transaction and buffers puts on every n-th row before scan,
+ * so the cost of buffering puts is included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientScannerBenchmark {
+    private static final byte[] TABLE_NAME = Bytes.toBytes("test");
+    private static final byte[] FAMILY = Bytes.toBytes("data");
+    private static final int ROW_COUNT = 100;
+
+    @Param({ "4", "16" })
+    private int columnCount;
+
+    // put is buffered on every n-th row, 0 if no put is buffered.
+    @Param({ "0", "10" })
+    private int putInterval;
+
+    private Result[] results;
+    private HaeinsaTablePool tablePool;
+    private HaeinsaTransactionManager tm;
+    private HaeinsaTable table;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] lockBytes = TRowLocks.serialize(new TRowLock(HaeinsaConstants.ROW_LOCK_VERSION, TRowLockState.STABLE, 1L));
+        results = new Result[ROW_COUNT];
+        for (int r = 0; r < ROW_COUNT; r++) {
+            byte[] row = row(r);
+            List<KeyValue> kvs = Lists.newArrayList();
+            // lock family sorts before data family.
+            kvs.add(new KeyValue(row, LOCK_FAMILY, LOCK_QUALIFIER, 1L, lockBytes));
+            for (int q = 0; q < columnCount; q++) {
+                kvs.add(new KeyValue(row, FAMILY, qualifier(q), 1L, Bytes.toBytes(q)));
+            }
+            results[r] = new Result(kvs);
+        }
+        Configuration conf = HBaseConfiguration.create();
+        tablePool = new HaeinsaTablePool(conf, 1);
+        tm = new HaeinsaTransactionManager(tablePool);
+        table = new HaeinsaTable(createStubTable());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        tablePool.close();
+    }
+
+    private static byte[] row(int index) {
+        return Bytes.toBytes(String.format("row-%05d", index));
+    }
+
+    private static byte[] qualifier(int index) {
+        return Bytes.toBytes(String.format("qualifier-%03d", index));
+    }
+
+    @Benchmark
+    public int scan() throws IOException {
+        HaeinsaTransaction tx = tm.begin();
+        if (putInterval > 0) {
+            for (int r = 0; r < ROW_COUNT; r += putInterval) {
+                table.put(tx, new HaeinsaPut(row(r)).add(FAMILY, qualifier(0), Bytes.toBytes(-1)));
+            }
+        }
+        int count = 0;
+        HaeinsaScan scan = new HaeinsaScan();
+        scan.addFamily(FAMILY);
+        try (HaeinsaResultScanner scanner = table.getScanner(tx, scan)) {
+            for (HaeinsaResult result = scanner.next(); result != null; result = scanner.next()) {
+                count += result.list().size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * HTableInterface stub which returns every synthetic row on scan, and empty result on get.
+     */
+    private HTableInterface createStubTable() {
+        return (HTableInterface) Proxy.newProxyInstance(HTableInterface.class.getClassLoader(),
+                new Class<?>[] { HTableInterface.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                        case "getTableName":
+                            return TABLE_NAME;
+                        case "getScanner":
+                            return new SyntheticResultScanner(results);
+                        case "get":
+                            return new Result();
+                        default:
+                            return null;
+                        }
+                    }
+                });
+    }
+
+    private static class SyntheticResultScanner implements ResultScanner {
+        private final Result[] results;
+        private int index;
+
+        SyntheticResultScanner(Result[] results) {
+            this.results = results;
+        }
+
+        @Override
+        public Result next() {
+            return index < results.length ? results[index++] : null;
+        }
+
+        @Override
+        public Result[] next(int nbRows) {
+            int end = Math.min(index + nbRows, results.length);
+            Result[] batch = Arrays.copyOfRange(results, index, end);
+            index = end;
+            return batch;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Iterator<Result> iterator() {
+            return Iterators.forArray(Arrays.copyOfRange(results, index, results.length));
+        }
+    }
+}
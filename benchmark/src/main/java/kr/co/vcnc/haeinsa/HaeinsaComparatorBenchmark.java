@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import kr.co.vcnc.haeinsa.HaeinsaTransaction.HashComparator;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Benchmark of comparators on hot paths: {@link HaeinsaKeyValue#COMPARATOR} which orders key values
+ * of mutations and scanners, and {@link HashComparator} which orders rows of a transaction on commit.
+ * Each benchmark sorts shuffled copy of the same elements, so the cost of copy is included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HaeinsaComparatorBenchmark {
+    private static final byte[] FAMILY = Bytes.toBytes("data");
+
+    @Param({ "16", "256" })
+    private int size;
+
+    private List<HaeinsaKeyValue> keyValues;
+    private List<TRowKey> rowKeys;
+    private final HashComparator hashComparator = new HashComparator();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        keyValues = Lists.newArrayListWithCapacity(size);
+        rowKeys = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            // rows share long prefix as usual row keys do.
+            byte[] row = Bytes.toBytes(String.format("user-0000-%08d", i / 4));
+            byte[] qualifier = Bytes.toBytes(String.format("qualifier-%03d", i % 4));
+            keyValues.add(new HaeinsaKeyValue(row, FAMILY, qualifier, Bytes.toBytes(i), Type.Put));
+            byte[] tableName = Bytes.toBytes("table" + (i % 2));
+            rowKeys.add(new TRowKey(ByteBuffer.wrap(tableName), ByteBuffer.wrap(Bytes.toBytes(String.format("user-0000-%08d", i)))));
+        }
+        Collections.shuffle(keyValues, random);
+        Collections.shuffle(rowKeys, random);
+    }
+
+    @Benchmark
+    public List<HaeinsaKeyValue> sortKeyValues() {
+        List<HaeinsaKeyValue> sorted = Lists.newArrayList(keyValues);
+        Collections.sort(sorted, HaeinsaKeyValue.COMPARATOR);
+        return sorted;
+    }
+
+    @Benchmark
+    public List<TRowKey> sortRowKeysByHash() {
+        List<TRowKey> sorted = Lists.newArrayList(rowKeys);
+        Collections.sort(sorted, hashComparator);
+        return sorted;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Distribution of keys accessed by {@link HaeinsaLoadGenerator}, which generates keys in [0, keyCount).
+ * Implementation should be thread-safe, and uses random of the calling thread.
+ */
+public abstract class HaeinsaKeyDistribution {
+    private final long keyCount;
+
+    protected HaeinsaKeyDistribution(long keyCount) {
+        Preconditions.checkArgument(keyCount > 0, "keyCount should be positive.");
+        this.keyCount = keyCount;
+    }
+
+    public long getKeyCount() {
+        return keyCount;
+    }
+
+    public abstract long next(Random random);
+
+    public static HaeinsaKeyDistribution uniform(long keyCount) {
+        return new Uniform(keyCount);
+    }
+
+    /**
+     * Zipfian distribution whose popular keys are scattered over key space by hash,
+     * so that hot keys are not clustered in a region.
+     *
+     * @param theta skew of distribution between 0 and 1 exclusive, 0.99 is used by YCSB
+     */
+    public static HaeinsaKeyDistribution zipfian(long keyCount, double theta) {
+        return new ScrambledZipfian(keyCount, theta);
+    }
+
+    private static final class Uniform extends HaeinsaKeyDistribution {
+
+        Uniform(long keyCount) {
+            super(keyCount);
+        }
+
+        @Override
+        public long next(Random random) {
+            return (long) (random.nextDouble() * getKeyCount());
+        }
+
+        @Override
+        public String toString() {
+            return "uniform";
+        }
+    }
+
+    /**
+     * Zipfian generator of Gray et al. (Quickly Generating Billion-Record Synthetic Databases) as YCSB does.
+     * Zeta constant is computed once on creation, which is linear to keyCount.
+     */
+    private static final class ScrambledZipfian extends HaeinsaKeyDistribution {
+        private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+        private static final long FNV_PRIME = 1099511628211L;
+
+        private final double theta;
+        private final double alpha;
+        private final double zetaN;
+        private final double eta;
+
+        ScrambledZipfian(long keyCount, double theta) {
+            super(keyCount);
+            Preconditions.checkArgument(theta > 0 && theta < 1, "theta should be between 0 and 1 exclusive.");
+            this.theta = theta;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zetaN = zeta(keyCount, theta);
+            double zeta2 = zeta(2, theta);
+            this.eta = (1 - Math.pow(2.0 / keyCount, 1 - theta)) / (1 - zeta2 / zetaN);
+        }
+
+        private static double zeta(long n, double theta) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        @Override
+        public long next(Random random) {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            long rank;
+            if (uz < 1.0) {
+                rank = 0;
+            } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+                rank = 1;
+            } else {
+                rank = (long) (getKeyCount() * Math.pow(eta * u - eta + 1, alpha));
+            }
+            return Math.abs(fnvHash(Math.min(rank, getKeyCount() - 1)) % getKeyCount());
+        }
+
+        private static long fnvHash(long value) {
+            long hash = FNV_OFFSET_BASIS;
+            for (int i = 0; i < 8; i++) {
+                hash ^= value & 0xFF;
+                hash *= FNV_PRIME;
+                value >>>= 8;
+            }
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return "zipfian(" + theta + ")";
+        }
+    }
+}
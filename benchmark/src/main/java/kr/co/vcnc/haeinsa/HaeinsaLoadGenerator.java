@@ -0,0 +1,346 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.exception.RecoverableConflictException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Load generator which runs {@link HaeinsaWorkload} with increasing number of threads, and reports throughput,
+ * p50/p99/p999 latency of committed transactions, conflict rate and RPCs per committed transaction for each step.
+ * Latency percentiles are exact, computed from latencies of every transaction in measurement.
+ * Transactions are not retried, so conflict rate includes {@link kr.co.vcnc.haeinsa.exception.NotExpiredYetException}
+ * on rows left unstable by other transactions.
+ * <p>
+ * It runs against MiniHBaseCluster started in process with {@code --mini-cluster},
+ * or cluster of {@code --zookeeper} (or hbase-site.xml in classpath) otherwise.
+ * Options are given as {@code --name=value}:
+ * <ul>
+ * <li>workload: practical, worst or rows:writes:reads:readOnlyRows, comma separated (default practical)</li>
+ * <li>threads: number of threads of each step, comma separated (default 1,2,4,8,16,32)</li>
+ * <li>distribution: uniform or zipfian (default uniform), theta: skew of zipfian (default 0.99)</li>
+ * <li>keys: number of rows (default 100000)</li>
+ * <li>warmup, duration: seconds of warmup and measurement of each step (default 10, 30)</li>
+ * <li>table: table name (default haeinsa_load), create-table: create table if not exists</li>
+ * <li>seed: seed of random (default current time)</li>
+ * </ul>
+ */
+public final class HaeinsaLoadGenerator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HaeinsaLoadGenerator.class);
+
+    private final HaeinsaTablePool tablePool;
+    private final String tableName;
+    private final HaeinsaKeyDistribution keys;
+    private final long seed;
+
+    public HaeinsaLoadGenerator(HaeinsaTablePool tablePool, String tableName, HaeinsaKeyDistribution keys, long seed) {
+        this.tablePool = tablePool;
+        this.tableName = tableName;
+        this.keys = keys;
+        this.seed = seed;
+    }
+
+    /**
+     * Run workload on given number of threads, with new {@link HaeinsaTransactionManager}.
+     */
+    public Result run(HaeinsaWorkload workload, int threads, long warmup, long duration, TimeUnit unit)
+            throws InterruptedException {
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(tablePool);
+        long measureStartNanos = System.nanoTime() + unit.toNanos(warmup);
+        long endNanos = measureStartNanos + unit.toNanos(duration);
+        List<Worker> workers = Lists.newArrayList();
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(tm, workload, new Random(seed + i), measureStartNanos, endNanos);
+            worker.setName("haeinsa-load-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        Result result = new Result(workload, threads, unit.toNanos(duration));
+        for (Worker worker : workers) {
+            worker.join();
+            result.merge(worker);
+        }
+        result.sortLatencies();
+        return result;
+    }
+
+    private final class Worker extends Thread {
+        private final HaeinsaTransactionManager tm;
+        private final HaeinsaWorkload workload;
+        private final Random random;
+        private final long measureStartNanos;
+        private final long endNanos;
+        private long[] latencies = new long[1024];
+        private int committed;
+        private long conflicts;
+        private long errors;
+        private long rpcs;
+
+        Worker(HaeinsaTransactionManager tm, HaeinsaWorkload workload, Random random, long measureStartNanos, long endNanos) {
+            this.tm = tm;
+            this.workload = workload;
+            this.random = random;
+            this.measureStartNanos = measureStartNanos;
+            this.endNanos = endNanos;
+        }
+
+        @Override
+        public void run() {
+            for (long startNanos = System.nanoTime(); startNanos < endNanos; startNanos = System.nanoTime()) {
+                boolean measured = startNanos >= measureStartNanos;
+                HaeinsaTransaction tx = tm.begin();
+                boolean committing = false;
+                try (HaeinsaTableIface table = tablePool.getTable(tableName)) {
+                    workload.execute(tx, table, keys, random);
+                    committing = true;
+                    tx.commit();
+                    if (measured) {
+                        recordCommit(System.nanoTime() - startNanos, tx.getRpcCount() + workload.getReadCount());
+                    }
+                } catch (RecoverableConflictException e) {
+                    // primary row is committed already, as HaeinsaTransactionManager#execute treats it.
+                    if (measured && committing) {
+                        recordCommit(System.nanoTime() - startNanos, tx.getRpcCount() + workload.getReadCount());
+                    } else if (measured) {
+                        conflicts++;
+                    }
+                } catch (ConflictException e) {
+                    if (measured) {
+                        conflicts++;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (measured) {
+                        errors++;
+                    }
+                    LOGGER.warn(e.getMessage(), e);
+                } finally {
+                    if (!committing) {
+                        rollbackQuietly(tx);
+                    }
+                }
+            }
+        }
+
+        private void recordCommit(long latencyNanos, int rpcCount) {
+            if (committed == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[committed++] = latencyNanos;
+            rpcs += rpcCount;
+        }
+    }
+
+    private static void rollbackQuietly(HaeinsaTransaction tx) {
+        try {
+            tx.rollback();
+        } catch (IOException e) {
+            LOGGER.warn(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Result of a step.
+     */
+    public static final class Result {
+        private final HaeinsaWorkload workload;
+        private final int threads;
+        private final long durationNanos;
+        private long[] latencies = new long[0];
+        private long conflicts;
+        private long errors;
+        private long rpcs;
+
+        Result(HaeinsaWorkload workload, int threads, long durationNanos) {
+            this.workload = workload;
+            this.threads = threads;
+            this.durationNanos = durationNanos;
+        }
+
+        void merge(Worker worker) {
+            int offset = latencies.length;
+            latencies = Arrays.copyOf(latencies, offset + worker.committed);
+            System.arraycopy(worker.latencies, 0, latencies, offset, worker.committed);
+            conflicts += worker.conflicts;
+            errors += worker.errors;
+            rpcs += worker.rpcs;
+        }
+
+        void sortLatencies() {
+            Arrays.sort(latencies);
+        }
+
+        public long getCommitted() {
+            return latencies.length;
+        }
+
+        public double getThroughput() {
+            return latencies.length / (durationNanos / 1e9);
+        }
+
+        /**
+         * @return latency of committed transactions in milliseconds by nearest-rank method
+         */
+        public double getLatencyMillis(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+            return latencies[Math.max(rank, 1) - 1] / 1e6;
+        }
+
+        /**
+         * @return ratio of transactions failed by conflict among committed and conflicted transactions
+         */
+        public double getConflictRate() {
+            long attempts = latencies.length + conflicts;
+            return attempts == 0 ? 0 : (double) conflicts / attempts;
+        }
+
+        public double getRpcsPerTransaction() {
+            return latencies.length == 0 ? 0 : (double) rpcs / latencies.length;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s %7d %10.1f %9.2f %9.2f %9.2f %9.4f%% %8.2f %6d", workload.getName(), threads,
+                    getThroughput(), getLatencyMillis(50), getLatencyMillis(99), getLatencyMillis(99.9),
+                    getConflictRate() * 100, getRpcsPerTransaction(), errors);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        List<HaeinsaWorkload> workloads = Lists.newArrayList();
+        for (String workload : Splitter.on(',').split(option(options, "workload", "practical"))) {
+            workloads.add(HaeinsaWorkload.parse(workload));
+        }
+        List<Integer> threadCounts = Lists.newArrayList();
+        for (String threads : Splitter.on(',').split(option(options, "threads", "1,2,4,8,16,32"))) {
+            threadCounts.add(Integer.parseInt(threads));
+        }
+        long keyCount = Long.parseLong(option(options, "keys", "100000"));
+        HaeinsaKeyDistribution keys = option(options, "distribution", "uniform").equals("zipfian")
+                ? HaeinsaKeyDistribution.zipfian(keyCount, Double.parseDouble(option(options, "theta", "0.99")))
+                : HaeinsaKeyDistribution.uniform(keyCount);
+        long warmup = Long.parseLong(option(options, "warmup", "10"));
+        long duration = Long.parseLong(option(options, "duration", "30"));
+        String tableName = option(options, "table", "haeinsa_load");
+        long seed = Long.parseLong(option(options, "seed", String.valueOf(System.currentTimeMillis())));
+
+        HBaseTestingUtility utility = null;
+        Configuration conf;
+        if (options.containsKey("mini-cluster")) {
+            utility = new HBaseTestingUtility(HBaseConfiguration.create());
+            utility.cleanupTestDir();
+            conf = utility.startMiniCluster().getConfiguration();
+            createTableIfNotExists(conf, tableName);
+        } else {
+            conf = HBaseConfiguration.create();
+            if (options.containsKey("zookeeper")) {
+                conf.set("hbase.zookeeper.quorum", options.get("zookeeper"));
+            }
+            if (options.containsKey("create-table")) {
+                createTableIfNotExists(conf, tableName);
+            }
+        }
+
+        HaeinsaTablePool tablePool = new HaeinsaTablePool(conf, 256);
+        try {
+            HaeinsaLoadGenerator generator = new HaeinsaLoadGenerator(tablePool, tableName, keys, seed);
+            System.out.println(String.format("keys=%d distribution=%s warmup=%ds duration=%ds seed=%d", keyCount, keys,
+                    warmup, duration, seed));
+            System.out.println(String.format("%-12s %7s %10s %9s %9s %9s %10s %8s %6s", "workload", "threads", "tx/s",
+                    "p50(ms)", "p99(ms)", "p999(ms)", "conflict", "rpcs/tx", "errors"));
+            for (HaeinsaWorkload workload : workloads) {
+                LOGGER.info("running {}", workload);
+                for (int threads : threadCounts) {
+                    System.out.println(generator.run(workload, threads, warmup, duration, TimeUnit.SECONDS));
+                }
+            }
+        } finally {
+            tablePool.close();
+            if (utility != null) {
+                utility.shutdownMiniCluster();
+            }
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = Maps.newHashMap();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("option should be --name=value: " + arg);
+            }
+            int index = arg.indexOf('=');
+            if (index < 0) {
+                options.put(arg.substring(2), "");
+            } else {
+                options.put(arg.substring(2, index), arg.substring(index + 1));
+            }
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Create table with lock family and data family of {@link HaeinsaWorkload}.
+     */
+    private static void createTableIfNotExists(Configuration conf, String tableName) throws IOException {
+        HBaseAdmin admin = new HBaseAdmin(conf);
+        try {
+            if (admin.tableExists(tableName)) {
+                return;
+            }
+            HTableDescriptor tableDesc = new HTableDescriptor(tableName);
+            HColumnDescriptor lockColumnDesc = new HColumnDescriptor(HaeinsaConstants.LOCK_FAMILY);
+            lockColumnDesc.setMaxVersions(1);
+            lockColumnDesc.setInMemory(true);
+            tableDesc.addFamily(lockColumnDesc);
+            tableDesc.addFamily(new HColumnDescriptor(HaeinsaWorkload.FAMILY));
+            admin.createTable(tableDesc);
+        } finally {
+            admin.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import kr.co.vcnc.haeinsa.HaeinsaRowTransaction.MutationMerger;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Benchmark of building mutations of a row: {@link HaeinsaPut#add(byte[], byte[], byte[])},
+ * removing columns of {@link HaeinsaDelete} from put, and merging puts and deletes of a row by {@link MutationMerger}
+ * as {@link HaeinsaRowTransaction} does before commit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HaeinsaMutationBenchmark {
+    private static final byte[] ROW = Bytes.toBytes("row");
+    private static final byte[] FAMILY = Bytes.toBytes("data");
+
+    @Param({ "4", "32" })
+    private int columnCount;
+
+    @Param({ "4" })
+    private int mutationCount;
+
+    private byte[][] qualifiers;
+    private byte[][] values;
+    private HaeinsaPut put;
+    // deletes half of the columns of put
+    private HaeinsaDelete delete;
+    // alternating puts and deletes on overlapping columns
+    private List<HaeinsaMutation> mutations;
+
+    @Setup
+    public void setup() {
+        qualifiers = new byte[columnCount][];
+        values = new byte[columnCount][];
+        put = new HaeinsaPut(ROW);
+        delete = new HaeinsaDelete(ROW);
+        for (int i = 0; i < columnCount; i++) {
+            qualifiers[i] = Bytes.toBytes(String.format("qualifier-%03d", i));
+            values[i] = Bytes.toBytes(i);
+            put.add(FAMILY, qualifiers[i], values[i]);
+            if (i % 2 == 0) {
+                delete.deleteColumns(FAMILY, qualifiers[i]);
+            }
+        }
+        mutations = Lists.newArrayList();
+        for (int m = 0; m < mutationCount; m++) {
+            if (m % 2 == 0) {
+                HaeinsaPut mutation = new HaeinsaPut(ROW);
+                for (int i = m; i < columnCount; i += 2) {
+                    mutation.add(FAMILY, qualifiers[i], values[i]);
+                }
+                mutations.add(mutation);
+            } else {
+                HaeinsaDelete mutation = new HaeinsaDelete(ROW);
+                for (int i = m; i < columnCount; i += 3) {
+                    mutation.deleteColumns(FAMILY, qualifiers[i]);
+                }
+                mutations.add(mutation);
+            }
+        }
+    }
+
+    @Benchmark
+    public HaeinsaPut putAdd() {
+        HaeinsaPut newPut = new HaeinsaPut(ROW);
+        for (int i = 0; i < columnCount; i++) {
+            newPut.add(FAMILY, qualifiers[i], values[i]);
+        }
+        return newPut;
+    }
+
+    /**
+     * Put is copied before removing, so the cost of copy is included.
+     */
+    @Benchmark
+    public HaeinsaPut putRemove() {
+        HaeinsaPut copied = new HaeinsaPut(put);
+        copied.remove(delete);
+        return copied;
+    }
+
+    @Benchmark
+    public List<HaeinsaMutation> mergeMutations() {
+        MutationMerger merger = new MutationMerger(ROW);
+        for (int i = 0; i < mutations.size(); i++) {
+            HaeinsaMutation mutation = mutations.get(i);
+            if (mutation instanceof HaeinsaPut) {
+                merger.merge((HaeinsaPut) mutation);
+            } else {
+                merger.merge((HaeinsaDelete) mutation);
+            }
+        }
+        return merger.toMutations();
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.util.PoolMap.PoolType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of borrowing and returning tables from {@link HaeinsaTablePool} with many threads.
+ * Each operation borrows table as many times as commit of a multi-row transaction does for its rows,
+ * so that contention of the pool is measured without accessing HBase.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(64)
+@Fork(1)
+public class HaeinsaTablePoolBenchmark {
+    private static final String TABLE_NAME = "test";
+    // prewrite, applyMutations and makeStable for each row
+    private static final int BORROW_PER_ROW = 3;
+
+    @Param({ "Reusable", "ThreadLocal", "LockFree" })
+    private String poolType;
+
+    @Param({ "4" })
+    private int rowCount;
+
+    private HaeinsaTablePool tablePool;
+
+    @Setup
+    public void setup() {
+        Configuration conf = HBaseConfiguration.create();
+        HaeinsaTableIfaceFactory factory = new StubTableFactory();
+        if (poolType.equals("LockFree")) {
+            tablePool = new LockFreeHaeinsaTablePool(conf, 128, factory);
+        } else {
+            tablePool = new HaeinsaTablePool(conf, 128, factory, PoolType.valueOf(poolType));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        tablePool.close();
+    }
+
+    @Benchmark
+    public int borrowAndReturn() throws IOException {
+        int hash = 0;
+        for (int i = 0; i < rowCount * BORROW_PER_ROW; i++) {
+            try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(TABLE_NAME)) {
+                hash += table.getTableName().length;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Factory which creates {@link HaeinsaTable} on top of HTableInterface stub which does not access HBase.
+     */
+    private static class StubTableFactory implements HaeinsaTableIfaceFactory {
+        @Override
+        public HaeinsaTableIface createHaeinsaTableIface(Configuration config, final byte[] tableName) {
+            HTableInterface table = (HTableInterface) Proxy.newProxyInstance(HTableInterface.class.getClassLoader(),
+                    new Class<?>[] { HTableInterface.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if (method.getName().equals("getTableName")) {
+                                return tableName;
+                            }
+                            return null;
+                        }
+                    });
+            return new HaeinsaTable(table);
+        }
+
+        @Override
+        public void releaseHaeinsaTableIface(HaeinsaTableIface table) throws IOException {
+            table.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Benchmark of {@link HaeinsaDeleteTracker} and {@link HaeinsaColumnTracker} as they are used by
+ * ClientScanner of {@link HaeinsaTable}. Each row has puts on several families, some of them are covered
+ * by DeleteColumn or DeleteFamily of the transaction, and only part of the columns are selected by scan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HaeinsaTrackerBenchmark {
+    private static final int ROW_COUNT = 100;
+    private static final int FAMILY_COUNT = 4;
+
+    @Param({ "8", "32" })
+    private int qualifierCount;
+
+    @Param({ "0.1", "0.5" })
+    private double deleteRatio;
+
+    private NavigableMap<byte[], NavigableSet<byte[]>> familyMap;
+    private HaeinsaColumnTracker columnTracker;
+    private HaeinsaDeleteTracker deleteTracker;
+    // { row -> key values sorted by HaeinsaKeyValue.COMPARATOR }
+    private List<List<HaeinsaKeyValue>> rows;
+    // { row -> DeleteColumn, DeleteFamily key values }
+    private List<List<HaeinsaKeyValue>> deletes;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        familyMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        // select whole family for the first family, half of qualifiers for others.
+        familyMap.put(family(0), null);
+        for (int f = 1; f < FAMILY_COUNT; f++) {
+            NavigableSet<byte[]> qualifiers = Sets.newTreeSet(Bytes.BYTES_COMPARATOR);
+            for (int q = 0; q < qualifierCount; q += 2) {
+                qualifiers.add(qualifier(q));
+            }
+            familyMap.put(family(f), qualifiers);
+        }
+        columnTracker = new HaeinsaColumnTracker(familyMap, null, false, null, false);
+        deleteTracker = new HaeinsaDeleteTracker();
+
+        rows = Lists.newArrayList();
+        deletes = Lists.newArrayList();
+        for (int r = 0; r < ROW_COUNT; r++) {
+            byte[] row = Bytes.toBytes(String.format("row-%05d", r));
+            List<HaeinsaKeyValue> kvs = Lists.newArrayList();
+            List<HaeinsaKeyValue> rowDeletes = Lists.newArrayList();
+            for (int f = 0; f < FAMILY_COUNT; f++) {
+                if (random.nextDouble() < deleteRatio / qualifierCount) {
+                    rowDeletes.add(new HaeinsaKeyValue(row, family(f), null, null, Type.DeleteFamily));
+                }
+                for (int q = 0; q < qualifierCount; q++) {
+                    kvs.add(new HaeinsaKeyValue(row, family(f), qualifier(q), Bytes.toBytes(q), Type.Put));
+                    if (random.nextDouble() < deleteRatio) {
+                        rowDeletes.add(new HaeinsaKeyValue(row, family(f), qualifier(q), null, Type.DeleteColumn));
+                    }
+                }
+            }
+            rows.add(kvs);
+            deletes.add(rowDeletes);
+        }
+    }
+
+    private static byte[] family(int index) {
+        return Bytes.toBytes("family" + index);
+    }
+
+    private static byte[] qualifier(int index) {
+        return Bytes.toBytes(String.format("qualifier-%03d", index));
+    }
+
+    /**
+     * Same loop with ClientScanner: reset trackers on row boundary, track deletes of transaction (lower sequenceID)
+     * and filter puts from HBase (sequenceID of Long.MAX_VALUE) by column selection and deletes.
+     */
+    @Benchmark
+    public int scanWithDeletesAndColumnSelection() {
+        int matched = 0;
+        for (int r = 0; r < ROW_COUNT; r++) {
+            deleteTracker.reset();
+            List<HaeinsaKeyValue> rowDeletes = deletes.get(r);
+            for (int i = 0; i < rowDeletes.size(); i++) {
+                deleteTracker.add(rowDeletes.get(i), 0);
+            }
+            List<HaeinsaKeyValue> kvs = rows.get(r);
+            for (int i = 0; i < kvs.size(); i++) {
+                HaeinsaKeyValue kv = kvs.get(i);
+                if (columnTracker.isMatched(kv) && !deleteTracker.isDeleted(kv, Long.MAX_VALUE)) {
+                    matched++;
+                }
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * ColumnTracker is created for each scanner, so creation cost is paid by every get and scan.
+     */
+    @Benchmark
+    public HaeinsaColumnTracker createColumnTracker() {
+        return new HaeinsaColumnTracker(familyMap, null, false, null, false);
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Transaction executed by {@link HaeinsaLoadGenerator}, which is written as
+ * {@code (writes + reads) * rows + readOnlyRows} like transactions of Performance page of wiki.
+ * Each written row is read first, then columns are put on it, and read-only rows are read at last.
+ * Rows of a transaction are distinct keys drawn from {@link HaeinsaKeyDistribution}.
+ */
+public final class HaeinsaWorkload {
+    static final byte[] FAMILY = Bytes.toBytes("data");
+
+    /**
+     * (3 writes + 1 read) * 2 rows + 1 read * 1 row, which simulates most transactions of Between.
+     */
+    public static final HaeinsaWorkload PRACTICAL = new HaeinsaWorkload("practical", 2, 3, 1, 1);
+    /**
+     * 1 write * 2 rows + 1 read * 1 row, which has the largest overhead compared to HBase-only operations.
+     */
+    public static final HaeinsaWorkload WORST_CASE = new HaeinsaWorkload("worst", 2, 1, 0, 1);
+
+    private static final int MAX_DRAW_PER_ROW = 100;
+
+    private final String name;
+    private final int rows;
+    private final int writesPerRow;
+    private final int readsPerRow;
+    private final int readOnlyRows;
+    private final byte[][] qualifiers;
+
+    public HaeinsaWorkload(String name, int rows, int writesPerRow, int readsPerRow, int readOnlyRows) {
+        Preconditions.checkArgument(rows >= 0 && writesPerRow >= 0 && readsPerRow >= 0 && readOnlyRows >= 0);
+        Preconditions.checkArgument(rows + readOnlyRows > 0, "transaction should access at least one row.");
+        this.name = name;
+        this.rows = rows;
+        this.writesPerRow = writesPerRow;
+        this.readsPerRow = readsPerRow;
+        this.readOnlyRows = readOnlyRows;
+        this.qualifiers = new byte[writesPerRow][];
+        for (int i = 0; i < writesPerRow; i++) {
+            qualifiers[i] = Bytes.toBytes("col" + i);
+        }
+    }
+
+    /**
+     * Parse workload from name of predefined workload, or {@code rows:writes:reads:readOnlyRows}.
+     */
+    public static HaeinsaWorkload parse(String value) {
+        if (value.equals(PRACTICAL.name)) {
+            return PRACTICAL;
+        } else if (value.equals(WORST_CASE.name)) {
+            return WORST_CASE;
+        }
+        String[] parts = value.split(":");
+        Preconditions.checkArgument(parts.length == 4, "workload should be practical, worst or rows:writes:reads:readOnlyRows.");
+        return new HaeinsaWorkload(value, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return number of gets of a transaction, which are RPCs not counted by commit of transaction.
+     */
+    public int getReadCount() {
+        return rows * readsPerRow + readOnlyRows;
+    }
+
+    /**
+     * Read and write rows of the transaction. Transaction is not committed by this method.
+     */
+    public void execute(HaeinsaTransaction tx, HaeinsaTableIface table, HaeinsaKeyDistribution keys, Random random)
+            throws IOException {
+        long[] drawn = new long[rows + readOnlyRows];
+        for (int i = 0; i < drawn.length; i++) {
+            drawn[i] = drawDistinct(drawn, i, keys, random);
+        }
+        for (int i = 0; i < rows; i++) {
+            byte[] row = toRow(drawn[i]);
+            for (int r = 0; r < readsPerRow; r++) {
+                table.get(tx, new HaeinsaGet(row).addFamily(FAMILY));
+            }
+            for (int w = 0; w < writesPerRow; w++) {
+                table.put(tx, new HaeinsaPut(row).add(FAMILY, qualifiers[w], Bytes.toBytes(random.nextLong())));
+            }
+        }
+        for (int i = rows; i < drawn.length; i++) {
+            table.get(tx, new HaeinsaGet(toRow(drawn[i])).addFamily(FAMILY));
+        }
+    }
+
+    private static long drawDistinct(long[] drawn, int count, HaeinsaKeyDistribution keys, Random random) {
+        long key = keys.next(random);
+        for (int attempt = 0; attempt < MAX_DRAW_PER_ROW && contains(drawn, count, key); attempt++) {
+            key = keys.next(random);
+        }
+        return key;
+    }
+
+    private static boolean contains(long[] drawn, int count, long key) {
+        for (int i = 0; i < count; i++) {
+            if (drawn[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static byte[] toRow(long key) {
+        return Bytes.toBytes(String.format("row-%012d", key));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s((%d writes + %d reads) * %d rows + %d reads)", name, writesPerRow, readsPerRow, rows, readOnlyRows);
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TCellKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of {@link TRowLocks#serialize(TRowLock)} and {@link TRowLocks#deserialize(byte[])},
+ * which are called for every row on prewrite, commit and lock check.
+ * Lock is the primary lock of prewritten state, which is the largest lock written by Haeinsa:
+ * it contains secondaries, prewritten cells and remaining mutations of the row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TRowLocksBenchmark {
+    private static final byte[] TABLE_NAME = Bytes.toBytes("test");
+    private static final byte[] FAMILY = Bytes.toBytes("data");
+
+    @Param({ "1", "8" })
+    private int secondaryCount;
+
+    @Param({ "4", "32" })
+    private int columnCount;
+
+    private TRowLock rowLock;
+    private byte[] rowLockBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        rowLock = new TRowLock(HaeinsaConstants.ROW_LOCK_VERSION, TRowLockState.PREWRITTEN, 1380000000000L);
+        rowLock.setCurrentTimestamp(1380000000001L);
+        rowLock.setExpiry(1380000005000L);
+        rowLock.setPrewriteTimestamp(1380000000001L);
+        for (int i = 0; i < secondaryCount; i++) {
+            rowLock.addToSecondaries(new TRowKey(ByteBuffer.wrap(TABLE_NAME), ByteBuffer.wrap(Bytes.toBytes("row-" + i))));
+        }
+        HaeinsaPut put = new HaeinsaPut(Bytes.toBytes("primary"));
+        for (int i = 0; i < columnCount; i++) {
+            byte[] qualifier = Bytes.toBytes(String.format("qualifier-%03d", i));
+            rowLock.addToPrewritten(new TCellKey(ByteBuffer.wrap(FAMILY), ByteBuffer.wrap(qualifier)));
+            put.add(FAMILY, qualifier, Bytes.toBytes(i));
+        }
+        rowLock.addToMutations(put.toTMutation());
+        rowLockBytes = TRowLocks.serialize(rowLock);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return TRowLocks.serialize(rowLock);
+    }
+
+    @Benchmark
+    public TRowLock deserialize() throws IOException {
+        return TRowLocks.deserialize(rowLockBytes);
+    }
+}
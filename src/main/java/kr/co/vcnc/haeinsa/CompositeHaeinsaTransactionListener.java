@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import kr.co.vcnc.haeinsa.HaeinsaTransaction.CommitMethod;
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Immutable list of {@link HaeinsaTransactionListener} which notifies every listener in order.
+ * RuntimeException thrown by a listener is logged, and doesn't prevent other listeners from being notified.
+ */
+final class CompositeHaeinsaTransactionListener extends HaeinsaTransactionListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompositeHaeinsaTransactionListener.class);
+
+    private final List<HaeinsaTransactionListener> listeners;
+
+    CompositeHaeinsaTransactionListener(List<HaeinsaTransactionListener> listeners) {
+        this.listeners = ImmutableList.copyOf(listeners);
+    }
+
+    List<HaeinsaTransactionListener> getListeners() {
+        return listeners;
+    }
+
+    @Override
+    public void onBegin(HaeinsaTransaction tx) {
+        for (HaeinsaTransactionListener listener : listeners) {
+            try {
+                listener.onBegin(tx);
+            } catch (RuntimeException e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void onRead(HaeinsaTransaction tx, byte[] tableName, HaeinsaQuery query) {
+        for (HaeinsaTransactionListener listener : listeners) {
+            try {
+                listener.onRead(tx, tableName, query);
+            } catch (RuntimeException e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void onWrite(HaeinsaTransaction tx, byte[] tableName, HaeinsaMutation mutation) {
+        for (HaeinsaTransactionListener listener : listeners) {
+            try {
+                listener.onWrite(tx, tableName, mutation);
+            } catch (RuntimeException e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void onRpc(HaeinsaTransaction tx, HaeinsaPhase phase, byte[] tableName, @Nullable byte[] row, long elapsedNanos) {
+        for (HaeinsaTransactionListener listener : listeners) {
+            try {
+                listener.onRpc(tx, phase, tableName, row, elapsedNanos);
+            } catch (RuntimeException e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void onCommitMethod(HaeinsaTransaction tx, CommitMethod method) {
+        for (HaeinsaTransactionListener listener : listeners) {
+            try {
+                listener.onCommitMethod(tx, method);
+            } catch (RuntimeException e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void onConflict(HaeinsaTransaction tx, HaeinsaPhase phase, ConflictException e) {
+        for (HaeinsaTransactionListener listener : listeners) {
+            try {
+                listener.onConflict(tx, phase, e);
+            } catch (RuntimeException re) {
+                LOGGER.warn(re.getMessage(), re);
+            }
+        }
+    }
+
+    @Override
+    public void onCommit(HaeinsaTransaction tx, long elapsedNanos, @Nullable Throwable failure) {
+        for (HaeinsaTransactionListener listener : listeners) {
+            try {
+                listener.onCommit(tx, elapsedNanos, failure);
+            } catch (RuntimeException e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void onRecover(TRowKey primary, long elapsedNanos, @Nullable Throwable failure) {
+        for (HaeinsaTransactionListener listener : listeners) {
+            try {
+                listener.onRecover(primary, elapsedNanos, failure);
+            } catch (RuntimeException e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -54,6 +54,11 @@ public class ForwardingHaeinsaTable extends ForwardingObject implements HaeinsaT
         delegate().checkSingleRowLock(rowState, row);
     }
 
+    @Override
+    public void checkReadSet(HaeinsaTableTransaction tableState) throws IOException {
+        delegate().checkReadSet(tableState);
+    }
+
     @Override
     public void prewrite(HaeinsaRowTransaction rowState, byte[] row, boolean isPrimary) throws IOException {
         delegate().prewrite(rowState, row, isPrimary);
@@ -74,11 +79,26 @@ public class ForwardingHaeinsaTable extends ForwardingObject implements HaeinsaT
         delegate().commitPrimary(rowTxState, row);
     }
 
+    @Override
+    public void renewLock(HaeinsaRowTransaction rowTxState, byte[] row, long expiry) throws IOException {
+        delegate().renewLock(rowTxState, row, expiry);
+    }
+
     @Override
     public TRowLock getRowLock(byte[] row) throws IOException {
         return delegate().getRowLock(row);
     }
 
+    @Override
+    public List<TRowLock> getRowLocks(List<byte[]> rows) throws IOException {
+        return delegate().getRowLocks(rows);
+    }
+
+    @Override
+    public String getRegionServer(byte[] row) throws IOException {
+        return delegate().getRegionServer(row);
+    }
+
     @Override
     public void abortPrimary(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
         delegate().abortPrimary(rowTxState, row);
@@ -129,6 +149,11 @@ public class ForwardingHaeinsaTable extends ForwardingObject implements HaeinsaT
         return delegate().getScanner(tx, intraScan);
     }
 
+    @Override
+    public void scan(@Nullable HaeinsaTransaction tx, HaeinsaScan scan, HaeinsaRowVisitor visitor) throws IOException {
+        delegate().scan(tx, scan, visitor);
+    }
+
     @Override
     public void put(HaeinsaTransaction tx, HaeinsaPut put) throws IOException {
         delegate().put(tx, put);
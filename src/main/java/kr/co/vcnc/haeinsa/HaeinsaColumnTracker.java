@@ -15,25 +15,31 @@
  */
 package kr.co.vcnc.haeinsa;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableSet;
-import java.util.TreeMap;
 
 import org.apache.hadoop.hbase.util.Bytes;
 
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Lists;
 
 /**
  * Tracking parameters of {@link HaeinsaScan} and {@link HaeinsaIntraScan}
  * inside {@link HaeinsaTable}.
  * <p>
  * Tracker can determine whether specific HaeinsaKeyValue inside scan range.
+ * Families and qualifiers are copied into sorted arrays once, so {@link #isMatched(HaeinsaKeyValue)}
+ * only does binary searches and never allocates.
  */
 public class HaeinsaColumnTracker {
-    // { family -> qualifier }
-    private final Map<byte[], NavigableSet<byte[]>> familyMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    // sorted families, { family -> qualifiers }
+    private final byte[][] families;
+    // sorted qualifiers of each family, null if whole family is selected.
+    private final byte[][][] qualifiers;
 
     private final byte[] minColumn;
     private final boolean minColumnInclusive;
@@ -53,13 +59,24 @@ public class HaeinsaColumnTracker {
         this.maxColumn = maxColumn;
         this.minColumnInclusive = minColumnInclusive;
         this.maxColumnInclusive = maxColumnInclusive;
-        for (Entry<byte[], NavigableSet<byte[]>> entry : familyMap.entrySet()) {
+
+        // familyMap of HaeinsaScan is sorted already, but sort again because it can be replaced by setFamilyMap().
+        List<Entry<byte[], NavigableSet<byte[]>>> entries = Lists.newArrayList(familyMap.entrySet());
+        Collections.sort(entries, new Comparator<Entry<byte[], NavigableSet<byte[]>>>() {
+            @Override
+            public int compare(Entry<byte[], NavigableSet<byte[]>> o1, Entry<byte[], NavigableSet<byte[]>> o2) {
+                return Bytes.compareTo(o1.getKey(), o2.getKey());
+            }
+        });
+        this.families = new byte[entries.size()][];
+        this.qualifiers = new byte[entries.size()][][];
+        for (int i = 0; i < entries.size(); i++) {
+            Entry<byte[], NavigableSet<byte[]>> entry = entries.get(i);
+            families[i] = entry.getKey();
             if (entry.getValue() != null) {
-                NavigableSet<byte[]> qualifierSet = Sets.newTreeSet(Bytes.BYTES_COMPARATOR);
-                qualifierSet.addAll(entry.getValue());
-                this.familyMap.put(entry.getKey(), qualifierSet);
-            } else {
-                this.familyMap.put(entry.getKey(), null);
+                byte[][] qualifierArray = entry.getValue().toArray(new byte[0][]);
+                Arrays.sort(qualifierArray, Bytes.BYTES_COMPARATOR);
+                qualifiers[i] = qualifierArray;
             }
         }
     }
@@ -116,20 +133,26 @@ public class HaeinsaColumnTracker {
         // that programmer wants to scan all (family, qualifier) pairs
         // inside scan range, and call isColumnInclusive(kv) directly.
         // { empty }
-        if (familyMap.isEmpty()) {
+        if (families.length == 0) {
             return isColumnInclusive(kv);
         }
 
-        NavigableSet<byte[]> set = familyMap.get(kv.getFamily());
+        int pos = Arrays.binarySearch(families, kv.getFamily(), Bytes.BYTES_COMPARATOR);
+        // If column family is not specified.
+        if (pos < 0) {
+            return false;
+        }
+
+        byte[][] qualifierArray = qualifiers[pos];
         // If column family is specified, but there are no qualifiers.
         // { family -> null }
-        if (familyMap.containsKey(kv.getFamily()) && set == null) {
+        if (qualifierArray == null) {
             return isColumnInclusive(kv);
         }
 
         // If both family and qualifier are specified.
         // { family -> qualifier }
-        if (set.contains(kv.getQualifier())) {
+        if (Arrays.binarySearch(qualifierArray, kv.getQualifier(), Bytes.BYTES_COMPARATOR) >= 0) {
             return isColumnInclusive(kv);
         }
         return false;
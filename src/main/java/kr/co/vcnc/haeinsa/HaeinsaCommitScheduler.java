@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Scheduler of per-row operations during commit, such as prewrite of secondary rows, lock-check of read-only rows
+ * and stabilizing rows. Rows are grouped by region server which hosts the row, and operations of each group are
+ * sent consecutively, so that RPCs of the transaction do not hop between region servers in hash order of rows.
+ * If executor is given, groups are executed concurrently and rows in the same group are executed sequentially.
+ * <p>
+ * Order of groups and order of rows in each group follow iteration order of given rows,
+ * so scheduling is deterministic for the same row locations.
+ * Scheduler doesn't change selection of primary row, which is used to avoid deadlock between transactions.
+ * <p>
+ * {@link #executeAll(List)} is also used to read locks of several tables concurrently during recovery.
+ * Tasks scheduled from a thread which is already executing a task of the executor are executed on that thread,
+ * because waiting for tasks queued on bounded executor from its own thread can deadlock.
+ */
+final class HaeinsaCommitScheduler {
+    // group key of rows whose region server is unknown
+    private static final String UNKNOWN_REGION_SERVER = "";
+    // whether current thread is executing a task submitted to executor of any scheduler
+    private static final ThreadLocal<Boolean> IN_EXECUTOR = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+
+    /**
+     * Operation applied to each row.
+     */
+    interface RowOperation {
+        void apply(HaeinsaTableIfaceInternal table, TRowKey rowKey, HaeinsaRowTransaction rowState) throws IOException;
+    }
+
+    private final HaeinsaTablePool tablePool;
+    @Nullable
+    private final ExecutorService executor;
+
+    HaeinsaCommitScheduler(HaeinsaTablePool tablePool, @Nullable ExecutorService executor) {
+        this.tablePool = tablePool;
+        this.executor = executor;
+    }
+
+    /**
+     * Apply operation to every row grouped by region server.
+     * Waits all groups to be finished even if some of group failed,
+     * and throws exception of the first failed group in that case.
+     *
+     * @param rows rows to apply operation. Iteration order of the map is preserved in each group.
+     * @throws IOException exception thrown by operation, ConflictException or HBase IOException
+     */
+    void execute(Map<TRowKey, HaeinsaRowTransaction> rows, final RowOperation operation) throws IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<List<Entry<TRowKey, HaeinsaRowTransaction>>> groups = groupByRegionServer(rows);
+        List<Callable<Void>> tasks = Lists.newArrayListWithCapacity(groups.size());
+        for (final List<Entry<TRowKey, HaeinsaRowTransaction>> group : groups) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    executeGroup(group, operation);
+                    return null;
+                }
+            });
+        }
+        executeAll(tasks);
+    }
+
+    /**
+     * Execute tasks concurrently if executor is given, or sequentially otherwise.
+     * Tasks are also executed sequentially if current thread is executing a task of executor.
+     * The first task is executed on the current thread. Waits all tasks to be finished even if some of task failed,
+     * and throws exception of the first failed task in that case.
+     *
+     * @throws IOException exception thrown by task
+     */
+    void executeAll(List<? extends Callable<Void>> tasks) throws IOException {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        if (executor == null || tasks.size() == 1 || IN_EXECUTOR.get()) {
+            for (Callable<Void> task : tasks) {
+                call(task);
+            }
+            return;
+        }
+
+        List<Future<Void>> futures = Lists.newArrayListWithCapacity(tasks.size() - 1);
+        for (final Callable<Void> task : tasks.subList(1, tasks.size())) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    boolean inExecutor = IN_EXECUTOR.get();
+                    IN_EXECUTOR.set(true);
+                    try {
+                        return task.call();
+                    } finally {
+                        IN_EXECUTOR.set(inExecutor);
+                    }
+                }
+            }));
+        }
+        Throwable failure = null;
+        // execute first task on the current thread
+        try {
+            call(tasks.get(0));
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw propagate(failure);
+        }
+    }
+
+    private static void call(Callable<Void> task) throws IOException {
+        try {
+            task.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static IOException propagate(Throwable failure) {
+        if (failure instanceof IOException) {
+            return (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return new IOException(failure);
+    }
+
+    private void executeGroup(List<Entry<TRowKey, HaeinsaRowTransaction>> group, RowOperation operation) throws IOException {
+        TableCheckouts tables = new TableCheckouts();
+        try {
+            for (Entry<TRowKey, HaeinsaRowTransaction> entry : group) {
+                TRowKey rowKey = entry.getKey();
+                operation.apply(tables.get(rowKey), rowKey, entry.getValue());
+            }
+        } finally {
+            tables.close();
+        }
+    }
+
+    private List<List<Entry<TRowKey, HaeinsaRowTransaction>>> groupByRegionServer(Map<TRowKey, HaeinsaRowTransaction> rows)
+            throws IOException {
+        // { regionServer -> rows }, ordered by first appearance
+        Map<String, List<Entry<TRowKey, HaeinsaRowTransaction>>> groups = Maps.newLinkedHashMap();
+        TableCheckouts tables = new TableCheckouts();
+        try {
+            for (Entry<TRowKey, HaeinsaRowTransaction> entry : rows.entrySet()) {
+                String regionServer = tables.get(entry.getKey()).getRegionServer(entry.getKey().getRow());
+                if (regionServer == null) {
+                    regionServer = UNKNOWN_REGION_SERVER;
+                }
+                List<Entry<TRowKey, HaeinsaRowTransaction>> group = groups.get(regionServer);
+                if (group == null) {
+                    group = Lists.newArrayList();
+                    groups.put(regionServer, group);
+                }
+                group.add(entry);
+            }
+        } finally {
+            tables.close();
+        }
+        return Lists.newArrayList(groups.values());
+    }
+
+    /**
+     * Tables checked out from the pool once for each table and returned together,
+     * so that operations on several rows of a table don't check out the table for each row.
+     * Tables are not thread-safe, so it should be used by single thread.
+     */
+    private final class TableCheckouts implements Closeable {
+        private final Map<String, HaeinsaTableIfaceInternal> tables = Maps.newHashMap();
+
+        HaeinsaTableIfaceInternal get(TRowKey rowKey) {
+            String tableName = Bytes.toString(rowKey.getTableName());
+            HaeinsaTableIfaceInternal table = tables.get(tableName);
+            if (table == null) {
+                table = tablePool.getTableInternal(tableName);
+                tables.put(tableName, table);
+            }
+            return table;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (HaeinsaTableIfaceInternal table : tables.values()) {
+                try {
+                    table.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -63,4 +63,10 @@ public final class HaeinsaConstants {
     public static final byte[] LOCK_QUALIFIER = Bytes.toBytes("lock");
 
     public static final int RECOVER_MAX_RETRY_COUNT = 3;
+
+    /**
+     * Maximum number of rows fetched at once by scan of lock column, which validates compact read-set
+     * of the transaction on commit.
+     */
+    public static final int READ_SET_CHECK_CACHING = 1000;
 }
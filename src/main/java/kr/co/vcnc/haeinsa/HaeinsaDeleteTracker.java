@@ -15,22 +15,32 @@
  */
 package kr.co.vcnc.haeinsa;
 
+import java.util.Arrays;
 import java.util.Map.Entry;
-import java.util.NavigableMap;
 import java.util.NavigableSet;
 
 import org.apache.hadoop.hbase.util.Bytes;
 
-import com.google.common.collect.Maps;
-
 /**
  * Tracking deleted columns and family inside specific row.
+ * <p>
+ * Deleted families and columns are kept in sorted arrays with primitive sequenceIDs,
+ * and looked up by binary search. Because {@link #reset()} is called on every row boundary of scan,
+ * reset only rewinds the counters and arrays are reused for next row.
  */
 public class HaeinsaDeleteTracker {
-    // { family -> sequenceId }
-    private final NavigableMap<byte[], Long> families = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-    // { family -> { column -> sequenceId } }
-    private final NavigableMap<byte[], NavigableMap<byte[], Long>> cells = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    private static final int INITIAL_CAPACITY = 4;
+
+    // sorted by family, { family -> sequenceId }
+    private byte[][] families = new byte[INITIAL_CAPACITY][];
+    private long[] familySequenceIDs = new long[INITIAL_CAPACITY];
+    private int familyCount;
+
+    // sorted by (family, qualifier), { (family, qualifier) -> sequenceId }
+    private byte[][] cellFamilies = new byte[INITIAL_CAPACITY][];
+    private byte[][] cellQualifiers = new byte[INITIAL_CAPACITY][];
+    private long[] cellSequenceIDs = new long[INITIAL_CAPACITY];
+    private int cellCount;
 
     public HaeinsaDeleteTracker() {}
 
@@ -47,23 +57,26 @@ public class HaeinsaDeleteTracker {
     public void add(HaeinsaKeyValue kv, long sequenceID) {
         switch (kv.getType()) {
         case DeleteFamily: {
-            Long previous = families.get(kv.getFamily());
-            if (previous == null || previous.compareTo(sequenceID) > 0) {
-                // sequenceId is lower than previous one.
-                families.put(kv.getFamily(), sequenceID);
+            int pos = searchFamily(kv.getFamily());
+            if (pos >= 0) {
+                if (familySequenceIDs[pos] > sequenceID) {
+                    // sequenceId is lower than previous one.
+                    familySequenceIDs[pos] = sequenceID;
+                }
+            } else {
+                insertFamily(-(pos + 1), kv.getFamily(), sequenceID);
             }
             break;
         }
         case DeleteColumn: {
-            NavigableMap<byte[], Long> cellMap = cells.get(kv.getFamily());
-            if (cellMap == null) {
-                cellMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-                cells.put(kv.getFamily(), cellMap);
-            }
-            Long previous = families.get(kv.getQualifier());
-            if (previous == null || previous.compareTo(sequenceID) > 0) {
-                // sequenceId is lower than previous one.
-                cellMap.put(kv.getQualifier(), sequenceID);
+            int pos = searchCell(kv.getFamily(), kv.getQualifier());
+            if (pos >= 0) {
+                if (cellSequenceIDs[pos] > sequenceID) {
+                    // sequenceId is lower than previous one.
+                    cellSequenceIDs[pos] = sequenceID;
+                }
+            } else {
+                insertCell(-(pos + 1), kv.getFamily(), kv.getQualifier(), sequenceID);
             }
             break;
         }
@@ -93,16 +106,17 @@ public class HaeinsaDeleteTracker {
      */
     public boolean isDeleted(HaeinsaKeyValue kv, long sequenceID) {
         // check family
-        Long deletedSequenceID = families.get(kv.getFamily());
-        if (deletedSequenceID != null && deletedSequenceID.compareTo(sequenceID) < 0) {
-            return true;
+        if (familyCount > 0) {
+            int pos = searchFamily(kv.getFamily());
+            if (pos >= 0 && familySequenceIDs[pos] < sequenceID) {
+                return true;
+            }
         }
 
         // check cell
-        NavigableMap<byte[], Long> cellMap = cells.get(kv.getFamily());
-        if (cellMap != null) {
-            deletedSequenceID = cellMap.get(kv.getQualifier());
-            if (deletedSequenceID != null && deletedSequenceID.compareTo(sequenceID) < 0) {
+        if (cellCount > 0) {
+            int pos = searchCell(kv.getFamily(), kv.getQualifier());
+            if (pos >= 0 && cellSequenceIDs[pos] < sequenceID) {
                 return true;
             }
         }
@@ -110,10 +124,87 @@ public class HaeinsaDeleteTracker {
     }
 
     /**
-     * clear inside family & column tracker
+     * clear inside family & column tracker.
+     * Arrays are not cleared, entries left are overwritten when other deletes are added.
      */
     public void reset() {
-        families.clear();
-        cells.clear();
+        familyCount = 0;
+        cellCount = 0;
+    }
+
+    /**
+     * @return index of family if found, (-(insertion point) - 1) otherwise.
+     */
+    private int searchFamily(byte[] family) {
+        int low = 0;
+        int high = familyCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = Bytes.compareTo(families[mid], family);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return index of (family, qualifier) if found, (-(insertion point) - 1) otherwise.
+     */
+    private int searchCell(byte[] family, byte[] qualifier) {
+        int low = 0;
+        int high = cellCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = Bytes.compareTo(cellFamilies[mid], family);
+            if (cmp == 0) {
+                cmp = Bytes.compareTo(cellQualifiers[mid], qualifier);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void insertFamily(int pos, byte[] family, long sequenceID) {
+        if (familyCount == families.length) {
+            families = Arrays.copyOf(families, familyCount * 2);
+            familySequenceIDs = Arrays.copyOf(familySequenceIDs, familyCount * 2);
+        }
+        int moved = familyCount - pos;
+        if (moved > 0) {
+            System.arraycopy(families, pos, families, pos + 1, moved);
+            System.arraycopy(familySequenceIDs, pos, familySequenceIDs, pos + 1, moved);
+        }
+        families[pos] = family;
+        familySequenceIDs[pos] = sequenceID;
+        familyCount++;
+    }
+
+    private void insertCell(int pos, byte[] family, byte[] qualifier, long sequenceID) {
+        if (cellCount == cellFamilies.length) {
+            cellFamilies = Arrays.copyOf(cellFamilies, cellCount * 2);
+            cellQualifiers = Arrays.copyOf(cellQualifiers, cellCount * 2);
+            cellSequenceIDs = Arrays.copyOf(cellSequenceIDs, cellCount * 2);
+        }
+        int moved = cellCount - pos;
+        if (moved > 0) {
+            System.arraycopy(cellFamilies, pos, cellFamilies, pos + 1, moved);
+            System.arraycopy(cellQualifiers, pos, cellQualifiers, pos + 1, moved);
+            System.arraycopy(cellSequenceIDs, pos, cellSequenceIDs, pos + 1, moved);
+        }
+        cellFamilies[pos] = family;
+        cellQualifiers[pos] = qualifier;
+        cellSequenceIDs[pos] = sequenceID;
+        cellCount++;
     }
 }
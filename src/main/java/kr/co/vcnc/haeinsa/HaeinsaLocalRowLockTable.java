@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * In-process lock table of rows which are being committed by transactions of this JVM.
+ * <p>
+ * Transactions in the same process which mutate same row will conflict on HBase anyway,
+ * so {@link HaeinsaTransaction} takes local lock of its mutation rows before prewrite,
+ * and fails fast or waits briefly for the other transaction instead of sending prewrite RPC that will fail.
+ * Lock table is optional and can be enabled by passing it to {@link HaeinsaTransactionManager}.
+ * <p>
+ * Locks are taken by compare-and-set on striped {@link ConcurrentHashMap}, and waiting is done by parking briefly.
+ * Rows are locked in order of given collection, so transactions which lock rows in the same sorted order
+ * don't wait for each other forever.
+ * This lock table is an optimization only, consistency of the transaction is guaranteed by locks on HBase.
+ */
+public class HaeinsaLocalRowLockTable {
+    private static final long PARK_INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final ConcurrentMap<HashedRowKey, HaeinsaTransaction> locks;
+    private final long maxWaitNanos;
+
+    /**
+     * Create lock table which fails fast if the row is locked by other transaction.
+     *
+     * @param concurrencyLevel number of stripes of the lock table
+     */
+    public HaeinsaLocalRowLockTable(int concurrencyLevel) {
+        this(concurrencyLevel, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create lock table which waits the row locked by other transaction to be unlocked up to maxWait.
+     *
+     * @param concurrencyLevel number of stripes of the lock table
+     * @param maxWait maximum time to wait for each row. Fails fast if 0.
+     * @param unit time unit of maxWait
+     */
+    public HaeinsaLocalRowLockTable(int concurrencyLevel, long maxWait, TimeUnit unit) {
+        Preconditions.checkArgument(maxWait >= 0, "maxWait should not be negative.");
+        this.locks = new ConcurrentHashMap<>(16, 0.75f, concurrencyLevel);
+        this.maxWaitNanos = unit.toNanos(maxWait);
+    }
+
+    /**
+     * Lock all rows for the transaction. If any row can't be locked, locks taken by this call are released.
+     *
+     * @throws ConflictException if row is locked by other transaction of this process and not unlocked in time.
+     */
+    void lockAll(HaeinsaTransaction tx, Collection<TRowKey> rowKeys) throws ConflictException {
+        List<HashedRowKey> locked = Lists.newArrayListWithCapacity(rowKeys.size());
+        for (TRowKey rowKey : rowKeys) {
+            HashedRowKey key = new HashedRowKey(rowKey);
+            try {
+                lock(tx, key);
+            } catch (ConflictException e) {
+                for (HashedRowKey lockedKey : locked) {
+                    locks.remove(lockedKey, tx);
+                }
+                tx.recordConflict(HaeinsaPhase.LOCAL_ROW_LOCK, rowKey.getTableName(), rowKey.getRow(), e);
+                throw e;
+            }
+            locked.add(key);
+        }
+    }
+
+    private void lock(HaeinsaTransaction tx, HashedRowKey key) throws ConflictException {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (true) {
+            HaeinsaTransaction owner = locks.putIfAbsent(key, tx);
+            if (owner == null || owner == tx) {
+                return;
+            }
+            if (maxWaitNanos == 0 || System.nanoTime() - deadline >= 0) {
+                throw new ConflictException("this row is being committed by other transaction in this process.");
+            }
+            LockSupport.parkNanos(PARK_INTERVAL_NANOS);
+        }
+    }
+
+    /**
+     * Release locks of the rows which are held by the transaction.
+     */
+    void unlockAll(HaeinsaTransaction tx, Collection<TRowKey> rowKeys) {
+        for (TRowKey rowKey : rowKeys) {
+            locks.remove(new HashedRowKey(rowKey), tx);
+        }
+    }
+
+    /**
+     * @return number of locked rows
+     */
+    @VisibleForTesting
+    int size() {
+        return locks.size();
+    }
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_FAMILY;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_QUALIFIER;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Recovers failed transactions in background, instead of waiting for other clients to access rows of them.
+ * <p>
+ * Janitor scans {@link HaeinsaConstants#LOCK_FAMILY} of configured tables region by region in parallel,
+ * and recovers transaction of every expired lock which is not {@link TRowLockState#STABLE}
+ * by {@link HaeinsaTransactionManager#recover(byte[], byte[])}, once per transaction in a pass.
+ * Transaction whose primary is {@link TRowLockState#COMMITTED} is rolled forward,
+ * and the other ones are aborted. Recovery is rate limited not to overload region servers.
+ * <p>
+ * Regions can be divided among several janitors by {@link #setShard(int, int)}.
+ * Every janitor should be configured with same shard count and different shard index.
+ */
+public class HaeinsaLockJanitor implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HaeinsaLockJanitor.class);
+
+    private final HaeinsaTransactionManager tm;
+    private final List<String> tableNames;
+    private final ExecutorService executor;
+    private final boolean shutdownOnClose;
+
+    private volatile RateLimiter rateLimiter = RateLimiter.create(100);
+    private volatile int shardIndex = 0;
+    private volatile int shardCount = 1;
+    private volatile int scanCaching = 100;
+
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> scheduledPass;
+
+    private final AtomicLong scannedLockCount = new AtomicLong();
+    private final AtomicLong recoveredCount = new AtomicLong();
+    private final AtomicLong abortedCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * Create janitor which owns executor with given number of threads.
+     *
+     * @param tableNames tables to scan
+     * @param threads number of regions scanned concurrently
+     */
+    public HaeinsaLockJanitor(HaeinsaTransactionManager tm, Iterable<String> tableNames, int threads) {
+        this(tm, tableNames, Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("haeinsa-janitor-%d").setDaemon(true).build()), true);
+    }
+
+    /**
+     * Create janitor with executor managed by caller.
+     *
+     * @param tableNames tables to scan
+     * @param executor executor which scans regions
+     */
+    public HaeinsaLockJanitor(HaeinsaTransactionManager tm, Iterable<String> tableNames, ExecutorService executor) {
+        this(tm, tableNames, executor, false);
+    }
+
+    private HaeinsaLockJanitor(HaeinsaTransactionManager tm, Iterable<String> tableNames, ExecutorService executor, boolean shutdownOnClose) {
+        this.tm = Preconditions.checkNotNull(tm);
+        this.tableNames = ImmutableList.copyOf(tableNames);
+        this.executor = Preconditions.checkNotNull(executor);
+        this.shutdownOnClose = shutdownOnClose;
+    }
+
+    /**
+     * Limit number of transactions recovered per second by this janitor. Default is 100.
+     */
+    public HaeinsaLockJanitor setMaxRecoveriesPerSecond(double permitsPerSecond) {
+        Preconditions.checkArgument(permitsPerSecond > 0, "permitsPerSecond should be positive");
+        this.rateLimiter = RateLimiter.create(permitsPerSecond);
+        return this;
+    }
+
+    /**
+     * Scan only regions which belong to given shard.
+     * Region belongs to shard of hash of its start key modulo shard count.
+     *
+     * @param shardIndex index of shard of this janitor, from 0 to shardCount - 1
+     * @param shardCount number of janitors which divide regions
+     */
+    public HaeinsaLockJanitor setShard(int shardIndex, int shardCount) {
+        Preconditions.checkArgument(shardCount > 0, "shardCount should be positive");
+        Preconditions.checkArgument(shardIndex >= 0 && shardIndex < shardCount, "shardIndex should be in [0, shardCount)");
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+        return this;
+    }
+
+    /**
+     * Set number of rows fetched per RPC while scanning locks. Default is 100.
+     */
+    public HaeinsaLockJanitor setScanCaching(int scanCaching) {
+        Preconditions.checkArgument(scanCaching > 0, "scanCaching should be positive");
+        this.scanCaching = scanCaching;
+        return this;
+    }
+
+    /**
+     * Run a pass periodically on background thread, until janitor is closed.
+     *
+     * @param interval delay between end of a pass and start of the next one
+     */
+    public synchronized void start(long interval, TimeUnit unit) {
+        Preconditions.checkState(scheduler == null, "Janitor is already started.");
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("haeinsa-janitor-scheduler").setDaemon(true).build());
+        scheduledPass = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runOnce();
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.warn(e.getMessage(), e);
+                }
+            }
+        }, 0, interval, unit);
+    }
+
+    /**
+     * Scan every region of configured tables which belongs to the shard of this janitor once,
+     * and recover expired transactions found. Failure of a region is logged and doesn't stop other regions.
+     *
+     * @throws IOException if region locations of a table can't be loaded
+     */
+    public void runOnce() throws IOException {
+        // primary rows of transactions which are recovered in this pass
+        final Set<TRowKey> recoveredPrimaries = Collections.newSetFromMap(new ConcurrentHashMap<TRowKey, Boolean>());
+        List<Future<Void>> futures = Lists.newArrayList();
+        for (final String tableName : tableNames) {
+            for (final Pair<byte[], byte[]> region : getRegions(tableName)) {
+                if (!isInShard(region.getFirst())) {
+                    continue;
+                }
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        scanRegion(tableName, region.getFirst(), region.getSecond(), recoveredPrimaries);
+                        return null;
+                    }
+                }));
+            }
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                LOGGER.warn("Failed to scan region: " + e.getCause().getMessage(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * @return list of (startKey, endKey) of regions, or single range of whole table if it isn't backed by {@link HTable}.
+     */
+    private List<Pair<byte[], byte[]>> getRegions(String tableName) throws IOException {
+        try (HaeinsaTableIfaceInternal table = tm.getTablePool().getTableInternal(tableName)) {
+            HTable hTable = HaeinsaTablePool.unwrapHTable(table);
+            if (hTable == null) {
+                return ImmutableList.of(Pair.newPair(HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW));
+            }
+            Pair<byte[][], byte[][]> keys = hTable.getStartEndKeys();
+            List<Pair<byte[], byte[]>> regions = Lists.newArrayListWithCapacity(keys.getFirst().length);
+            for (int i = 0; i < keys.getFirst().length; i++) {
+                regions.add(Pair.newPair(keys.getFirst()[i], keys.getSecond()[i]));
+            }
+            return regions;
+        }
+    }
+
+    private boolean isInShard(byte[] regionStartKey) {
+        int shard = Bytes.hashCode(regionStartKey) % shardCount;
+        if (shard < 0) {
+            shard += shardCount;
+        }
+        return shard == shardIndex;
+    }
+
+    private void scanRegion(String tableName, byte[] startKey, byte[] endKey, Set<TRowKey> recoveredPrimaries) throws IOException {
+        Scan scan = new Scan(startKey, endKey);
+        scan.addColumn(LOCK_FAMILY, LOCK_QUALIFIER);
+        scan.setCaching(scanCaching);
+        // full scan of locks should not evict blocks which are read by transactions.
+        scan.setCacheBlocks(false);
+        try (HaeinsaTableIfaceInternal table = tm.getTablePool().getTableInternal(tableName)) {
+            HTable hTable = HaeinsaTablePool.unwrapHTable(table);
+            if (hTable == null) {
+                LOGGER.warn("Table " + tableName + " is not backed by HTable, skip scanning locks.");
+                return;
+            }
+            try (ResultScanner scanner = hTable.getScanner(scan)) {
+                for (Result result : scanner) {
+                    byte[] lockBytes = result.getValue(LOCK_FAMILY, LOCK_QUALIFIER);
+                    if (lockBytes == null) {
+                        continue;
+                    }
+                    scannedLockCount.incrementAndGet();
+                    TRowLock rowLock = TRowLocks.deserialize(lockBytes);
+                    if (rowLock.getState() != TRowLockState.STABLE
+                            && rowLock.isSetExpiry() && rowLock.getExpiry() < System.currentTimeMillis()) {
+                        recover(Bytes.toBytes(tableName), result.getRow(), rowLock, recoveredPrimaries);
+                    }
+                }
+            }
+        }
+    }
+
+    private void recover(byte[] tableName, byte[] row, TRowLock rowLock, Set<TRowKey> recoveredPrimaries) {
+        TRowKey primaryRowKey = TRowLocks.isPrimary(rowLock)
+                ? new TRowKey(ByteBuffer.wrap(tableName), ByteBuffer.wrap(row)) : rowLock.getPrimary();
+        if (!recoveredPrimaries.add(primaryRowKey)) {
+            // transaction is recovered already in this pass by other row of it.
+            return;
+        }
+        rateLimiter.acquire();
+        try {
+            TRowLockState primaryState = TRowLocks.isPrimary(rowLock) ? rowLock.getState() : getRowLock(primaryRowKey).getState();
+            if (primaryState == TRowLockState.STABLE) {
+                // recovered by other client after the lock is scanned.
+                skippedCount.incrementAndGet();
+                return;
+            }
+            tm.recover(tableName, row);
+            if (primaryState == TRowLockState.COMMITTED) {
+                recoveredCount.incrementAndGet();
+            } else {
+                abortedCount.incrementAndGet();
+            }
+        } catch (ConflictException e) {
+            // primary isn't expired yet because its lease is renewed, or other client is recovering it.
+            skippedCount.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            failedCount.incrementAndGet();
+            LOGGER.warn("Failed to recover transaction of row " + Bytes.toStringBinary(row) + ": " + e.getMessage(), e);
+        }
+    }
+
+    private TRowLock getRowLock(TRowKey rowKey) throws IOException {
+        try (HaeinsaTableIfaceInternal table = tm.getTablePool().getTableInternal(rowKey.getTableName())) {
+            return table.getRowLock(rowKey.getRow());
+        }
+    }
+
+    /**
+     * @return number of non-empty locks scanned
+     */
+    public long getScannedLockCount() {
+        return scannedLockCount.get();
+    }
+
+    /**
+     * @return number of transactions rolled forward because primary was committed
+     */
+    public long getRecoveredCount() {
+        return recoveredCount.get();
+    }
+
+    /**
+     * @return number of transactions aborted
+     */
+    public long getAbortedCount() {
+        return abortedCount.get();
+    }
+
+    /**
+     * @return number of expired locks which was not recovered because the transaction is not expired
+     * or recovered by other client
+     */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * @return number of recoveries which failed by error
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (scheduler != null) {
+            scheduledPass.cancel(false);
+            scheduler.shutdown();
+        }
+        if (shutdownOnClose) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Renews lease of primary lock of committing transactions in background.
+ * <p>
+ * Other clients can abort a transaction whose primary lock is {@link TRowLockState#PREWRITTEN} and expired.
+ * While transaction prewrites secondary rows and checks read-only rows, the renewer periodically extends
+ * {@link TRowLock#expiry} of the primary lock, so that the timeout of transaction can be short enough
+ * for other clients to recover crashed transaction quickly, without aborting healthy commits which take long.
+ * Lease is renewed every third of the timeout of the transaction, and stops before the primary is committed.
+ * <p>
+ * Renewer can be enabled by passing it to {@link HaeinsaTransactionManager}.
+ */
+public class HaeinsaLockLeaseRenewer implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HaeinsaLockLeaseRenewer.class);
+
+    private final ScheduledExecutorService executor;
+    private final boolean shutdownOnClose;
+
+    /**
+     * Create renewer which owns executor with given number of threads.
+     *
+     * @param threads number of threads which renew leases
+     */
+    public HaeinsaLockLeaseRenewer(int threads) {
+        this(Executors.newScheduledThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("haeinsa-lease-%d").setDaemon(true).build()), true);
+    }
+
+    /**
+     * Create renewer with executor managed by caller.
+     *
+     * @param executor executor which renews leases
+     */
+    public HaeinsaLockLeaseRenewer(ScheduledExecutorService executor) {
+        this(executor, false);
+    }
+
+    private HaeinsaLockLeaseRenewer(ScheduledExecutorService executor, boolean shutdownOnClose) {
+        this.executor = Preconditions.checkNotNull(executor);
+        this.shutdownOnClose = shutdownOnClose;
+    }
+
+    /**
+     * Start renewing lease of primary lock of the transaction. Primary row should be prewritten already.
+     *
+     * @return lease which should be closed before the primary row is committed.
+     */
+    Lease start(HaeinsaTransaction tx, HaeinsaRowTransaction primaryRowState) {
+        final Lease lease = new Lease(tx, primaryRowState);
+        long interval = Math.max(1, tx.getTimeout() / 3);
+        lease.future = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                lease.renew();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        return lease;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (shutdownOnClose) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Lease of primary lock of single transaction.
+     */
+    static final class Lease implements Closeable {
+        private final HaeinsaTransaction tx;
+        private final HaeinsaRowTransaction primaryRowState;
+        private volatile ScheduledFuture<?> future;
+        private boolean closed;
+
+        private Lease(HaeinsaTransaction tx, HaeinsaRowTransaction primaryRowState) {
+            this.tx = tx;
+            this.primaryRowState = primaryRowState;
+        }
+
+        private synchronized void renew() {
+            if (closed) {
+                return;
+            }
+            TRowKey primary = tx.getPrimary();
+            long expiry = System.currentTimeMillis() + tx.getTimeout();
+            try (HaeinsaTableIfaceInternal table = tx.getManager().getTablePool().getTableInternal(primary.getTableName())) {
+                try {
+                    table.renewLock(primaryRowState, primary.getRow(), expiry);
+                } catch (IOException e) {
+                    // checkAndPut might be applied even if client failed to get its result,
+                    // and then the lock known to this transaction is stale. Adopt the lock of the row if it is ours.
+                    if (!adoptRowLock(table, primary.getRow())) {
+                        throw e;
+                    }
+                }
+                // extend expiry of the transaction only after lock of the row is confirmed.
+                tx.setExpiry(primaryRowState.getCurrent().getExpiry());
+            } catch (ConflictException e) {
+                // primary lock is aborted by other client, commit of the transaction will fail.
+                LOGGER.warn("Lease of primary lock is lost: " + e.getMessage());
+                closed = true;
+            } catch (IOException | RuntimeException e) {
+                // try again on next renewal.
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Read primary lock from HBase, and set it to current lock of primary row if it is still held by the transaction.
+         *
+         * @return true if the lock is held by the transaction
+         */
+        private boolean adoptRowLock(HaeinsaTableIfaceInternal table, byte[] row) throws IOException {
+            TRowLock rowLock = table.getRowLock(row);
+            if (rowLock.getState() != TRowLockState.PREWRITTEN || rowLock.getCommitTimestamp() != tx.getCommitTimestamp()) {
+                return false;
+            }
+            primaryRowState.setCurrent(rowLock);
+            return true;
+        }
+
+        /**
+         * Stop renewing lease. Waits for renewal in progress, so that primary lock is not changed after this method returns.
+         */
+        @Override
+        public synchronized void close() {
+            closed = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import kr.co.vcnc.haeinsa.exception.NotExpiredYetException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Policy of waiting for lock of other ongoing transaction, which is set by
+ * {@link HaeinsaTransaction#setLockWaitPolicy(HaeinsaLockWaitPolicy)}.
+ * <p>
+ * When transaction reads a row locked by other transaction whose lock is not expired yet,
+ * it polls the lock with exponential backoff until the lock becomes stable or expires,
+ * instead of failing with {@link NotExpiredYetException} immediately.
+ * Total time spent on waiting in a transaction is limited by maxWait.
+ * Transaction does not wait if no policy is set.
+ */
+public class HaeinsaLockWaitPolicy {
+    private long maxWaitMillis = 100;
+    private long initialPollMillis = 5;
+    private long maxPollMillis = 50;
+    private double multiplier = 2.0;
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * @param maxWaitMillis maximum time spent on waiting for locks during a transaction
+     */
+    public HaeinsaLockWaitPolicy setMaxWaitMillis(long maxWaitMillis) {
+        Preconditions.checkArgument(maxWaitMillis >= 0, "maxWaitMillis should not be negative.");
+        this.maxWaitMillis = maxWaitMillis;
+        return this;
+    }
+
+    public long getInitialPollMillis() {
+        return initialPollMillis;
+    }
+
+    public HaeinsaLockWaitPolicy setInitialPollMillis(long initialPollMillis) {
+        Preconditions.checkArgument(initialPollMillis > 0, "initialPollMillis should be positive.");
+        this.initialPollMillis = initialPollMillis;
+        return this;
+    }
+
+    public long getMaxPollMillis() {
+        return maxPollMillis;
+    }
+
+    public HaeinsaLockWaitPolicy setMaxPollMillis(long maxPollMillis) {
+        Preconditions.checkArgument(maxPollMillis > 0, "maxPollMillis should be positive.");
+        this.maxPollMillis = maxPollMillis;
+        return this;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public HaeinsaLockWaitPolicy setMultiplier(double multiplier) {
+        Preconditions.checkArgument(multiplier >= 1.0, "multiplier should not be less than 1.");
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    /**
+     * @param poll number of poll on the same lock which starts from 1
+     * @return interval before given poll in milliseconds
+     */
+    long getPollMillis(int poll) {
+        return (long) Math.min(maxPollMillis, initialPollMillis * Math.pow(multiplier, poll - 1));
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Metrics of transactions of a {@link HaeinsaTransactionManager}.
+ * <p>
+ * Latency of every {@link HaeinsaPhase} is recorded in microseconds by lock-free {@link HaeinsaHistogram},
+ * with number of rows and RPCs of each commit, conflicts by phase and by cause, and recoveries.
+ * Rows and tables with the most conflicts are tracked in bounded memory by {@link HaeinsaTopKCounter}.
+ * Phases are measured on tables of {@link HaeinsaTablePool}, so RPCs of every thread and recovery are included.
+ * All metrics are cumulative since the manager is created.
+ * <p>
+ * Metrics can be exposed through JMX by {@link #registerMBean(String)}, or reported periodically by
+ * {@link HaeinsaTransactionManager#startMetricsReporter(HaeinsaMetricsReporter, long, TimeUnit)}.
+ */
+public class HaeinsaMetrics implements HaeinsaMetricsMXBean {
+    private static final String MBEAN_DOMAIN = "kr.co.vcnc.haeinsa";
+    private static final int HOT_ROW_CAPACITY = 128;
+    private static final int HOT_TABLE_CAPACITY = 32;
+    private static final int HOT_KEY_LIMIT = 10;
+
+    private final Map<HaeinsaPhase, HaeinsaHistogram> phaseLatencies = new EnumMap<HaeinsaPhase, HaeinsaHistogram>(HaeinsaPhase.class);
+    private final Map<HaeinsaPhase, AtomicLong> phaseConflicts = new EnumMap<HaeinsaPhase, AtomicLong>(HaeinsaPhase.class);
+    private final ConcurrentMap<String, AtomicLong> causeConflicts = new ConcurrentHashMap<String, AtomicLong>();
+    private final HaeinsaHistogram rowsPerCommit = new HaeinsaHistogram();
+    private final HaeinsaHistogram rpcsPerCommit = new HaeinsaHistogram();
+    private final HaeinsaTopKCounter<HashedRowKey> hotConflictRows = new HaeinsaTopKCounter<HashedRowKey>(HOT_ROW_CAPACITY);
+    private final HaeinsaTopKCounter<String> hotConflictTables = new HaeinsaTopKCounter<String>(HOT_TABLE_CAPACITY);
+    private volatile long lastWarmUpMillis = -1;
+    private ObjectName objectName;
+
+    public HaeinsaMetrics() {
+        for (HaeinsaPhase phase : HaeinsaPhase.values()) {
+            phaseLatencies.put(phase, new HaeinsaHistogram());
+            phaseConflicts.put(phase, new AtomicLong());
+        }
+    }
+
+    void recordPhase(HaeinsaPhase phase, long elapsedNanos) {
+        phaseLatencies.get(phase).record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    /**
+     * Record conflict of the phase. Row and table of the conflict are counted on bounded top-k counters
+     * to find hot rows and tables, which is cheap because conflicts are rare.
+     *
+     * @param tableName table of the conflict, null if unknown
+     * @param row row of the conflict, null if the conflict is not of single row
+     */
+    void recordConflict(HaeinsaPhase phase, @Nullable byte[] tableName, @Nullable byte[] row, ConflictException e) {
+        if (tableName != null) {
+            hotConflictTables.offer(Bytes.toString(tableName));
+            if (row != null) {
+                hotConflictRows.offer(new HashedRowKey(tableName, row));
+            }
+        }
+        phaseConflicts.get(phase).incrementAndGet();
+        String cause = e.getClass().getSimpleName();
+        AtomicLong counter = causeConflicts.get(cause);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = causeConflicts.putIfAbsent(cause, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    void recordCommit(int rows, int rpcs, long elapsedNanos) {
+        rowsPerCommit.record(rows);
+        rpcsPerCommit.record(rpcs);
+        recordPhase(HaeinsaPhase.COMMIT, elapsedNanos);
+    }
+
+    void recordWarmUp(long elapsedMillis) {
+        lastWarmUpMillis = elapsedMillis;
+    }
+
+    /**
+     * @return latency histogram of the phase in microseconds
+     */
+    public HaeinsaHistogram getPhaseLatency(HaeinsaPhase phase) {
+        return phaseLatencies.get(phase);
+    }
+
+    /**
+     * @return number of {@link ConflictException} thrown in the phase
+     */
+    public long getConflictCount(HaeinsaPhase phase) {
+        return phaseConflicts.get(phase).get();
+    }
+
+    /**
+     * @return histogram of number of rows of each commit
+     */
+    public HaeinsaHistogram getRowsPerCommit() {
+        return rowsPerCommit;
+    }
+
+    /**
+     * @return histogram of number of RPCs of each commit, including RPCs of aborting itself
+     */
+    public HaeinsaHistogram getRpcsPerCommit() {
+        return rpcsPerCommit;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCounts() {
+        Map<String, Long> counts = Maps.newLinkedHashMap();
+        for (Entry<HaeinsaPhase, HaeinsaHistogram> entry : phaseLatencies.entrySet()) {
+            counts.put(entry.getKey().name(), entry.getValue().getCount());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMeanMicros() {
+        Map<String, Double> means = Maps.newLinkedHashMap();
+        for (Entry<HaeinsaPhase, HaeinsaHistogram> entry : phaseLatencies.entrySet()) {
+            means.put(entry.getKey().name(), entry.getValue().getMean());
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseP99Micros() {
+        Map<String, Long> percentiles = Maps.newLinkedHashMap();
+        for (Entry<HaeinsaPhase, HaeinsaHistogram> entry : phaseLatencies.entrySet()) {
+            percentiles.put(entry.getKey().name(), entry.getValue().getPercentile(99));
+        }
+        return percentiles;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseMaxMicros() {
+        Map<String, Long> maxes = Maps.newLinkedHashMap();
+        for (Entry<HaeinsaPhase, HaeinsaHistogram> entry : phaseLatencies.entrySet()) {
+            maxes.put(entry.getKey().name(), entry.getValue().getMax());
+        }
+        return maxes;
+    }
+
+    @Override
+    public Map<String, Long> getConflictsByPhase() {
+        Map<String, Long> conflicts = Maps.newLinkedHashMap();
+        for (Entry<HaeinsaPhase, AtomicLong> entry : phaseConflicts.entrySet()) {
+            conflicts.put(entry.getKey().name(), entry.getValue().get());
+        }
+        return conflicts;
+    }
+
+    @Override
+    public Map<String, Long> getConflictsByCause() {
+        Map<String, Long> conflicts = Maps.newTreeMap();
+        for (Entry<String, AtomicLong> entry : causeConflicts.entrySet()) {
+            conflicts.put(entry.getKey(), entry.getValue().get());
+        }
+        return conflicts;
+    }
+
+    /**
+     * Rows are named as {@code table:row}, and row is escaped by {@link Bytes#toStringBinary(byte[])}.
+     * Counts are estimated by Space-Saving algorithm, so they can be overestimated when many rows conflict.
+     */
+    @Override
+    public Map<String, Long> getHotConflictRows() {
+        Map<String, Long> rows = Maps.newLinkedHashMap();
+        for (Entry<HashedRowKey, Long> entry : hotConflictRows.getTop(HOT_KEY_LIMIT)) {
+            rows.put(entry.getKey().toString(), entry.getValue());
+        }
+        return rows;
+    }
+
+    @Override
+    public Map<String, Long> getHotConflictTables() {
+        Map<String, Long> tables = Maps.newLinkedHashMap();
+        for (Entry<String, Long> entry : hotConflictTables.getTop(HOT_KEY_LIMIT)) {
+            tables.put(entry.getKey(), entry.getValue());
+        }
+        return tables;
+    }
+
+    @Override
+    public long getCommitCount() {
+        return getPhaseLatency(HaeinsaPhase.COMMIT).getCount();
+    }
+
+    @Override
+    public double getMeanRowsPerCommit() {
+        return rowsPerCommit.getMean();
+    }
+
+    @Override
+    public double getMeanRpcsPerCommit() {
+        return rpcsPerCommit.getMean();
+    }
+
+    @Override
+    public long getRecoveryCount() {
+        return getPhaseLatency(HaeinsaPhase.RECOVER).getCount();
+    }
+
+    @Override
+    public long getLastWarmUpMillis() {
+        return lastWarmUpMillis;
+    }
+
+    /**
+     * Register metrics to platform MBean server with name {@code kr.co.vcnc.haeinsa:type=HaeinsaMetrics,name=<name>}.
+     *
+     * @param name name which distinguishes managers in the process
+     * @return registered object name
+     * @throws JMException if the name is invalid or already registered
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        ObjectName newObjectName = new ObjectName(MBEAN_DOMAIN + ":type=HaeinsaMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, newObjectName);
+        objectName = newObjectName;
+        return objectName;
+    }
+
+    /**
+     * Unregister metrics registered by {@link #registerMBean(String)}, if any.
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            objectName = null;
+        }
+    }
+}
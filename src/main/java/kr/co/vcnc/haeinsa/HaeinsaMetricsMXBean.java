@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.Map;
+
+/**
+ * JMX interface of {@link HaeinsaMetrics}. Latencies are in microseconds, and maps are keyed by name of {@link HaeinsaPhase}.
+ */
+public interface HaeinsaMetricsMXBean {
+
+    Map<String, Long> getPhaseCounts();
+
+    Map<String, Double> getPhaseMeanMicros();
+
+    Map<String, Long> getPhaseP99Micros();
+
+    Map<String, Long> getPhaseMaxMicros();
+
+    Map<String, Long> getConflictsByPhase();
+
+    /**
+     * @return number of conflicts keyed by simple name of exception class
+     */
+    Map<String, Long> getConflictsByCause();
+
+    /**
+     * @return rows with the most conflicts and their estimated number of conflicts, in descending order
+     */
+    Map<String, Long> getHotConflictRows();
+
+    /**
+     * @return tables with the most conflicts and their estimated number of conflicts, in descending order
+     */
+    Map<String, Long> getHotConflictTables();
+
+    long getCommitCount();
+
+    double getMeanRowsPerCommit();
+
+    double getMeanRpcsPerCommit();
+
+    long getRecoveryCount();
+
+    /**
+     * @return elapsed time of the last warm-up of table pool in milliseconds, or -1 if the pool is not warmed up.
+     */
+    long getLastWarmUpMillis();
+}
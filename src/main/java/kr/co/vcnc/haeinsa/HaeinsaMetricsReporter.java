@@ -0,0 +1,26 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+/**
+ * Reporter of {@link HaeinsaMetrics} which is called periodically by
+ * {@link HaeinsaTransactionManager#startMetricsReporter(HaeinsaMetricsReporter, long, java.util.concurrent.TimeUnit)}.
+ * Metrics are cumulative, so reporter should calculate differences from previous report if needed.
+ */
+public interface HaeinsaMetricsReporter {
+
+    void report(HaeinsaMetrics metrics);
+}
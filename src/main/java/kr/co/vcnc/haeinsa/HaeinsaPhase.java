@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+/**
+ * Phases of transaction measured by {@link HaeinsaMetrics}.
+ * Every phase except {@link #COMMIT}, {@link #RECOVER} and {@link #LOCAL_ROW_LOCK} is an RPC to HBase on a single row or a table.
+ * Only conflicts are counted on {@link #PUT}, {@link #DELETE}, {@link #SCAN} and {@link #LOCAL_ROW_LOCK},
+ * because they read lock of the row only when it is accessed first time in the transaction.
+ */
+public enum HaeinsaPhase {
+    /**
+     * {@link HaeinsaTableIface#get(HaeinsaTransaction, HaeinsaGet)}
+     */
+    GET,
+    /**
+     * {@link HaeinsaTableIface#put(HaeinsaTransaction, HaeinsaPut)}
+     */
+    PUT,
+    /**
+     * {@link HaeinsaTableIface#delete(HaeinsaTransaction, HaeinsaDelete)}
+     */
+    DELETE,
+    /**
+     * {@link HaeinsaTableIface#getScanner(HaeinsaTransaction, HaeinsaScan)} and iteration of the scanner
+     */
+    SCAN,
+    /**
+     * {@link HaeinsaLocalRowLockTable} before prewrite, which doesn't send RPC
+     */
+    LOCAL_ROW_LOCK,
+    /**
+     * {@link HaeinsaTableIfaceInternal#prewrite(HaeinsaRowTransaction, byte[], boolean)}
+     */
+    PREWRITE,
+    /**
+     * {@link HaeinsaTableIfaceInternal#commitSingleRowPutOnly(HaeinsaRowTransaction, byte[])}
+     */
+    COMMIT_SINGLE_ROW_PUT_ONLY,
+    /**
+     * {@link HaeinsaTableIfaceInternal#checkSingleRowLock(HaeinsaRowTransaction, byte[])}
+     */
+    CHECK_SINGLE_ROW_LOCK,
+    /**
+     * {@link HaeinsaTableIfaceInternal#checkReadSet(HaeinsaTableTransaction)}
+     */
+    CHECK_READ_SET,
+    /**
+     * {@link HaeinsaTableIfaceInternal#commitPrimary(HaeinsaRowTransaction, byte[])}
+     */
+    COMMIT_PRIMARY,
+    /**
+     * {@link HaeinsaTableIfaceInternal#applyMutations(HaeinsaRowTransaction, byte[])}
+     */
+    APPLY_MUTATIONS,
+    /**
+     * {@link HaeinsaTableIfaceInternal#makeStable(HaeinsaRowTransaction, byte[])}
+     */
+    MAKE_STABLE,
+    /**
+     * {@link HaeinsaTableIfaceInternal#renewLock(HaeinsaRowTransaction, byte[])}
+     */
+    RENEW_LOCK,
+    /**
+     * {@link HaeinsaTableIfaceInternal#abortPrimary(HaeinsaRowTransaction, byte[])}
+     */
+    ABORT_PRIMARY,
+    /**
+     * {@link HaeinsaTableIfaceInternal#deletePrewritten(HaeinsaRowTransaction, byte[])}
+     */
+    DELETE_PREWRITTEN,
+    /**
+     * Whole {@link HaeinsaTransaction#commit()} after timestamps are determined.
+     */
+    COMMIT,
+    /**
+     * Recovery of failed transaction of other client, including reading its locks.
+     */
+    RECOVER
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.Arrays;
+
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Compact representation of rows read by transactional scan of single table.
+ * <p>
+ * Instead of {@link HaeinsaRowTransaction} with decoded {@link TRowLock} for each row,
+ * only row key and commitTimestamp of {@link TRowLockState#STABLE} lock are stored in packed arrays.
+ * Rows are grouped to segments, each segment holds rows of single scanner in ascending order,
+ * so that rows of a segment can be validated by single scan of lock column at commit.
+ * Scanners of a transaction can be interleaved, so rows of segments can be interleaved in the packed arrays.
+ * <p>
+ * This class is not Thread-safe.
+ */
+class HaeinsaReadSet {
+    private static final int INITIAL_CAPACITY = 16;
+
+    // row keys packed into single array, row i is rowBytes[rowOffsets[i], rowOffsets[i + 1])
+    private byte[] rowBytes = new byte[INITIAL_CAPACITY * 16];
+    private int[] rowOffsets = new int[INITIAL_CAPACITY + 1];
+    private long[] commitTimestamps = new long[INITIAL_CAPACITY];
+    // segment of row i
+    private int[] rowSegments = new int[INITIAL_CAPACITY];
+    private int count;
+
+    // number of rows of each segment
+    private int[] segmentSizes = new int[4];
+    private int segmentCount;
+
+    /**
+     * Start new segment. Rows added to the segment should be in ascending order.
+     *
+     * @return index of the segment, which should be passed to {@link #add(int, byte[], long)}.
+     */
+    public int startSegment() {
+        if (segmentCount == segmentSizes.length) {
+            segmentSizes = Arrays.copyOf(segmentSizes, segmentCount * 2);
+        }
+        return segmentCount++;
+    }
+
+    /**
+     * Add row which has {@link TRowLockState#STABLE} lock of given commitTimestamp to the segment.
+     */
+    public void add(int segment, byte[] row, long commitTimestamp) {
+        Preconditions.checkElementIndex(segment, segmentCount);
+        if (count == commitTimestamps.length) {
+            commitTimestamps = Arrays.copyOf(commitTimestamps, count * 2);
+            rowSegments = Arrays.copyOf(rowSegments, count * 2);
+            rowOffsets = Arrays.copyOf(rowOffsets, count * 2 + 1);
+        }
+        int offset = rowOffsets[count];
+        if (offset + row.length > rowBytes.length) {
+            rowBytes = Arrays.copyOf(rowBytes, Math.max(rowBytes.length * 2, offset + row.length));
+        }
+        System.arraycopy(row, 0, rowBytes, offset, row.length);
+        rowOffsets[count + 1] = offset + row.length;
+        commitTimestamps[count] = commitTimestamp;
+        rowSegments[count] = segment;
+        segmentSizes[segment]++;
+        count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return copy of row key of i-th row.
+     */
+    public byte[] getRow(int index) {
+        return Arrays.copyOfRange(rowBytes, rowOffsets[index], rowOffsets[index + 1]);
+    }
+
+    /**
+     * Compare i-th row with given row without copying row key.
+     */
+    public int compareRow(int index, byte[] row) {
+        return Bytes.compareTo(rowBytes, rowOffsets[index], rowOffsets[index + 1] - rowOffsets[index], row, 0, row.length);
+    }
+
+    public long getCommitTimestamp(int index) {
+        return commitTimestamps[index];
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return indexes of rows of the segment in ascending order of row.
+     */
+    public int[] getSegmentRows(int segment) {
+        int[] indexes = new int[segmentSizes[segment]];
+        int size = 0;
+        for (int i = 0; i < count && size < indexes.length; i++) {
+            if (rowSegments[i] == segment) {
+                indexes[size++] = i;
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Check whether lock of i-th row is not changed since the row was read.
+     */
+    public boolean isValid(int index, TRowLock rowLock) {
+        return rowLock.getState() == TRowLockState.STABLE && rowLock.getCommitTimestamp() == commitTimestamps[index];
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Deduplicates concurrent recoveries of the same failed transaction in this process.
+ * <p>
+ * When a client dies holding locks of popular rows, every reader of the rows tries to recover the transaction,
+ * re-reading same primary and secondary locks and racing on the same checkAndPuts.
+ * Coordinator keeps recoveries in flight by row key of the primary. Recovery requested while another one
+ * of the same primary is in flight doesn't run, but waits for the running one and shares its result or exception.
+ */
+final class HaeinsaRecoveryCoordinator {
+    private final ConcurrentMap<HashedRowKey, FutureTask<Void>> recoveries = new ConcurrentHashMap<HashedRowKey, FutureTask<Void>>();
+    private final AtomicLong sharedCount = new AtomicLong();
+
+    /**
+     * Run recovery of transaction, or wait for the recovery of the same primary which is in flight.
+     *
+     * @param primaryRowKey row key of primary of the transaction to recover
+     * @param recovery recovery which is run only if there is no recovery of the primary in flight
+     * @throws IOException exception thrown by recovery which is run or shared
+     */
+    void recover(TRowKey primaryRowKey, Callable<Void> recovery) throws IOException {
+        HashedRowKey key = new HashedRowKey(primaryRowKey);
+        FutureTask<Void> task = new FutureTask<Void>(recovery);
+        FutureTask<Void> inFlight = recoveries.putIfAbsent(key, task);
+        if (inFlight == null) {
+            try {
+                task.run();
+            } finally {
+                recoveries.remove(key, task);
+            }
+            inFlight = task;
+        } else {
+            sharedCount.incrementAndGet();
+        }
+
+        try {
+            inFlight.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for recovery of other thread.");
+        }
+    }
+
+    /**
+     * @return number of recoveries which shared result of other recovery in flight
+     */
+    long getSharedCount() {
+        return sharedCount.get();
+    }
+
+    /**
+     * @return number of recoveries in flight
+     */
+    @VisibleForTesting
+    int size() {
+        return recoveries.size();
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of transactions executed by {@link HaeinsaTransactionManager#execute(HaeinsaTransactionBody)}.
+ * All counters are cumulative since the manager is created.
+ */
+public class HaeinsaRetryMetrics {
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong backoffMillis = new AtomicLong();
+
+    /**
+     * @return number of executions, including failed ones
+     */
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    /**
+     * @return number of attempts of all executions
+     */
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    /**
+     * @return number of attempts which are retried after conflict
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * @return number of executions which failed after retries, or failed with non-retryable exception.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return time spent on backoff between attempts in milliseconds
+     */
+    public long getBackoffMillis() {
+        return backoffMillis.get();
+    }
+
+    void recordExecution() {
+        executions.incrementAndGet();
+    }
+
+    void recordAttempt() {
+        attempts.incrementAndGet();
+    }
+
+    void recordRetry(long backoff) {
+        retries.incrementAndGet();
+        backoffMillis.addAndGet(backoff);
+    }
+
+    void recordFailure() {
+        failures.incrementAndGet();
+    }
+}
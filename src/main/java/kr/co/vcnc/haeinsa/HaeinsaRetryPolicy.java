@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Retry policy of {@link HaeinsaTransactionManager#execute(HaeinsaTransactionBody, HaeinsaRetryPolicy)}.
+ * <p>
+ * Backoff before n-th retry is exponential, initialBackoff * multiplier^(n - 1) bounded by maxBackoff,
+ * and randomly reduced up to jitter ratio to spread retries of conflicting transactions.
+ * Execution stops retrying when number of attempts reaches maxAttempts,
+ * or when the next attempt would start after retry budget is spent.
+ * <p>
+ * Each attempt can have its own deadline. Timeout of the transaction is set to attemptTimeout,
+ * and attempt which exceeds its deadline before commit is rolled back and retried.
+ */
+public class HaeinsaRetryPolicy {
+    private int maxAttempts = 5;
+    private long initialBackoffMillis = 10;
+    private long maxBackoffMillis = 1000;
+    private double multiplier = 2.0;
+    private double jitter = 0.5;
+    // 0 if there is no budget
+    private long retryBudgetMillis;
+    // 0 if attempt uses default timeout of transaction
+    private long attemptTimeoutMillis;
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public HaeinsaRetryPolicy setMaxAttempts(int maxAttempts) {
+        Preconditions.checkArgument(maxAttempts > 0, "maxAttempts should be positive.");
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public HaeinsaRetryPolicy setInitialBackoffMillis(long initialBackoffMillis) {
+        Preconditions.checkArgument(initialBackoffMillis >= 0, "initialBackoffMillis should not be negative.");
+        this.initialBackoffMillis = initialBackoffMillis;
+        return this;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public HaeinsaRetryPolicy setMaxBackoffMillis(long maxBackoffMillis) {
+        Preconditions.checkArgument(maxBackoffMillis >= 0, "maxBackoffMillis should not be negative.");
+        this.maxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public HaeinsaRetryPolicy setMultiplier(double multiplier) {
+        Preconditions.checkArgument(multiplier >= 1.0, "multiplier should not be less than 1.");
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @param jitter ratio of backoff which can be randomly reduced, between 0 and 1.
+     */
+    public HaeinsaRetryPolicy setJitter(double jitter) {
+        Preconditions.checkArgument(jitter >= 0.0 && jitter <= 1.0, "jitter should be between 0 and 1.");
+        this.jitter = jitter;
+        return this;
+    }
+
+    public long getRetryBudgetMillis() {
+        return retryBudgetMillis;
+    }
+
+    /**
+     * @param retryBudgetMillis maximum time from the start of execution in which retry can be started,
+     * or 0 to limit retries only by number of attempts.
+     */
+    public HaeinsaRetryPolicy setRetryBudgetMillis(long retryBudgetMillis) {
+        Preconditions.checkArgument(retryBudgetMillis >= 0, "retryBudgetMillis should not be negative.");
+        this.retryBudgetMillis = retryBudgetMillis;
+        return this;
+    }
+
+    public long getAttemptTimeoutMillis() {
+        return attemptTimeoutMillis;
+    }
+
+    /**
+     * @param attemptTimeoutMillis deadline of each attempt, or 0 to use default timeout of transaction.
+     */
+    public HaeinsaRetryPolicy setAttemptTimeoutMillis(long attemptTimeoutMillis) {
+        Preconditions.checkArgument(attemptTimeoutMillis >= 0, "attemptTimeoutMillis should not be negative.");
+        this.attemptTimeoutMillis = attemptTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Backoff before given retry, including jitter.
+     *
+     * @param retry number of retry which starts from 1
+     * @return backoff in milliseconds
+     */
+    long getBackoffMillis(int retry) {
+        return withJitter(Math.min(maxBackoffMillis, initialBackoffMillis * Math.pow(multiplier, retry - 1)));
+    }
+
+    /**
+     * Maximum backoff including jitter, which is used when conflicting lock is not expired yet.
+     *
+     * @return backoff in milliseconds
+     */
+    long getMaxBackoffMillisWithJitter() {
+        return withJitter(maxBackoffMillis);
+    }
+
+    private long withJitter(double backoff) {
+        return (long) (backoff * (1.0 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+}
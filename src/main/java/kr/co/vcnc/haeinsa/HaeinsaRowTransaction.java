@@ -15,13 +15,21 @@
  */
 package kr.co.vcnc.haeinsa;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
 
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.util.Bytes;
+
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 /**
@@ -35,6 +43,8 @@ class HaeinsaRowTransaction {
     // If this rowTransaction is created during recovering failed transaction by other client,
     // following mutations variable is empty.
     private final List<HaeinsaMutation> mutations = Lists.newArrayList();
+    // merged view of mutations above, which is projected to Get/Scan operations in same transaction.
+    private final MutationBuffer mutationBuffer = new MutationBuffer();
     private final HaeinsaTableTransaction tableTransaction;
 
     HaeinsaRowTransaction(HaeinsaTableTransaction tableTransaction) {
@@ -54,6 +64,9 @@ class HaeinsaRowTransaction {
     }
 
     public void merge() {
+        // Mutations are consumed by commit protocol from now on.
+        // Clear merged view too, so operations after commit don't see buffered mutations.
+        mutationBuffer.clear();
         if (mutations.size() <= 1) {
             return;
         }
@@ -99,6 +112,7 @@ class HaeinsaRowTransaction {
                 lastMutation.add(mutation);
             }
         }
+        mutationBuffer.add(mutation);
     }
 
     @VisibleForTesting
@@ -122,15 +136,17 @@ class HaeinsaRowTransaction {
 
     /**
      * Return list of {@link HaeinsaKeyValueScanner}s which wrap mutations
-     * (Put and Delete) contained inside instance. Also assign sequenceID to every
-     * MutationScanner of {@link HaeinsaMutation}.
+     * (Put and Delete) contained inside instance.
+     * <p>
+     * Mutations are already merged into {@link MutationBuffer} when added,
+     * so returned list contains at most one scanner with sequenceID of 1.
      */
     public List<HaeinsaKeyValueScanner> getScanners() {
-        List<HaeinsaKeyValueScanner> result = Lists.newArrayList();
-        for (int i = 0; i < mutations.size(); i++) {
-            HaeinsaMutation mutation = mutations.get(i);
-            result.add(mutation.getScanner(mutations.size() - i));
+        if (mutationBuffer.isEmpty()) {
+            return Collections.emptyList();
         }
+        List<HaeinsaKeyValueScanner> result = Lists.newArrayListWithCapacity(1);
+        result.add(mutationBuffer.getScanner(1));
         return result;
     }
 
@@ -198,6 +214,127 @@ class HaeinsaRowTransaction {
         }
     }
 
+    /**
+     * Merged and sorted view of mutations of single row.
+     * This buffer is maintained incrementally on {@link HaeinsaRowTransaction#addMutation(HaeinsaMutation)},
+     * so Get/Scan operations in the transaction don't need to merge every buffered {@link HaeinsaMutation} again.
+     * <p>
+     * Mutations are merged in the same way as {@link MutationMerger}.
+     * Only last put of each column and delete markers which hide data on HBase remain in the buffer.
+     * Because puts in the buffer are always applied after deletes in the buffer,
+     * every {@link HaeinsaKeyValue} can be provided by single scanner with single sequenceID.
+     * {@link HaeinsaDeleteTracker} does not hide put which have same sequenceID with delete.
+     * <p>
+     * Like memstore of HBase, skip-list is used to keep {@link HaeinsaKeyValue}s sorted.
+     * Scanner opened before can continue iteration even if mutation is added after.
+     */
+    @VisibleForTesting
+    static final class MutationBuffer {
+        private final NavigableSet<HaeinsaKeyValue> keyValues =
+                new ConcurrentSkipListSet<HaeinsaKeyValue>(HaeinsaKeyValue.COMPARATOR);
+
+        void add(HaeinsaMutation mutation) {
+            for (HaeinsaKeyValue kv : Iterables.concat(mutation.getFamilyMap().values())) {
+                switch (kv.getType()) {
+                case Put: {
+                    // Comparator does not compare value, so previous put of the column is removed.
+                    keyValues.remove(kv);
+                    keyValues.remove(new HaeinsaKeyValue(kv.getRow(), kv.getFamily(), kv.getQualifier(), null, Type.DeleteColumn));
+                    keyValues.add(kv);
+                    break;
+                }
+                case DeleteColumn: {
+                    keyValues.remove(new HaeinsaKeyValue(kv.getRow(), kv.getFamily(), kv.getQualifier(), null, Type.Put));
+                    keyValues.add(kv);
+                    break;
+                }
+                case DeleteFamily: {
+                    removeFamily(kv.getRow(), kv.getFamily());
+                    keyValues.add(kv);
+                    break;
+                }
+                default: {
+                    throw new IllegalStateException();
+                }
+                }
+            }
+        }
+
+        /**
+         * Remove every {@link HaeinsaKeyValue} of the family.
+         * Type is descending ordered in {@link HaeinsaKeyValue#COMPARATOR}, so the search starts from
+         * null qualifier with {@link Type#Maximum}.
+         */
+        private void removeFamily(byte[] row, byte[] family) {
+            HaeinsaKeyValue searchFromKV = new HaeinsaKeyValue(row, family, null, null, Type.Maximum);
+            Iterator<HaeinsaKeyValue> iterator = keyValues.tailSet(searchFromKV, true).iterator();
+            while (iterator.hasNext()) {
+                if (!Bytes.equals(iterator.next().getFamily(), family)) {
+                    break;
+                }
+                iterator.remove();
+            }
+        }
+
+        boolean isEmpty() {
+            return keyValues.isEmpty();
+        }
+
+        void clear() {
+            keyValues.clear();
+        }
+
+        HaeinsaKeyValueScanner getScanner(long sequenceID) {
+            return new MutationBufferScanner(keyValues.iterator(), sequenceID);
+        }
+    }
+
+    /**
+     * {@link HaeinsaKeyValueScanner} implementation which iterates {@link MutationBuffer}.
+     * All HaeinsaKeyValue provided by single MutationBufferScanner have same sequenceID.
+     */
+    private static final class MutationBufferScanner implements HaeinsaKeyValueScanner {
+        private final Iterator<HaeinsaKeyValue> iterator;
+        private final long sequenceID;
+        private HaeinsaKeyValue current;
+
+        MutationBufferScanner(Iterator<HaeinsaKeyValue> iterator, long sequenceID) {
+            this.iterator = iterator;
+            this.sequenceID = sequenceID;
+        }
+
+        @Override
+        public HaeinsaKeyValue peek() {
+            if (current != null) {
+                return current;
+            }
+            if (iterator.hasNext()) {
+                current = iterator.next();
+            }
+            return current;
+        }
+
+        @Override
+        public HaeinsaKeyValue next() throws IOException {
+            HaeinsaKeyValue result = peek();
+            current = null;
+            return result;
+        }
+
+        @Override
+        public long getSequenceID() {
+            return sequenceID;
+        }
+
+        @Override
+        public TRowLock peekLock() throws IOException {
+            return null;
+        }
+
+        @Override
+        public void close() {}
+    }
+
     @VisibleForTesting
     static final class FilterResult {
         private final HaeinsaPut remained;
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+
+/**
+ * Callback of {@link HaeinsaTableIface#scan(HaeinsaTransaction, HaeinsaScan, HaeinsaRowVisitor)}.
+ * <p>
+ * {@link HaeinsaKeyValue}s are pushed to visitor as soon as they are merged with mutations of the transaction,
+ * without building {@link HaeinsaResult} for each row. Key values of a row are visited in sorted order,
+ * and {@link #endRow(byte[])} is called after the last key value of the row.
+ * <p>
+ * Visitor can stop the scan by returning false on any method.
+ */
+public interface HaeinsaRowVisitor {
+
+    /**
+     * Visit single key value of current row.
+     * Visitor should not keep reference of row, family, qualifier and value of kv after this method returns
+     * if it wants to be independent of lifetime of scanned data.
+     *
+     * @param kv key value of current row
+     * @return true to continue scan, false to stop scan
+     * @throws IOException IOException thrown by visitor is propagated to caller of scan.
+     */
+    boolean visit(HaeinsaKeyValue kv) throws IOException;
+
+    /**
+     * Called after all key values of the row are visited.
+     *
+     * @param row row key of the row just visited
+     * @return true to continue scan, false to stop scan
+     * @throws IOException IOException thrown by visitor is propagated to caller of scan.
+     */
+    boolean endRow(byte[] row) throws IOException;
+}
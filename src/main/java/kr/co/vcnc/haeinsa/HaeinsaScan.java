@@ -43,6 +43,7 @@ public class HaeinsaScan extends HaeinsaQuery {
     private byte[] startRow = HConstants.EMPTY_START_ROW;
     private byte[] stopRow = HConstants.EMPTY_END_ROW;
     private int caching = -1;
+    private boolean compactReadSet;
 
     // { family -> qualifier }
     private Map<byte[], NavigableSet<byte[]>> familyMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
@@ -89,6 +90,7 @@ public class HaeinsaScan extends HaeinsaQuery {
         stopRow = scan.getStopRow();
         caching = scan.getCaching();
         cacheBlocks = scan.getCacheBlocks();
+        compactReadSet = scan.isCompactReadSet();
         Map<byte[], NavigableSet<byte[]>> fams = scan.getFamilyMap();
         for (Map.Entry<byte[], NavigableSet<byte[]>> entry : fams.entrySet()) {
             byte[] fam = entry.getKey();
@@ -237,4 +239,27 @@ public class HaeinsaScan extends HaeinsaQuery {
     public int getCaching() {
         return this.caching;
     }
+
+    /**
+     * Set whether rows read by this scan are tracked in compact read-set of the transaction.
+     * <p>
+     * By default, every row which transactional scan visits holds {@link HaeinsaRowTransaction}
+     * with decoded lock, and each row is validated by its own Get on commit.
+     * If true, only row key and commitTimestamp of the lock are kept for rows read by this scan,
+     * and they are validated in bulk by scanning lock column over the rows on commit.
+     * Useful for transaction which scans large number of rows.
+     *
+     * @param compactReadSet true to track rows of this scan in compact read-set
+     */
+    public HaeinsaScan setCompactReadSet(boolean compactReadSet) {
+        this.compactReadSet = compactReadSet;
+        return this;
+    }
+
+    /**
+     * @return true if rows read by this scan are tracked in compact read-set
+     */
+    public boolean isCompactReadSet() {
+        return this.compactReadSet;
+    }
 }
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import kr.co.vcnc.haeinsa.HaeinsaTransaction.CommitMethod;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * Logger of transactions whose commit takes longer than threshold, which is set by
+ * {@link HaeinsaTransactionManager#setSlowTransactionLog(HaeinsaSlowTransactionLog)}.
+ * <p>
+ * Each slow commit is logged with its {@link CommitMethod}, number of rows and tables, primary row,
+ * number and time of RPCs in each {@link HaeinsaPhase} including reads before commit, recoveries of other transactions
+ * and attempt of {@link HaeinsaTransactionManager#execute(HaeinsaTransactionBody, HaeinsaRetryPolicy)}.
+ * Only transactions sampled on begin are profiled, so overhead can be limited by sample rate.
+ */
+public class HaeinsaSlowTransactionLog {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HaeinsaSlowTransactionLog.class);
+
+    private final long thresholdNanos;
+    private final double sampleRate;
+
+    /**
+     * @param threshold commit which takes longer than or equal to threshold is logged
+     * @param unit time unit of threshold
+     * @param sampleRate ratio of transactions to profile, between 0 and 1
+     */
+    public HaeinsaSlowTransactionLog(long threshold, TimeUnit unit, double sampleRate) {
+        Preconditions.checkArgument(threshold >= 0, "threshold should not be negative.");
+        Preconditions.checkArgument(sampleRate >= 0 && sampleRate <= 1, "sampleRate should be between 0 and 1.");
+        this.thresholdNanos = unit.toNanos(threshold);
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return true if new transaction should be profiled
+     */
+    boolean sample() {
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    void onCommit(HaeinsaTransaction tx, HaeinsaTransactionProfile profile, CommitMethod method, int rows, int tables,
+            long elapsedNanos, @Nullable Throwable failure) {
+        if (elapsedNanos < thresholdNanos || !LOGGER.isWarnEnabled()) {
+            return;
+        }
+        LOGGER.warn(describe(tx, profile, method, rows, tables, elapsedNanos, failure));
+    }
+
+    @VisibleForTesting
+    static String describe(HaeinsaTransaction tx, HaeinsaTransactionProfile profile, CommitMethod method, int rows, int tables,
+            long elapsedNanos, @Nullable Throwable failure) {
+        StringBuilder builder = new StringBuilder("slow transaction commit=").append(toMillis(elapsedNanos))
+                .append(" method=").append(method)
+                .append(" rows=").append(rows)
+                .append(" tables=").append(tables);
+        TRowKey primary = tx.getPrimary();
+        if (primary != null) {
+            builder.append(" primary=").append(Bytes.toString(primary.getTableName()))
+                    .append(':').append(Bytes.toStringBinary(primary.getRow()));
+        }
+        builder.append(" attempt=").append(profile.getAttempt())
+                .append(" rpcs=").append(tx.getRpcCount())
+                .append(" lockWait=").append(tx.getLockWaitMillis()).append("ms")
+                .append(" recoveries=").append(profile.getRecoveryCount())
+                .append('(').append(toMillis(profile.getRecoveryNanos())).append(')');
+        if (failure != null) {
+            builder.append(" failure=").append(failure.getClass().getSimpleName());
+        }
+        builder.append(" phases={");
+        boolean first = true;
+        for (HaeinsaPhase phase : HaeinsaPhase.values()) {
+            long count = profile.getPhaseCount(phase);
+            if (count == 0) {
+                continue;
+            }
+            if (!first) {
+                builder.append(", ");
+            }
+            first = false;
+            builder.append(phase).append('=').append(count).append('/').append(toMillis(profile.getPhaseNanos(phase)));
+        }
+        return builder.append('}').toString();
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.1fms", nanos / 1e6);
+    }
+}
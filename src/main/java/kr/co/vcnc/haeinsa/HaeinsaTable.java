@@ -17,10 +17,12 @@ package kr.co.vcnc.haeinsa;
 
 import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_FAMILY;
 import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_QUALIFIER;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.READ_SET_CHECK_CACHING;
 import static kr.co.vcnc.haeinsa.HaeinsaConstants.RECOVER_MAX_RETRY_COUNT;
 import static kr.co.vcnc.haeinsa.HaeinsaConstants.ROW_LOCK_VERSION;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Iterator;
@@ -51,6 +53,7 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValue.Type;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
@@ -66,6 +69,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 /**
@@ -74,6 +78,8 @@ import com.google.common.collect.Sets;
  */
 public class HaeinsaTable implements HaeinsaTableIfaceInternal {
     private static final Logger LOGGER = LoggerFactory.getLogger(HaeinsaTable.class);
+    // HConstants of HBase 0.94 does not have constant for this key.
+    private static final String SCANNER_CACHING_KEY = "hbase.client.scanner.caching";
     private final HTableInterface table;
 
     public HaeinsaTable(HTableInterface table) {
@@ -212,9 +218,34 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         if (tx == null) {
             return getScannerWithoutTx(scan);
         }
+        return createClientScanner(tx, scan);
+    }
+
+    /**
+     * Streaming version of {@link #getScanner(HaeinsaTransaction, HaeinsaScan)}.
+     * Key values are pushed to visitor from merge loop of {@link ClientScanner},
+     * so {@link HaeinsaResult} is not created for each row.
+     */
+    @Override
+    public void scan(@Nullable HaeinsaTransaction tx, HaeinsaScan scan, HaeinsaRowVisitor visitor) throws IOException {
+        Preconditions.checkNotNull(scan);
+        Preconditions.checkNotNull(visitor);
+        if (tx == null) {
+            scanWithoutTx(scan, visitor);
+            return;
+        }
+        try (ClientScanner scanner = createClientScanner(tx, scan)) {
+            scanner.scan(visitor);
+        }
+    }
 
+    /**
+     * Create {@link ClientScanner} which merges buffered mutations of the transaction and rows scanned from HBase.
+     */
+    private ClientScanner createClientScanner(HaeinsaTransaction tx, HaeinsaScan scan) throws IOException {
+        int caching = getScannerCaching(scan);
         Scan hScan = new Scan(scan.getStartRow(), scan.getStopRow());
-        hScan.setCaching(scan.getCaching());
+        hScan.setCaching(caching);
         hScan.setCacheBlocks(scan.getCacheBlocks());
 
         for (Entry<byte[], NavigableSet<byte[]>> entry : scan.getFamilyMap().entrySet()) {
@@ -256,11 +287,23 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         for (HaeinsaRowTransaction rowTx : rows.values()) {
             scanners.addAll(rowTx.getScanners());
         }
-        scanners.add(new HBaseScanScanner(table.getScanner(hScan)));
+        scanners.add(new HBaseScanScanner(table.getScanner(hScan), caching));
 
         // Scanners at this moment is:
         // union( muationScanners from all RowTransactions, Scanner of scan )
-        return new ClientScanner(tx, scanners, scan.getFamilyMap(), true);
+        HaeinsaReadSet readSet = scan.isCompactReadSet() ? tableState.getReadSet() : null;
+        return new ClientScanner(tx, scanners, scan.getFamilyMap(), null, true, readSet);
+    }
+
+    /**
+     * Return caching value of the scan, or scanner caching of the table if caching of the scan is not set,
+     * as HBase client does when it opens scanner.
+     */
+    private int getScannerCaching(HaeinsaScan scan) {
+        if (scan.getCaching() > 0) {
+            return scan.getCaching();
+        }
+        return table.getConfiguration().getInt(SCANNER_CACHING_KEY, 1);
     }
 
     /**
@@ -271,6 +314,31 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
      * @throws IOException IOException from HBase.
      */
     private HaeinsaResultScanner getScannerWithoutTx(HaeinsaScan scan) throws IOException {
+        final ResultScanner scanner = table.getScanner(createScanWithoutTx(scan));
+        return new SimpleClientScanner(scanner);
+    }
+
+    /**
+     * Streaming version of {@link #getScannerWithoutTx(HaeinsaScan)}.
+     *
+     * @throws IOException IOException from HBase or visitor.
+     */
+    private void scanWithoutTx(HaeinsaScan scan, HaeinsaRowVisitor visitor) throws IOException {
+        try (ResultScanner scanner = table.getScanner(createScanWithoutTx(scan))) {
+            for (Result result = scanner.next(); result != null; result = scanner.next()) {
+                for (KeyValue kv : result.raw()) {
+                    if (!visitor.visit(new HaeinsaKeyValue(kv))) {
+                        return;
+                    }
+                }
+                if (!visitor.endRow(result.getRow())) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private Scan createScanWithoutTx(HaeinsaScan scan) {
         Scan hScan = new Scan(scan.getStartRow(), scan.getStopRow());
         hScan.setCaching(scan.getCaching());
         hScan.setCacheBlocks(scan.getCacheBlocks());
@@ -284,8 +352,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                 }
             }
         }
-        final ResultScanner scanner = table.getScanner(hScan);
-        return new SimpleClientScanner(scanner);
+        return hScan;
     }
 
     /**
@@ -395,6 +462,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
             return rowState;
         }
         int recoverCount = 0;
+        int pollCount = 0;
         while (true) {
             if (recoverCount > RECOVER_MAX_RETRY_COUNT) {
                 throw new ConflictException("recover retry count is exceeded.");
@@ -410,6 +478,13 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                     break;
                 }
             } catch (NotExpiredYetException e) {
+                // wait for the transaction holding the lock to be stabilized or expired, if lock-wait policy allows.
+                pollCount++;
+                long waitMillis = tx.nextLockWaitMillis(e.getExpiry(), pollCount);
+                if (waitMillis > 0) {
+                    waitForLock(tx, waitMillis);
+                    continue;
+                }
                 recoverCount++;
                 if (recoverCount > RECOVER_MAX_RETRY_COUNT) {
                     throw e;
@@ -419,6 +494,18 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         return rowState;
     }
 
+    private void waitForLock(HaeinsaTransaction tx, long waitMillis) throws IOException {
+        long startTime = System.nanoTime();
+        try {
+            Thread.sleep(waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted during waiting for lock.");
+        } finally {
+            tx.addLockWaitNanos(System.nanoTime() - startTime);
+        }
+    }
+
     /**
      * Check whether specific row need recover by checking {@link TRowLock}.
      * Return true only if rowLock is NOT in {@link TRowLockState#STABLE} state and lock is expired.
@@ -435,11 +522,19 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
             if (rowLock.isSetExpiry() && rowLock.getExpiry() < System.currentTimeMillis()) {
                 return true;
             }
-            throw new NotExpiredYetException("this row is unstable and not expired yet.");
+            throw new NotExpiredYetException("this row is unstable and not expired yet.", rowLock.getExpiry());
         }
         return false;
     }
 
+    /**
+     * @return true if rowLock is NOT in {@link TRowLockState#STABLE} state and not expired yet.
+     */
+    private boolean isLockedByOngoingTransaction(TRowLock rowLock) {
+        return rowLock.getState() != TRowLockState.STABLE
+                && !(rowLock.isSetExpiry() && rowLock.getExpiry() < System.currentTimeMillis());
+    }
+
     /**
      * Call {@link HaeinsaTransaction#recover(boolean)}.
      * Abort or recover when there is failed transaction on the row,
@@ -448,13 +543,24 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
      * @throws IOException ConflictException, HBase IOException
      */
     private void recover(HaeinsaTransaction tx, byte[] row) throws IOException {
-        HaeinsaTransaction previousTx = tx.getManager().getTransaction(getTableName(), row);
-        if (previousTx != null) {
-            try {
-                // there is an unstable transaction in this row.
-                previousTx.recover(false);
-            } catch (RecoverableConflictException e) {
-                LOGGER.warn(e.getMessage(), e);
+        recover(tx, getTableName(), row);
+    }
+
+    /**
+     * Call {@link HaeinsaTransactionManager#recover(byte[], byte[])} on the row of given table.
+     *
+     * @throws IOException ConflictException, HBase IOException
+     */
+    private void recover(HaeinsaTransaction tx, byte[] tableName, byte[] row) throws IOException {
+        long startNanos = System.nanoTime();
+        try {
+            tx.getManager().recover(tableName, row);
+        } catch (RecoverableConflictException e) {
+            LOGGER.warn(e.getMessage(), e);
+        } finally {
+            HaeinsaTransactionProfile profile = tx.getProfile();
+            if (profile != null) {
+                profile.recordRecovery(System.nanoTime() - startNanos);
             }
         }
     }
@@ -513,7 +619,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         put.add(LOCK_FAMILY, LOCK_QUALIFIER, tx.getCommitTimestamp(), TRowLocks.serialize(newRowLock));
 
         byte[] currentRowLockBytes = TRowLocks.serialize(rowState.getCurrent());
-        if (!table.checkAndPut(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, put)) {
+        if (!checkAndPutLock(tx, row, currentRowLockBytes, put)) {
             throw new ConflictException("can't acquire row's lock, commitSingleRowPutOnly failed");
         } else {
             rowState.setCurrent(newRowLock);
@@ -530,16 +636,62 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
      */
     @Override
     public void checkSingleRowLock(HaeinsaRowTransaction rowState, byte[] row) throws IOException {
+        rowState.getTableTransaction().getTransaction().recordRpcs(1);
         TRowLock currentRowLock = getRowLock(row);
         if (!rowState.getCurrent().equals(currentRowLock)) {
-            HaeinsaTransaction tx = rowState.getTableTransaction().getTransaction();
-            HaeinsaTransaction currentTx = tx.getManager().getTransaction(tx.getPrimary().getTableName(), tx.getPrimary().getRow());
-            if (currentTx != null) {
-                if (HaeinsaTransactions.hasSameCommitTimestamp(tx, currentTx)) {
-                    currentTx.recover(true);
+            throw new ConflictException("this row is modified, checkSingleRow failed");
+        }
+    }
+
+    @Override
+    public void checkReadSet(HaeinsaTableTransaction tableState) throws IOException {
+        HaeinsaReadSet readSet = tableState.getReadSet();
+        NavigableMap<byte[], HaeinsaRowTransaction> rowStates = tableState.getRowStates();
+        HaeinsaTransaction tx = tableState.getTransaction();
+        for (int segment = 0; segment < readSet.getSegmentCount(); segment++) {
+            int[] indexes = readSet.getSegmentRows(segment);
+            if (indexes.length == 0) {
+                continue;
+            }
+            // scan lock column from first row to last row of the segment ( inclusive )
+            Scan scan = new Scan(readSet.getRow(indexes[0]), Bytes.add(readSet.getRow(indexes[indexes.length - 1]), new byte[]{0x00}));
+            scan.addColumn(LOCK_FAMILY, LOCK_QUALIFIER);
+            int caching = Math.min(indexes.length, READ_SET_CHECK_CACHING);
+            scan.setCaching(caching);
+            scan.setCacheBlocks(false);
+            int fetchedRows = 0;
+            try (ResultScanner scanner = table.getScanner(scan)) {
+                Result result = scanner.next();
+                if (result != null) {
+                    fetchedRows++;
+                }
+                for (int i : indexes) {
+                    // skip locks of rows which are not in read-set.
+                    while (result != null && readSet.compareRow(i, result.getRow()) > 0) {
+                        result = scanner.next();
+                        if (result != null) {
+                            fetchedRows++;
+                        }
+                    }
+                    if (!rowStates.isEmpty() && rowStates.containsKey(readSet.getRow(i))) {
+                        // row is accessed again after scan, and validated by HaeinsaTransaction.
+                        continue;
+                    }
+                    byte[] lock = null;
+                    if (result != null && readSet.compareRow(i, result.getRow()) == 0) {
+                        lock = result.getValue(LOCK_FAMILY, LOCK_QUALIFIER);
+                    }
+                    if (!readSet.isValid(i, TRowLocks.deserialize(lock))) {
+                        // conflict is recorded here instead of InstrumentedHaeinsaTable, because only here knows the row.
+                        ConflictException e = new ConflictException("this row is modified, checkReadSet failed");
+                        tx.recordConflict(HaeinsaPhase.CHECK_READ_SET, getTableName(), readSet.getRow(i), e);
+                        throw e;
+                    }
                 }
+            } finally {
+                // rows are fetched by batches of caching size, and the last batch finds end of the scan.
+                tx.recordRpcs(1 + fetchedRows / caching);
             }
-            throw new ConflictException("this row is modified, checkSingleRow failed");
         }
     }
 
@@ -591,15 +743,9 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
 
         byte[] currentRowLockBytes = TRowLocks.serialize(rowState.getCurrent());
 
-        if (!table.checkAndPut(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, put)) {
+        if (!checkAndPutLock(tx, row, currentRowLockBytes, put)) {
             // Consider as conflict because another transaction might acquire lock of this row.
-            HaeinsaTransaction currentTx = tx.getManager().getTransaction(tx.getPrimary().getTableName(), tx.getPrimary().getRow());
-            if (currentTx != null) {
-                // Consider as same transaction if commitTimestamp of two transaction is same.
-                if (HaeinsaTransactions.hasSameCommitTimestamp(tx, currentTx)) {
-                    currentTx.recover(true);
-                }
-            }
+            // Transaction is aborted by HaeinsaTransaction after prewrite of other rows is finished.
             throw new ConflictException("can't acquire row's lock");
         } else {
             rowState.setCurrent(newRowLock);
@@ -635,7 +781,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                 for (TKeyValue kv : mutation.getPut().getValues()) {
                     put.add(kv.getKey().getFamily(), kv.getKey().getQualifier(), newRowLock.getCurrentTimestamp(), kv.getValue());
                 }
-                if (!table.checkAndPut(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, put)) {
+                if (!checkAndPutLock(tx, row, currentRowLockBytes, put)) {
                     // Consider as conflict because another transaction might acquire lock of this row.
                     throw new ConflictException("can't acquire row's lock");
                 } else {
@@ -655,7 +801,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                         delete.deleteColumns(removeCell.getFamily(), removeCell.getQualifier(), mutationTimestamp);
                     }
                 }
-                if (!table.checkAndDelete(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, delete)) {
+                if (!checkAndDeleteLock(tx, row, currentRowLockBytes, delete)) {
                     // Consider as conflict because another transaction might acquire lock of this row.
                     throw new ConflictException("can't acquire row's lock");
                 }
@@ -678,7 +824,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         Put put = new Put(row);
         put.add(LOCK_FAMILY, LOCK_QUALIFIER, commitTimestamp, newRowLockBytes);
 
-        if (!table.checkAndPut(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, put)) {
+        if (!checkAndPutLock(transaction, row, currentRowLockBytes, put)) {
             // Consider as success because another transaction might already stabilize this row.
             throw new RecoverableConflictException("can't make stable");
         } else {
@@ -707,7 +853,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         Put put = new Put(row);
         put.add(LOCK_FAMILY, LOCK_QUALIFIER, newRowLock.getCurrentTimestamp(), newRowLockBytes);
 
-        if (!table.checkAndPut(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, put)) {
+        if (!checkAndPutLock(transaction, row, currentRowLockBytes, put)) {
             // We don't need abort current transaction. Because the transaction is already aborted.
             // Consider as conflict because another transaction might acquire lock of primary row.
             throw new ConflictException("can't acquire primary row's lock");
@@ -716,6 +862,25 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         }
     }
 
+    @Override
+    public void renewLock(HaeinsaRowTransaction rowTxState, byte[] row, long expiry) throws IOException {
+        byte[] currentRowLockBytes = TRowLocks.serialize(rowTxState.getCurrent());
+        HaeinsaTransaction transaction = rowTxState.getTableTransaction().getTransaction();
+        TRowLock newRowLock = rowTxState.getCurrent().deepCopy();
+        newRowLock.setExpiry(expiry);
+
+        byte[] newRowLockBytes = TRowLocks.serialize(newRowLock);
+        Put put = new Put(row);
+        put.add(LOCK_FAMILY, LOCK_QUALIFIER, newRowLock.getCurrentTimestamp(), newRowLockBytes);
+
+        if (!checkAndPutLock(transaction, row, currentRowLockBytes, put)) {
+            // lock is changed by other client, which means this transaction is aborted.
+            throw new ConflictException("can't renew lock of the row");
+        } else {
+            rowTxState.setCurrent(newRowLock);
+        }
+    }
+
     @Override
     public TRowLock getRowLock(byte[] row) throws IOException {
         Get get = new Get(row);
@@ -729,6 +894,32 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         }
     }
 
+    @Override
+    public List<TRowLock> getRowLocks(List<byte[]> rows) throws IOException {
+        List<Get> gets = Lists.newArrayListWithCapacity(rows.size());
+        for (byte[] row : rows) {
+            Get get = new Get(row);
+            get.addColumn(LOCK_FAMILY, LOCK_QUALIFIER);
+            gets.add(get);
+        }
+        Result[] results = table.get(gets);
+        List<TRowLock> rowLocks = Lists.newArrayListWithCapacity(results.length);
+        for (Result result : results) {
+            rowLocks.add(TRowLocks.deserialize(result.isEmpty() ? null : result.getValue(LOCK_FAMILY, LOCK_QUALIFIER)));
+        }
+        return rowLocks;
+    }
+
+    @Override
+    @Nullable
+    public String getRegionServer(byte[] row) throws IOException {
+        if (table instanceof HTable) {
+            // region location is cached by connection, so it doesn't make RPC except the first lookup of the region.
+            return ((HTable) table).getRegionLocation(row, false).getHostnamePort();
+        }
+        return null;
+    }
+
     @Override
     public void abortPrimary(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
         byte[] currentRowLockBytes = TRowLocks.serialize(rowTxState.getCurrent());
@@ -748,7 +939,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         Put put = new Put(row);
         put.add(LOCK_FAMILY, LOCK_QUALIFIER, newRowLock.getCurrentTimestamp(), newRowLockBytes);
 
-        if (!table.checkAndPut(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, put)) {
+        if (!checkAndPutLock(transaction, row, currentRowLockBytes, put)) {
             // Consider as conflict because another transaction might acquire lock of primary row.
             throw new ConflictException("can't acquire primary row's lock");
         } else {
@@ -769,12 +960,29 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         for (TCellKey cellKey : rowTxState.getCurrent().getPrewritten()) {
             delete.deleteColumn(cellKey.getFamily(), cellKey.getQualifier(), prewriteTimestamp);
         }
-        if (!table.checkAndDelete(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, delete)) {
+        HaeinsaTransaction tx = rowTxState.getTableTransaction().getTransaction();
+        if (!checkAndDeleteLock(tx, row, currentRowLockBytes, delete)) {
             // Consider as conflict because another transaction might acquire lock of this row.
             throw new ConflictException("can't acquire primary row's lock");
         }
     }
 
+    /**
+     * checkAndPut on lock of the row, which is counted as an RPC of commit protocol of the transaction.
+     */
+    private boolean checkAndPutLock(HaeinsaTransaction tx, byte[] row, byte[] currentRowLockBytes, Put put) throws IOException {
+        tx.recordRpcs(1);
+        return table.checkAndPut(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, put);
+    }
+
+    /**
+     * checkAndDelete on lock of the row, which is counted as an RPC of commit protocol of the transaction.
+     */
+    private boolean checkAndDeleteLock(HaeinsaTransaction tx, byte[] row, byte[] currentRowLockBytes, Delete delete) throws IOException {
+        tx.recordRpcs(1);
+        return table.checkAndDelete(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, delete);
+    }
+
     protected HTableInterface getHTable() {
         return table;
     }
@@ -852,6 +1060,13 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
          */
         private final boolean lockInclusive;
 
+        /**
+         * null if compact read-set is not used.
+         */
+        private final HaeinsaReadSet readSet;
+        // segment of readSet which holds rows read by this scanner.
+        private final int readSetSegment;
+
         /**
          * -1 if not used. ( Get / Scan )
          */
@@ -859,6 +1074,12 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         private final Map<byte[], NavigableSet<byte[]>> familyMap;
         private HaeinsaKeyValue prevKV;
         private long maxSeqID = Long.MAX_VALUE;
+        // row of last key value pushed to visitor.
+        private byte[] visitedRow;
+        // true if visitor stopped scan.
+        private boolean stopped;
+        // { row -> Result refetched after recovery }, consumed when ClientScanner reaches the row.
+        private final NavigableMap<byte[], Result> recoveredResults = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
 
         /**
          * @param lockInclusive - whether scanners contains {@link TRowLock} inside.
@@ -876,6 +1097,19 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
          */
         public ClientScanner(HaeinsaTransaction tx, Iterable<HaeinsaKeyValueScanner> scanners,
                              Map<byte[], NavigableSet<byte[]>> familyMap, HaeinsaIntraScan intraScan, boolean lockInclusive) {
+            this(tx, scanners, familyMap, intraScan, lockInclusive, null);
+        }
+
+        /**
+         * @param intraScan - To support to use {@link ColumnRangeFilter}
+         * @param lockInclusive - whether scanners contains {@link TRowLock} inside.
+         * If not, should bring from {@link HaeinsaRowTransaction} or get from HBase directly.
+         * @param readSet - compact read-set to track stable rows read by this scanner, null if not used.
+         * Should be used only if lockInclusive is true.
+         */
+        public ClientScanner(HaeinsaTransaction tx, Iterable<HaeinsaKeyValueScanner> scanners,
+                             Map<byte[], NavigableSet<byte[]>> familyMap, HaeinsaIntraScan intraScan, boolean lockInclusive,
+                             @Nullable HaeinsaReadSet readSet) {
             this.tx = tx;
             this.tableState = tx.createOrGetTableState(getTableName());
             for (HaeinsaKeyValueScanner kvScanner : scanners) {
@@ -891,6 +1125,9 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
             this.batch = intraScan.getBatch();
             this.lockInclusive = lockInclusive;
             this.familyMap = familyMap;
+            this.readSet = readSet;
+            // rows read by this scanner are in ascending order.
+            this.readSetSegment = readSet != null ? readSet.startSegment() : -1;
         }
 
         /**
@@ -991,12 +1228,59 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
 
         @Override
         public HaeinsaResult next() throws IOException {
+            final List<HaeinsaKeyValue> sortedKVs = Lists.newArrayList();
+            nextRow(new HaeinsaRowVisitor() {
+                @Override
+                public boolean visit(HaeinsaKeyValue kv) {
+                    sortedKVs.add(kv);
+                    return true;
+                }
+
+                @Override
+                public boolean endRow(byte[] row) {
+                    return true;
+                }
+            });
+            if (sortedKVs.size() > 0) {
+                return new HaeinsaResult(sortedKVs);
+            } else {
+                // scanners are exhausted.
+                return null;
+            }
+        }
+
+        /**
+         * Push key values of remaining rows to visitor until scanners are exhausted or visitor stops.
+         * Unlike {@link #next()}, {@link HaeinsaResult} is not created for each row.
+         */
+        public void scan(HaeinsaRowVisitor visitor) throws IOException {
+            while (true) {
+                if (nextRow(visitor) == 0 || stopped) {
+                    // scanners are exhausted or visitor stopped in the middle of row.
+                    return;
+                }
+                if (!visitor.endRow(visitedRow)) {
+                    stopped = true;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Merge {@link HaeinsaKeyValue}s of next row from {@link #scanners}, and push them to visitor
+         * in sorted order. {@link TRowLock} of the row is tracked or recovered when new row is started.
+         * Stop when the row ends, number of key values reaches batch, or visitor returns false.
+         * {@link HaeinsaRowVisitor#endRow(byte[])} is not called by this method.
+         *
+         * @return number of key values pushed to visitor, 0 if scanners are exhausted.
+         */
+        private int nextRow(HaeinsaRowVisitor visitor) throws IOException {
             if (!initialized) {
                 // move scannerList -> scanners
                 initialize();
             }
 
-            final List<HaeinsaKeyValue> sortedKVs = Lists.newArrayList();
+            int visited = 0;
             while (true) {
                 if (scanners.isEmpty()) {
                     break;
@@ -1005,7 +1289,9 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                 HaeinsaKeyValue currentKV = currentScanner.peek();
                 if (prevKV == null) {
                     // start new row, deal with TRowLock and Recover()
-                    if (lockInclusive) {
+                    if (readSet != null && addToReadSet(currentKV.getRow())) {
+                        // row is tracked by compact read-set, so HaeinsaRowTransaction is not created for this row.
+                    } else if (lockInclusive) {
                         // HaeinsaKeyValues from HBaseScanScanner or HBaseGetScanner contains TRowLock for this row.
                         TRowLock currentRowLock = peekLock(currentKV.getRow());
                         HaeinsaRowTransaction rowState = tableState.createOrGetRowState(currentKV.getRow());
@@ -1027,21 +1313,30 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                                 rowState.setCurrent(currentRowLock);
                             }
 
-                            if (checkAndIsShouldRecover(currentRowLock)) {
-                                // when currentRowLock is not stable but
-                                // expired.
-                                rowState = checkOrRecoverLock(tx, currentKV.getRow(), tableState, rowState);
-                                Get get = new Get(currentKV.getRow());
-                                for (Entry<byte[], NavigableSet<byte[]>> entry : familyMap.entrySet()) {
-                                    if (entry.getValue() != null) {
-                                        for (byte[] qualifier : entry.getValue()) {
-                                            get.addColumn(entry.getKey(), qualifier);
-                                        }
+                            // wait for ongoing transaction on this row if lock-wait policy is set.
+                            boolean waitForLock = tx.getLockWaitPolicy() != null && isLockedByOngoingTransaction(currentRowLock);
+                            if (waitForLock || checkAndIsShouldRecover(currentRowLock)) {
+                                // when currentRowLock is not stable, and expired or should be waited for.
+                                Result result = null;
+                                if (!waitForLock) {
+                                    result = recoveredResults.remove(currentKV.getRow());
+                                    if (result == null) {
+                                        recoverBufferedRows(currentKV.getRow(), currentRowLock);
+                                        result = recoveredResults.remove(currentKV.getRow());
+                                    }
+                                    TRowLock recoveredRowLock = TRowLocks.deserialize(result.getValue(LOCK_FAMILY, LOCK_QUALIFIER));
+                                    if (recoveredRowLock.getState() == TRowLockState.STABLE) {
+                                        rowState.setCurrent(recoveredRowLock);
                                     } else {
-                                        get.addFamily(entry.getKey());
+                                        result = null;
                                     }
                                 }
-                                Result result = table.get(get);
+                                if (result == null) {
+                                    // row is still unstable after batched recovery or locked by ongoing transaction,
+                                    // recover or wait for this row alone.
+                                    rowState = checkOrRecoverLock(tx, currentKV.getRow(), tableState, rowState);
+                                    result = table.get(createRecoverGet(currentKV.getRow()));
+                                }
                                 maxSeqID--;
                                 HBaseGetScanner getScanner = new HBaseGetScanner(result, maxSeqID);
                                 if (getScanner.peek() != null) {
@@ -1080,34 +1375,154 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                         if (!deleteTracker.isDeleted(currentKV, currentScanner.getSequenceID())
                                 && columnTracker.isMatched(currentKV)) {
                             // if currentKV is not deleted and inside scan range
-                            sortedKVs.add(currentKV);
+                            visited++;
+                            visitedRow = currentKV.getRow();
                             prevKV = currentKV;
+                            if (!visitor.visit(currentKV)) {
+                                stopped = true;
+                            }
                         }
                     }
                     nextScanner(currentScanner);
+                    if (stopped) {
+                        break;
+                    }
                 } else {
                     // currentKV is different row with prevKV, so reset
                     // deleteTracker & maxSeqID
                     deleteTracker.reset();
                     prevKV = null;
                     maxSeqID = Long.MAX_VALUE;
-                    if (sortedKVs.size() > 0) {
+                    if (visited > 0) {
                         // If currentKV moved to next row and there are more than one KV satisfy scan requirement,
-                        // should return HaeinsaResult which aggregate HaeinsaKeyValue for previous row.
+                        // should finish previous row.
                         break;
                     }
                 }
-                if (batch > 0 && sortedKVs.size() >= batch) {
-                    // if intraScan & sortedKVs have more elements than batch.
+                if (batch > 0 && visited >= batch) {
+                    // if intraScan & visited more elements than batch.
                     break;
                 }
             }
-            if (sortedKVs.size() > 0) {
-                return new HaeinsaResult(sortedKVs);
-            } else {
-                // scanners are exhausted.
-                return null;
+            return visited;
+        }
+
+        /**
+         * Add row to compact read-set if the row is not accessed in the transaction yet and has stable {@link TRowLock}.
+         * Unstable row is not added, because it should be recovered with {@link HaeinsaRowTransaction}.
+         *
+         * @return true if the row is added to read-set
+         */
+        private boolean addToReadSet(byte[] row) throws IOException {
+            if (tableState.getRowStates().containsKey(row)) {
+                return false;
             }
+            TRowLock currentRowLock = peekLock(row);
+            if (currentRowLock == null) {
+                // HBase do not have TRowLock for this row.
+                currentRowLock = TRowLocks.deserialize(null);
+            }
+            if (currentRowLock.getState() != TRowLockState.STABLE) {
+                return false;
+            }
+            readSet.add(readSetSegment, row, currentRowLock.getCommitTimestamp());
+            return true;
+        }
+
+        /**
+         * Recover unstable rows which are already fetched by {@link HBaseScanScanner} together with given row,
+         * and refetch all of them with single multi-get. Refetched rows are saved in {@link #recoveredResults}
+         * and used when ClientScanner reaches to the row.
+         * <p>
+         * Rows locked by same transaction are recovered only once by recovering its primary row.
+         * Failure of recovering transactions of rows ahead is ignored here, because the row which is still unstable
+         * after refetch is recovered alone by {@link HaeinsaTable#checkOrRecoverLock} as before when ClientScanner reaches it.
+         * Only conflict is ignored on recovering transaction of the given row, because it is recovered alone right after.
+         *
+         * @param row row which ClientScanner currently reached
+         * @param rowLock unstable and expired {@link TRowLock} of the row
+         */
+        private void recoverBufferedRows(byte[] row, TRowLock rowLock) throws IOException {
+            List<byte[]> rows = Lists.newArrayList();
+            Set<TRowKey> primaryRowKeys = Sets.newLinkedHashSet();
+            rows.add(row);
+            TRowKey currentPrimaryRowKey = getPrimaryRowKey(row, rowLock);
+            primaryRowKeys.add(currentPrimaryRowKey);
+            long currentTime = System.currentTimeMillis();
+            for (HaeinsaKeyValueScanner scanner : scannerList) {
+                if (!(scanner instanceof HBaseScanScanner)) {
+                    continue;
+                }
+                for (Result buffered : ((HBaseScanScanner) scanner).getBufferedResults()) {
+                    byte[] bufferedRow = buffered.getRow();
+                    if (Bytes.compareTo(bufferedRow, row) <= 0
+                            || tableState.getRowStates().containsKey(bufferedRow)
+                            || recoveredResults.containsKey(bufferedRow)) {
+                        // row which is already passed, or TRowLock of the row is already known.
+                        continue;
+                    }
+                    byte[] lock = buffered.getValue(LOCK_FAMILY, LOCK_QUALIFIER);
+                    if (lock == null) {
+                        continue;
+                    }
+                    TRowLock bufferedRowLock = TRowLocks.deserialize(lock);
+                    if (bufferedRowLock.getState() != TRowLockState.STABLE
+                            && bufferedRowLock.isSetExpiry() && bufferedRowLock.getExpiry() < currentTime) {
+                        rows.add(bufferedRow);
+                        primaryRowKeys.add(getPrimaryRowKey(bufferedRow, bufferedRowLock));
+                    }
+                }
+            }
+
+            for (TRowKey primaryRowKey : primaryRowKeys) {
+                try {
+                    recover(tx, primaryRowKey.getTableName(), primaryRowKey.getRow());
+                } catch (ConflictException e) {
+                    LOGGER.debug(e.getMessage(), e);
+                } catch (IOException e) {
+                    if (primaryRowKey.equals(currentPrimaryRowKey)) {
+                        throw e;
+                    }
+                    // rows ahead may not be read at all, so error is reported only when ClientScanner reaches them.
+                    LOGGER.warn(e.getMessage(), e);
+                }
+            }
+
+            List<Get> gets = Lists.newArrayListWithCapacity(rows.size());
+            for (byte[] recoveredRow : rows) {
+                gets.add(createRecoverGet(recoveredRow));
+            }
+            Result[] results = table.get(gets);
+            for (int i = 0; i < rows.size(); i++) {
+                recoveredResults.put(rows.get(i), results[i]);
+            }
+        }
+
+        private TRowKey getPrimaryRowKey(byte[] row, TRowLock rowLock) {
+            if (TRowLocks.isPrimary(rowLock)) {
+                return new TRowKey().setTableName(getTableName()).setRow(row);
+            }
+            return rowLock.getPrimary();
+        }
+
+        /**
+         * Create {@link Get} to refetch recovered row, which contains columns of the scan and {@link TRowLock}.
+         */
+        private Get createRecoverGet(byte[] row) {
+            Get get = new Get(row);
+            for (Entry<byte[], NavigableSet<byte[]>> entry : familyMap.entrySet()) {
+                if (entry.getValue() != null) {
+                    for (byte[] qualifier : entry.getValue()) {
+                        get.addColumn(entry.getKey(), qualifier);
+                    }
+                } else {
+                    get.addFamily(entry.getKey());
+                }
+            }
+            if (get.hasFamilies()) {
+                get.addColumn(LOCK_FAMILY, LOCK_QUALIFIER);
+            }
+            return get;
         }
 
         /**
@@ -1163,12 +1578,24 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
     private static class HBaseScanScanner implements HaeinsaKeyValueScanner {
         private final ResultScanner resultScanner;
 
+        /**
+         * Number of rows fetched from resultScanner at once.
+         */
+        private final int batchSize;
+
         /**
          * current is null when scan is not started or next() is called last
          * time.
          */
         private HaeinsaKeyValue current;
 
+        /**
+         * Rows fetched from resultScanner by last call of {@link ResultScanner#next(int)}.
+         * currentResult = results[resultsIndex - 1]
+         */
+        private Result[] results = new Result[0];
+        private int resultsIndex;
+
         /**
          * currentResult is null when there is no more elements to scan in resultScanner or scan is not started.
          * currentResult only contains result of single row.
@@ -1181,7 +1608,16 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         private int resultIndex;
 
         public HBaseScanScanner(ResultScanner resultScanner) {
+            this(resultScanner, 1);
+        }
+
+        /**
+         * @param batchSize number of rows fetched from resultScanner at once.
+         * Use caching value of the scan, so that fetching batch do not make additional RPC.
+         */
+        public HBaseScanScanner(ResultScanner resultScanner, int batchSize) {
             this.resultScanner = resultScanner;
+            this.batchSize = Math.max(batchSize, 1);
         }
 
         @Override
@@ -1191,10 +1627,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                     return current;
                 }
                 if (currentResult == null || (currentResult != null && resultIndex >= currentResult.size())) {
-                    currentResult = resultScanner.next();
-                    if (currentResult != null && currentResult.isEmpty()) {
-                        currentResult = null;
-                    }
+                    currentResult = nextResult();
                     resultIndex = 0;
                 }
                 if (currentResult == null) {
@@ -1214,6 +1647,47 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
             }
         }
 
+        /**
+         * Return next non-empty row from current batch, fetch next batch from resultScanner if current batch is exhausted.
+         *
+         * @return null if there is no more row to scan.
+         */
+        private Result nextResult() throws IOException {
+            while (true) {
+                if (resultsIndex >= results.length) {
+                    results = resultScanner.next(batchSize);
+                    resultsIndex = 0;
+                    if (results == null || results.length == 0) {
+                        results = new Result[0];
+                        return null;
+                    }
+                }
+                Result result = results[resultsIndex];
+                resultsIndex++;
+                if (result != null && !result.isEmpty()) {
+                    return result;
+                }
+            }
+        }
+
+        /**
+         * Return rows which are already fetched from HBase but not passed by this scanner yet,
+         * including the row currently peeked. Can be used to look ahead rows without additional RPC.
+         */
+        public List<Result> getBufferedResults() {
+            peek();
+            List<Result> buffered = Lists.newArrayList();
+            if (currentResult != null) {
+                buffered.add(currentResult);
+                for (int i = resultsIndex; i < results.length; i++) {
+                    if (results[i] != null && !results[i].isEmpty()) {
+                        buffered.add(results[i]);
+                    }
+                }
+            }
+            return buffered;
+        }
+
         @Override
         public HaeinsaKeyValue next() throws IOException {
             HaeinsaKeyValue result = peek();
@@ -121,6 +121,22 @@ public interface HaeinsaTableIface extends Closeable {
      */
     HaeinsaResultScanner getScanner(@Nullable HaeinsaTransaction tx, HaeinsaIntraScan intraScan) throws IOException;
 
+    /**
+     * Scan rows on the current table as specified by the {@link HaeinsaScan} object,
+     * and push key values to visitor without materializing {@link HaeinsaResult} for each row.
+     * Rows read by this method are tracked in the transaction same as
+     * {@link HaeinsaTableIface#getScanner(HaeinsaTransaction, HaeinsaScan)}.
+     * <p>
+     * Scan is finished when all rows are visited or visitor returns false.
+     *
+     * @param tx HaeinsaTransaction which this operation is participated in.
+     * It can be null if user don't want to execute scan inside transaction.
+     * @param scan A configured {@link HaeinsaScan} object.
+     * @param visitor visitor which key values of the rows are pushed to.
+     * @throws IOException if a remote or network exception occurs.
+     */
+    void scan(@Nullable HaeinsaTransaction tx, HaeinsaScan scan, HaeinsaRowVisitor visitor) throws IOException;
+
     /**
      * Puts some data in the table.
      * <p>
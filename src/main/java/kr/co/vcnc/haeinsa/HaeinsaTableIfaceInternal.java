@@ -16,6 +16,9 @@
 package kr.co.vcnc.haeinsa;
 
 import java.io.IOException;
+import java.util.List;
+
+import javax.annotation.Nullable;
 
 import kr.co.vcnc.haeinsa.exception.ConflictException;
 import kr.co.vcnc.haeinsa.thrift.generated.TMutationType;
@@ -54,6 +57,18 @@ interface HaeinsaTableIfaceInternal extends HaeinsaTableIface {
      */
     void checkSingleRowLock(HaeinsaRowTransaction rowState, byte[] row) throws IOException;
 
+    /**
+     * Validate compact read-set of the table in bulk.
+     * Scan lock column over rows of each segment of {@link HaeinsaReadSet} and compare
+     * commitTimestamp of {@link TRowLock} with the one when the row was read.
+     * Rows which have {@link HaeinsaRowTransaction} in tableState are skipped, because they are validated
+     * by {@link HaeinsaTransaction} before prewrite.
+     * If any TRowLock is changed, it means transaction is failed, so throw {@link ConflictException}.
+     *
+     * @throws IOException ConflictException, HBase IOException.
+     */
+    void checkReadSet(HaeinsaTableTransaction tableState) throws IOException;
+
     /**
      * Prewrite specific row with rowState variable.
      * Put version, state, commitTimestamp, currentTimestamp fields of {@link TRowLock} to lock column of the row on HBase.
@@ -110,6 +125,18 @@ interface HaeinsaTableIfaceInternal extends HaeinsaTableIface {
      */
     void commitPrimary(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException;
 
+    /**
+     * Extend expiry of {@link TRowLock} of the row to given expiry, without changing other fields of the lock.
+     * This is used to renew lease of primary lock while transaction is committing.
+     * Expiry of the transaction is not changed by this method.
+     * <p>
+     * If TRowLock is changed, it means transaction is aborted by other client, so throw {@link ConflictException}.
+     *
+     * @param expiry new expiry of the lock
+     * @throws IOException ConflictException, HBase IOException.
+     */
+    void renewLock(HaeinsaRowTransaction rowTxState, byte[] row, long expiry) throws IOException;
+
     /**
      * get {@link TRowLock} from HBase. This method never returns null.
      *
@@ -119,6 +146,26 @@ interface HaeinsaTableIfaceInternal extends HaeinsaTableIface {
      */
     TRowLock getRowLock(byte[] row) throws IOException;
 
+    /**
+     * get {@link TRowLock}s of rows from HBase by single multi-get. This method never returns null for any row.
+     *
+     * @param rows rows
+     * @return row locks in the same order with rows
+     * @throws IOException HBase IOException.
+     */
+    List<TRowLock> getRowLocks(List<byte[]> rows) throws IOException;
+
+    /**
+     * Get host and port of region server which hosts the row.
+     * Location is cached by connection, so this method does not access HBase in most cases.
+     *
+     * @param row row
+     * @return host and port of region server, or null if the location can't be known by this table.
+     * @throws IOException HBase IOException.
+     */
+    @Nullable
+    String getRegionServer(byte[] row) throws IOException;
+
     /**
      * Change {@link TRowLock} to {@link TRowLockState#ABORTED} state to roll back
      * failed or expired transaction to previous state when transaction have not started.
@@ -17,23 +17,45 @@ package kr.co.vcnc.haeinsa;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.HTableFactory;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.PoolMap;
 import org.apache.hadoop.hbase.util.PoolMap.PoolType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 /**
  * Provide pooling pattern to HaeinsaTable.
  */
 public class HaeinsaTablePool implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HaeinsaTablePool.class);
+
+    /**
+     * Comma separated names of tables which are warmed up by {@link #warmUp()}.
+     */
+    public static final String WARM_UP_TABLES_KEY = "haeinsa.tablepool.warmup.tables";
+    /**
+     * Number of table instances created for each table by {@link #warmUp()}. Default is 1.
+     */
+    public static final String WARM_UP_SIZE_KEY = "haeinsa.tablepool.warmup.size";
+
     // { tableName -> HaeinsaTable }
     private final PoolMap<String, HaeinsaTableIfaceInternal> tables;
     private final int maxSize;
@@ -41,6 +63,7 @@ public class HaeinsaTablePool implements Closeable {
     private final Configuration config;
     // null if use default factory
     private final HaeinsaTableIfaceFactory tableFactory;
+    private volatile long lastWarmUpTimeMillis = -1;
 
     /**
      * Default Constructor. Default HBaseConfiguration and no limit on pool
@@ -224,12 +247,118 @@ public class HaeinsaTablePool implements Closeable {
         tables.put(tableName, table);
     }
 
+    /**
+     * Create table by the factory, wrapped to measure phases of transactions on {@link HaeinsaMetrics}.
+     */
     protected HaeinsaTableIfaceInternal createHTable(String tableName) {
-        return (HaeinsaTableIfaceInternal) this.tableFactory.createHaeinsaTableIface(config, Bytes.toBytes(tableName));
+        HaeinsaTableIface table = this.tableFactory.createHaeinsaTableIface(config, Bytes.toBytes(tableName));
+        return new InstrumentedHaeinsaTable((HaeinsaTableIfaceInternal) table);
+    }
+
+    protected void release(HaeinsaTableIface table) throws IOException {
+        // return the table created by the factory, not the wrapper of createHTable(String).
+        HaeinsaTableIface created = table;
+        if (created instanceof InstrumentedHaeinsaTable) {
+            created = ((InstrumentedHaeinsaTable) created).delegate();
+        }
+        this.tableFactory.releaseHaeinsaTableIface(created);
+    }
+
+    /**
+     * Warm up tables configured by {@link #WARM_UP_TABLES_KEY} and {@link #WARM_UP_SIZE_KEY}.
+     * See {@link #warmUp(Iterable, int)}.
+     *
+     * @return elapsed time of warm-up in milliseconds
+     */
+    public long warmUp() throws IOException {
+        String[] tableNames = config.getStrings(WARM_UP_TABLES_KEY, new String[0]);
+        return warmUp(Arrays.asList(tableNames), config.getInt(WARM_UP_SIZE_KEY, 1));
+    }
+
+    /**
+     * Create <i>size</i> table instances for each table and put them into the pool,
+     * and preload region locations of each table, so that first transactions after start-up
+     * don't create tables and look up META one by one.
+     * Number of created instances is limited by maximum size of the pool.
+     * <p>
+     * This method is intended to be called once before the pool starts to serve transactions.
+     *
+     * @param tableNames names of tables to warm up
+     * @param size number of table instances for each table
+     * @return elapsed time of warm-up in milliseconds, which is also available by {@link #getLastWarmUpTimeMillis()}
+     */
+    public long warmUp(Iterable<String> tableNames, int size) throws IOException {
+        Preconditions.checkArgument(size > 0, "size should be positive.");
+        long startTime = System.currentTimeMillis();
+        for (String tableName : tableNames) {
+            warmUpTable(tableName, Math.min(size, maxSize));
+        }
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        lastWarmUpTimeMillis = elapsedTime;
+        LOGGER.info("Warmed up table pool in {} ms, tables: {}", elapsedTime, tableNames);
+        return elapsedTime;
+    }
+
+    private void warmUpTable(String tableName, int size) throws IOException {
+        List<HaeinsaTableIfaceInternal> borrowedTables = Lists.newArrayListWithCapacity(size);
+        try {
+            // borrow tables at once to make the pool create new instances.
+            for (int i = 0; i < size; i++) {
+                borrowedTables.add(getTableInternal(tableName));
+            }
+            preloadRegionLocations(borrowedTables.get(0));
+        } finally {
+            for (HaeinsaTableIfaceInternal table : borrowedTables) {
+                table.close();
+            }
+        }
+    }
+
+    /**
+     * Load every region location of the table from META into the region cache of its connection.
+     * Region locations are not preloaded if the table isn't backed by {@link HTable}.
+     */
+    protected void preloadRegionLocations(HaeinsaTableIfaceInternal table) throws IOException {
+        HTable hTable = unwrapHTable(table);
+        if (hTable != null) {
+            for (HRegionInfo regionInfo : hTable.getRegionLocations().keySet()) {
+                // locate region through region cache, which caches the location and prefetches following regions.
+                hTable.getRegionLocation(regionInfo.getStartKey(), false);
+            }
+        }
+    }
+
+    /**
+     * Find {@link HTable} under pooled or forwarding tables.
+     *
+     * @return HTable which backs the table, or null if the table isn't backed by HTable.
+     */
+    @Nullable
+    static HTable unwrapHTable(HaeinsaTableIfaceInternal table) {
+        HaeinsaTableIfaceInternal unwrapped = table;
+        while (true) {
+            if (unwrapped instanceof PooledHaeinsaTable) {
+                unwrapped = ((PooledHaeinsaTable) unwrapped).getWrappedTable();
+            } else if (unwrapped instanceof ForwardingHaeinsaTable) {
+                unwrapped = ((ForwardingHaeinsaTable) unwrapped).delegate();
+            } else {
+                break;
+            }
+        }
+        if (unwrapped instanceof HaeinsaTable) {
+            HTableInterface hTable = ((HaeinsaTable) unwrapped).getHTable();
+            if (hTable instanceof HTable) {
+                return (HTable) hTable;
+            }
+        }
+        return null;
     }
 
-    private void release(HaeinsaTableIface table) throws IOException {
-        this.tableFactory.releaseHaeinsaTableIface(table);
+    /**
+     * @return elapsed time of the last warm-up in milliseconds, or -1 if the pool is not warmed up.
+     */
+    public long getLastWarmUpTimeMillis() {
+        return lastWarmUpTimeMillis;
     }
 
     /**
@@ -312,6 +441,11 @@ public class HaeinsaTablePool implements Closeable {
             return table.getScanner(tx, intraScan);
         }
 
+        @Override
+        public void scan(HaeinsaTransaction tx, HaeinsaScan scan, HaeinsaRowVisitor visitor) throws IOException {
+            table.scan(tx, scan, visitor);
+        }
+
         @Override
         public HaeinsaResultScanner getScanner(HaeinsaTransaction tx, byte[] family) throws IOException {
             return table.getScanner(tx, family);
@@ -357,6 +491,11 @@ public class HaeinsaTablePool implements Closeable {
             table.checkSingleRowLock(rowState, row);
         }
 
+        @Override
+        public void checkReadSet(HaeinsaTableTransaction tableState) throws IOException {
+            table.checkReadSet(tableState);
+        }
+
         @Override
         public void commitSingleRowPutOnly(HaeinsaRowTransaction rowState, byte[] row) throws IOException {
             table.commitSingleRowPutOnly(rowState, row);
@@ -382,11 +521,26 @@ public class HaeinsaTablePool implements Closeable {
             table.commitPrimary(rowTxState, row);
         }
 
+        @Override
+        public void renewLock(HaeinsaRowTransaction rowTxState, byte[] row, long expiry) throws IOException {
+            table.renewLock(rowTxState, row, expiry);
+        }
+
         @Override
         public TRowLock getRowLock(byte[] row) throws IOException {
             return table.getRowLock(row);
         }
 
+        @Override
+        public List<TRowLock> getRowLocks(List<byte[]> rows) throws IOException {
+            return table.getRowLocks(rows);
+        }
+
+        @Override
+        public String getRegionServer(byte[] row) throws IOException {
+            return table.getRegionServer(row);
+        }
+
         @Override
         public void abortPrimary(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
             table.abortPrimary(rowTxState, row);
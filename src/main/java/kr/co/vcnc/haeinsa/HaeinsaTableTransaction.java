@@ -33,6 +33,7 @@ import com.google.common.collect.Maps;
 class HaeinsaTableTransaction {
     private final NavigableMap<byte[], HaeinsaRowTransaction> rowStates = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
     private final HaeinsaTransaction transaction;
+    private HaeinsaReadSet readSet;
 
     HaeinsaTableTransaction(HaeinsaTransaction transaction) {
         this.transaction = transaction;
@@ -46,6 +47,24 @@ class HaeinsaTableTransaction {
         return transaction;
     }
 
+    /**
+     * Return compact read-set of rows read by scans with {@link HaeinsaScan#setCompactReadSet(boolean)}.
+     * Rows in read-set do not have {@link HaeinsaRowTransaction} in rowStates unless they are accessed again in other way.
+     */
+    public HaeinsaReadSet getReadSet() {
+        if (readSet == null) {
+            readSet = new HaeinsaReadSet();
+        }
+        return readSet;
+    }
+
+    /**
+     * @return true if there is any row in read-set.
+     */
+    public boolean hasReadSet() {
+        return readSet != null && !readSet.isEmpty();
+    }
+
     /**
      * Return rowTransaction which this instance contains in rowStates map.
      * If there is no rowTransaction for this row, then create new one and return it.
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Counter of the most frequent keys in bounded memory by Space-Saving algorithm
+ * (Metwally et al., Efficient Computation of Frequent and Top-k Elements in Data Streams).
+ * <p>
+ * At most capacity keys are counted. If new key is offered when counter is full,
+ * it replaces the key with minimum count and inherits the count, so count of each key is an upper bound
+ * which overestimates at most by the minimum count. Every key whose actual count is greater than
+ * the minimum count is guaranteed to be counted.
+ * <p>
+ * Finding minimum is linear to capacity, which is fine for rare events such as conflicts.
+ * This class is thread-safe.
+ */
+final class HaeinsaTopKCounter<K> {
+    private final int capacity;
+    private final Map<K, long[]> counts;
+
+    public HaeinsaTopKCounter(int capacity) {
+        Preconditions.checkArgument(capacity > 0, "capacity should be positive.");
+        this.capacity = capacity;
+        this.counts = Maps.newHashMapWithExpectedSize(capacity);
+    }
+
+    public synchronized void offer(K key) {
+        long[] count = counts.get(key);
+        if (count != null) {
+            count[0]++;
+            return;
+        }
+        if (counts.size() < capacity) {
+            counts.put(key, new long[] { 1 });
+            return;
+        }
+        Entry<K, long[]> min = null;
+        for (Entry<K, long[]> entry : counts.entrySet()) {
+            if (min == null || entry.getValue()[0] < min.getValue()[0]) {
+                min = entry;
+            }
+        }
+        long[] minCount = counts.remove(min.getKey());
+        minCount[0]++;
+        counts.put(key, minCount);
+    }
+
+    /**
+     * @return at most limit keys with estimated counts, in descending order of count
+     */
+    public synchronized List<Entry<K, Long>> getTop(int limit) {
+        List<Entry<K, Long>> top = Lists.newArrayListWithCapacity(counts.size());
+        for (Entry<K, long[]> entry : counts.entrySet()) {
+            top.add(Maps.immutableEntry(entry.getKey(), entry.getValue()[0]));
+        }
+        Collections.sort(top, new Comparator<Entry<K, Long>>() {
+            @Override
+            public int compare(Entry<K, Long> o1, Entry<K, Long> o2) {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+        return top.size() > limit ? top.subList(0, limit) : top;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
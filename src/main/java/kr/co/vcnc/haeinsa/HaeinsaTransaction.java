@@ -17,22 +17,31 @@ package kr.co.vcnc.haeinsa;
 
 import java.io.IOException;
 import java.util.Comparator;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
 
 import kr.co.vcnc.haeinsa.HaeinsaTransactionLocal.HaeinsaTransactionLocals;
 import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.exception.NotExpiredYetException;
 import kr.co.vcnc.haeinsa.exception.RecoverableConflictException;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+import kr.co.vcnc.haeinsa.timestamp.TimestampOracle;
 
 import org.apache.hadoop.hbase.util.Bytes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Maps;
 import com.google.common.hash.HashFunction;
@@ -59,11 +68,22 @@ public class HaeinsaTransaction {
     private long prewriteTimestamp = Long.MIN_VALUE;
     private long created = System.currentTimeMillis();
     private long timeout = HaeinsaConstants.DEFAULT_ROW_LOCK_TIMEOUT;
-    private long expiry = created + timeout;
+    // volatile because lease of primary lock can be renewed by other thread during commit.
+    private volatile long expiry = created + timeout;
     private final AtomicBoolean used = new AtomicBoolean(false);
     private HaeinsaTransactionLocals txLocals;
+    // null if transaction doesn't wait for locks of other transactions
+    private HaeinsaLockWaitPolicy lockWaitPolicy;
+    private long lockWaitNanos;
+    // RPCs of commit protocol, which can be sent concurrently by commit executor.
+    private final AtomicInteger rpcCount = new AtomicInteger();
+    // null if transaction is not sampled by HaeinsaSlowTransactionLog
+    private HaeinsaTransactionProfile profile;
 
-    private static enum CommitMethod {
+    /**
+     * Method to commit transaction which is determined by rows and mutations of the transaction.
+     */
+    public static enum CommitMethod {
         /**
          * If all rowTx do not have mutation. (only consisted with Get/Scan)
          */
@@ -130,9 +150,11 @@ public class HaeinsaTransaction {
         this.expiry = expiry;
     }
 
-    private void extendExpiry() {
-        // Expiry is max(getCommitTimestamp, System.currentTimeMillis()) + DEFAULT_ROW_LOCK_TIMEOUT
-        setExpiry(Math.max(getCommitTimestamp(), System.currentTimeMillis()) + timeout);
+    void extendExpiry() {
+        // Expiry is System.currentTimeMillis() + timeout.
+        // Physical time is used instead of commitTimestamp, which can run ahead of wall time on hot rows
+        // or by TimestampOracle, because other clients compare expiry with their physical time.
+        setExpiry(System.currentTimeMillis() + timeout);
     }
 
     public long getCreated() {
@@ -148,6 +170,94 @@ public class HaeinsaTransaction {
         this.expiry = created + timeout;
     }
 
+    public HaeinsaLockWaitPolicy getLockWaitPolicy() {
+        return lockWaitPolicy;
+    }
+
+    /**
+     * Set policy of waiting for locks of other ongoing transactions.
+     *
+     * @param lockWaitPolicy policy, or null not to wait and fail with {@link NotExpiredYetException} immediately.
+     */
+    public void setLockWaitPolicy(@Nullable HaeinsaLockWaitPolicy lockWaitPolicy) {
+        this.lockWaitPolicy = lockWaitPolicy;
+    }
+
+    /**
+     * @return total time spent on waiting for locks of other transactions in milliseconds
+     */
+    public long getLockWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lockWaitNanos);
+    }
+
+    /**
+     * Determine time to wait before polling the lock of other transaction again.
+     * Wait until the transaction holding the lock expires at most, and within remaining wait time of {@link #lockWaitPolicy}.
+     * Expiry of secondary row can be past while its primary row is alive, so expiry of the transaction should be given
+     * from primary row by {@link NotExpiredYetException#getExpiry()}.
+     *
+     * @param expiry expiry of the transaction holding the lock, or 0 if unknown
+     * @param poll number of poll on the lock which starts from 1
+     * @return time to wait in milliseconds, or 0 if transaction should not wait anymore.
+     */
+    long nextLockWaitMillis(long expiry, int poll) {
+        if (lockWaitPolicy == null) {
+            return 0;
+        }
+        long remaining = lockWaitPolicy.getMaxWaitMillis() - getLockWaitMillis();
+        if (remaining <= 0) {
+            return 0;
+        }
+        long wait = Math.min(lockWaitPolicy.getPollMillis(poll), remaining);
+        long currentTime = System.currentTimeMillis();
+        if (expiry > currentTime) {
+            // wake up just after the transaction is expired
+            wait = Math.min(wait, expiry - currentTime + 1);
+        }
+        return wait;
+    }
+
+    void addLockWaitNanos(long waitNanos) {
+        lockWaitNanos += waitNanos;
+    }
+
+    void recordRpcs(int count) {
+        rpcCount.addAndGet(count);
+    }
+
+    /**
+     * Record conflict of the phase on {@link HaeinsaMetrics} of the manager, and notify listener of the manager if any.
+     *
+     * @param tableName table of the conflict, null if unknown
+     * @param row row of the conflict, null if the conflict is not of single row
+     */
+    void recordConflict(HaeinsaPhase phase, @Nullable byte[] tableName, @Nullable byte[] row, ConflictException e) {
+        if (manager == null) {
+            return;
+        }
+        manager.getMetrics().recordConflict(phase, tableName, row, e);
+        HaeinsaTransactionListener listener = manager.getListener();
+        if (listener != null) {
+            listener.onConflict(this, phase, e);
+        }
+    }
+
+    /**
+     * @return number of RPCs sent by commit protocol of this transaction, including aborting itself.
+     */
+    int getRpcCount() {
+        return rpcCount.get();
+    }
+
+    @Nullable
+    HaeinsaTransactionProfile getProfile() {
+        return profile;
+    }
+
+    void setProfile(@Nullable HaeinsaTransactionProfile profile) {
+        this.profile = profile;
+    }
+
     public TRowKey getPrimary() {
         return primary;
     }
@@ -208,7 +318,8 @@ public class HaeinsaTransaction {
         // Merge all rows' mutations to make this transaction efficient.
         // Determine maxCurrentCommitTimestamp and maxIterationCount, from all participating rows of transaction.
         // It is used in determining prewriteTimestamp and commmitTimestamp of the transaction.
-        long maxCurrentCommitTimestamp = System.currentTimeMillis();
+        TimestampOracle timestampOracle = getManager().getTimestampOracle();
+        long maxCurrentCommitTimestamp = Long.MIN_VALUE;
         long maxIterationCount = Long.MIN_VALUE;
         for (Entry<byte[], HaeinsaTableTransaction> tableStateEntry : txStates.getTableStates().entrySet()) {
             for (Entry<byte[], HaeinsaRowTransaction> rowStateEntry : tableStateEntry.getValue().getRowStates().entrySet()) {
@@ -218,6 +329,9 @@ public class HaeinsaTransaction {
                 maxCurrentCommitTimestamp = Math.max(maxCurrentCommitTimestamp, rowState.getCurrent().getCommitTimestamp());
             }
         }
+        // Oracle which merges observed timestamps issues timestamp above commit timestamps of the rows.
+        timestampOracle.observe(maxCurrentCommitTimestamp);
+        maxCurrentCommitTimestamp = Math.max(maxCurrentCommitTimestamp, timestampOracle.next());
 
         // The prewriteTimestamp of the transaction should bigger than any other commitTimestamps of rows in the
         // transaction.
@@ -232,6 +346,8 @@ public class HaeinsaTransaction {
         // sequentially.
         // So, we have to determine commitTimestamp properly.
         setCommitTimestamp(Math.max(getPrewriteTimestamp() + 2, maxCurrentCommitTimestamp + maxIterationCount + 2));
+        // Timestamps up to commitTimestamp are used by this transaction.
+        timestampOracle.observe(getCommitTimestamp());
 
         extendExpiry();
 
@@ -247,29 +363,65 @@ public class HaeinsaTransaction {
         }
 
         // primaryRowKey can be null at this point, which means there is no rowStates at all.
-        // Than determineCommitMethod whill return NOTHING.
+        // Than determineCommitMethod whill return NOTHING, or READ_ONLY if there is compact read-set.
         setPrimary(primaryRowKey);
 
+        // rows in compact read-set which are accessed again should have same lock, check it before prewrite.
+        checkReadSetOfRowStates();
+
         CommitMethod method = txStates.determineCommitMethod();
-        switch (method) {
-        case READ_ONLY: {
-            commitReadOnly();
-            break;
-        }
-        case SINGLE_ROW_PUT_ONLY: {
-            commitSingleRowPutOnly();
-            break;
-        }
-        case MULTI_ROW_MUTATIONS: {
-            commitMultiRowsMutation();
-            break;
-        }
-        case NOTHING: {
-            break;
-        }
-        default: {
-            break;
-        }
+        HaeinsaTransactionListener listener = getManager().getListener();
+        if (listener != null) {
+            listener.onCommitMethod(this, method);
+        }
+        HaeinsaLocalRowLockTable localRowLocks = getManager().getLocalRowLocks();
+        boolean lockLocally = localRowLocks != null
+                && (method == CommitMethod.SINGLE_ROW_PUT_ONLY || method == CommitMethod.MULTI_ROW_MUTATIONS);
+        long startNanos = System.nanoTime();
+        Throwable failure = null;
+        try {
+            if (lockLocally) {
+                // fail fast or wait for other transaction of this process which is committing same rows.
+                // unlockAll() releases only rows locked by this transaction, so it is safe even if lockAll() failed.
+                localRowLocks.lockAll(this, mutationRowStates.keySet());
+            }
+            switch (method) {
+            case READ_ONLY: {
+                commitReadOnly();
+                break;
+            }
+            case SINGLE_ROW_PUT_ONLY: {
+                commitSingleRowPutOnly();
+                break;
+            }
+            case MULTI_ROW_MUTATIONS: {
+                commitMultiRowsMutation();
+                break;
+            }
+            case NOTHING: {
+                break;
+            }
+            default: {
+                break;
+            }
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (lockLocally) {
+                localRowLocks.unlockAll(this, mutationRowStates.keySet());
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            int rows = mutationRowStates.size() + readOnlyRowStates.size();
+            getManager().getMetrics().recordCommit(rows, getRpcCount(), elapsedNanos);
+            if (listener != null) {
+                listener.onCommit(this, elapsedNanos, failure);
+            }
+            if (profile != null) {
+                profile.getSlowTransactionLog().onCommit(this, profile, method, rows, txStates.getTableStates().size(),
+                        elapsedNanos, failure);
+            }
         }
     }
 
@@ -282,7 +434,7 @@ public class HaeinsaTransaction {
      */
     private void commitReadOnly() throws IOException {
         Preconditions.checkState(txStates.getMutationRowStates().size() == 0);
-        Preconditions.checkState(txStates.getReadOnlyRowStates().size() > 0);
+        Preconditions.checkState(txStates.getReadOnlyRowStates().size() > 0 || txStates.hasReadSet());
         HaeinsaTablePool tablePool = getManager().getTablePool();
 
         // check secondaries
@@ -299,7 +451,13 @@ public class HaeinsaTransaction {
             }
         }
 
+        checkReadSets();
+
         // check primary last
+        if (primary == null) {
+            // there are only rows of compact read-set.
+            return;
+        }
         HaeinsaTableTransaction primaryTableState = createOrGetTableState(primary.getTableName());
         HaeinsaRowTransaction primaryRowState = primaryTableState.createOrGetRowState(primary.getRow());
         try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(primary.getTableName())) {
@@ -308,6 +466,49 @@ public class HaeinsaTransaction {
         // do not need stable-phase
     }
 
+    /**
+     * Check rows in compact read-set which have {@link HaeinsaRowTransaction} because they are accessed again
+     * after scan. Lock of those rows should not be changed between scan and later access.
+     * Should be called before prewrite, because prewrite changes current lock of the rows.
+     *
+     * @throws ConflictException if lock of the row is changed.
+     */
+    private void checkReadSetOfRowStates() throws IOException {
+        for (Entry<byte[], HaeinsaTableTransaction> tableStateEntry : txStates.getTableStates().entrySet()) {
+            HaeinsaTableTransaction tableState = tableStateEntry.getValue();
+            if (!tableState.hasReadSet() || tableState.getRowStates().isEmpty()) {
+                continue;
+            }
+            HaeinsaReadSet readSet = tableState.getReadSet();
+            for (int i = 0; i < readSet.size(); i++) {
+                HaeinsaRowTransaction rowState = tableState.getRowStates().get(readSet.getRow(i));
+                if (rowState != null && !readSet.isValid(i, rowState.getCurrent())) {
+                    ConflictException e = new ConflictException("this row is modified after scan, checkReadSet failed");
+                    recordConflict(HaeinsaPhase.CHECK_READ_SET, tableStateEntry.getKey(), readSet.getRow(i), e);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Validate compact read-set of all tables in bulk with
+     * {@link HaeinsaTableIfaceInternal#checkReadSet(HaeinsaTableTransaction)}.
+     *
+     * @throws IOException ConflictException, HBase IOException
+     */
+    private void checkReadSets() throws IOException {
+        HaeinsaTablePool tablePool = getManager().getTablePool();
+        for (Entry<byte[], HaeinsaTableTransaction> tableStateEntry : txStates.getTableStates().entrySet()) {
+            if (!tableStateEntry.getValue().hasReadSet()) {
+                continue;
+            }
+            try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(tableStateEntry.getKey())) {
+                table.checkReadSet(tableStateEntry.getValue());
+            }
+        }
+    }
+
     /**
      * Commit single row & PUT only (possibly include get/scan, but not Delete)
      * Transaction.
@@ -340,32 +541,72 @@ public class HaeinsaTransaction {
             table.prewrite(primaryRowState, primary.getRow(), true);
         }
 
-        // prewrite secondaries (mutation rows)
-        for (Entry<TRowKey, HaeinsaRowTransaction> rowKeyStateEntry : txStates.getMutationRowStates().entrySet()) {
-            TRowKey key = rowKeyStateEntry.getKey();
-            HaeinsaRowTransaction rowTx = rowKeyStateEntry.getValue();
-            if (Bytes.equals(key.getTableName(), primary.getTableName())
-                    && Bytes.equals(key.getRow(), primary.getRow())) {
-                // if this is primaryRow
-                continue;
-            }
-            try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(key.getTableName())) {
-                table.prewrite(rowTx, key.getRow(), false);
-            }
+        // renew lease of primary lock until secondaries are prewritten and checked.
+        HaeinsaLockLeaseRenewer lockLeaseRenewer = getManager().getLockLeaseRenewer();
+        HaeinsaLockLeaseRenewer.Lease lease = null;
+        if (lockLeaseRenewer != null) {
+            lease = lockLeaseRenewer.start(this, primaryRowState);
         }
-
-        // check locking of secondaries by get (read-only rows)
-        for (Entry<TRowKey, HaeinsaRowTransaction> rowKeyStateEntry : txStates.getReadOnlyRowStates().entrySet()) {
-            TRowKey rowKey = rowKeyStateEntry.getKey();
-            HaeinsaRowTransaction rowTx = rowKeyStateEntry.getValue();
-            try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(rowKey.getTableName())) {
-                table.checkSingleRowLock(rowTx, rowKey.getRow());
+        ConflictException conflict = null;
+        try {
+            prewriteAndCheckSecondaries();
+        } catch (ConflictException e) {
+            conflict = e;
+        } finally {
+            if (lease != null) {
+                lease.close();
             }
         }
+        if (conflict != null) {
+            // abort once after operations on all secondary rows are finished,
+            // so that no row is prewritten by this transaction after it is aborted.
+            abortIfPrewritten();
+            throw conflict;
+        }
 
         makeStable();
     }
 
+    /**
+     * Abort this transaction if its primary row is still locked by this transaction,
+     * after prewrite or validation of secondary rows is failed.
+     * State of the transaction is reloaded from HBase, because rows might be prewritten partially.
+     */
+    private void abortIfPrewritten() throws IOException {
+        HaeinsaTransaction currentTx = getManager().getTransaction(primary.getTableName(), primary.getRow());
+        // Consider as same transaction if commitTimestamp of two transaction is same.
+        if (currentTx != null && HaeinsaTransactions.hasSameCommitTimestamp(this, currentTx)) {
+            currentTx.recover(true);
+        }
+    }
+
+    /**
+     * Prewrite secondary mutation rows and check locks of read-only rows and compact read-sets,
+     * after primary row is prewritten.
+     *
+     * @throws IOException ConflictException, HBase IOException
+     */
+    private void prewriteAndCheckSecondaries() throws IOException {
+        // prewrite secondaries (mutation rows) and check locking of secondaries by get (read-only rows),
+        // grouped by region server.
+        HaeinsaCommitScheduler scheduler = getManager().getCommitScheduler();
+        scheduler.execute(getSecondaryRowStates(txStates.getMutationRowStates()), new HaeinsaCommitScheduler.RowOperation() {
+            @Override
+            public void apply(HaeinsaTableIfaceInternal table, TRowKey rowKey, HaeinsaRowTransaction rowState) throws IOException {
+                table.prewrite(rowState, rowKey.getRow(), false);
+            }
+        });
+        scheduler.execute(txStates.getReadOnlyRowStates(), new HaeinsaCommitScheduler.RowOperation() {
+            @Override
+            public void apply(HaeinsaTableIfaceInternal table, TRowKey rowKey, HaeinsaRowTransaction rowState) throws IOException {
+                table.checkSingleRowLock(rowState, rowKey.getRow());
+            }
+        });
+
+        // check locking of rows in compact read-set by scan
+        checkReadSets();
+    }
+
     /**
      * Change states of {@link TRowLock} of all mutation rows to {@link TRowLockState#STABLE}.
      * This can be called by following two cases.
@@ -392,21 +633,19 @@ public class HaeinsaTransaction {
         }
         // if transaction reached this state, the transaction is considered as success one.
         try {
-            // Change state of secondary rows to stable
-            for (Entry<TRowKey, HaeinsaRowTransaction> rowKeyStateEntry : txStates.getMutationRowStates().entrySet()) {
-                TRowKey rowKey = rowKeyStateEntry.getKey();
-                HaeinsaRowTransaction rowTx = rowKeyStateEntry.getValue();
-                try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(rowKey.getTableName())) {
-                    table.applyMutations(rowTx, rowKey.getRow());
-                    if (Bytes.equals(rowKey.getTableName(), primary.getTableName())
-                            && Bytes.equals(rowKey.getRow(), primary.getRow())) {
+            // Apply mutations of rows and change state of secondary rows to stable, grouped by region server.
+            getManager().getCommitScheduler().execute(txStates.getMutationRowStates(), new HaeinsaCommitScheduler.RowOperation() {
+                @Override
+                public void apply(HaeinsaTableIfaceInternal table, TRowKey rowKey, HaeinsaRowTransaction rowState) throws IOException {
+                    table.applyMutations(rowState, rowKey.getRow());
+                    if (isPrimary(rowKey)) {
                         // in case of primary row
-                        continue;
+                        return;
                     }
                     // make secondary rows from prewritten to stable
-                    table.makeStable(rowTx, rowKey.getRow());
+                    table.makeStable(rowState, rowKey.getRow());
                 }
-            }
+            });
 
             // make primary row stable
             try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(primary.getTableName())) {
@@ -418,6 +657,23 @@ public class HaeinsaTransaction {
         }
     }
 
+    private boolean isPrimary(TRowKey rowKey) {
+        return Bytes.equals(rowKey.getTableName(), primary.getTableName())
+                && Bytes.equals(rowKey.getRow(), primary.getRow());
+    }
+
+    /**
+     * @return view of rowStates which excludes primary row.
+     */
+    private Map<TRowKey, HaeinsaRowTransaction> getSecondaryRowStates(Map<TRowKey, HaeinsaRowTransaction> rowStates) {
+        return Maps.filterKeys(rowStates, new Predicate<TRowKey>() {
+            @Override
+            public boolean apply(TRowKey rowKey) {
+                return !isPrimary(rowKey);
+            }
+        });
+    }
+
     /**
      * Reload information of failed transaction and complete it by calling {@link #makeStable()}
      * if already completed one, ( when primaryRow have {@link TRowLockState#COMMITTED} state }
@@ -435,7 +691,7 @@ public class HaeinsaTransaction {
                 // if transaction is not expired, process recover
             } else {
                 // if transaction haven't past expiry, recover should be failed.
-                throw new ConflictException();
+                throw new NotExpiredYetException("primary row is prewritten and not expired yet.", primaryRowTx.getCurrent().getExpiry());
             }
         }
 
@@ -599,9 +855,29 @@ public class HaeinsaTransaction {
                     }
                 }
             }
+            if (hasReadSet()) {
+                // rows in compact read-set should be validated between prewrite and commit of primary.
+                if (method == CommitMethod.NOTHING) {
+                    return CommitMethod.READ_ONLY;
+                } else if (method == CommitMethod.SINGLE_ROW_PUT_ONLY) {
+                    return CommitMethod.MULTI_ROW_MUTATIONS;
+                }
+            }
             return method;
         }
 
+        /**
+         * @return true if any table has rows in compact read-set.
+         */
+        public boolean hasReadSet() {
+            for (HaeinsaTableTransaction tableState : tableStates.values()) {
+                if (tableState.hasReadSet()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         /**
          * Return mutation rows which is hash-sorted by TRowKey(table, row).
          */
@@ -670,7 +946,8 @@ public class HaeinsaTransaction {
      * Get guava murmur3_32bit hash value of (byte[] table, byte[] row), and
      * compare those two to order {@link TRowKey}
      */
-    private static class HashComparator implements Comparator<TRowKey> {
+    @VisibleForTesting
+    static class HashComparator implements Comparator<TRowKey> {
         private static HashFunction HASH = Hashing.murmur3_32();
         private static Comparator<TRowKey> BASIC_COMP = new BasicComparator();
 
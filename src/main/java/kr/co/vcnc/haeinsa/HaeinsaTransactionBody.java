@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+
+/**
+ * Body of transaction executed by {@link HaeinsaTransactionManager#execute(HaeinsaTransactionBody)}.
+ * <p>
+ * Body can be executed several times on conflict, each time with new {@link HaeinsaTransaction},
+ * so it should not have side effects except operations on the transaction.
+ *
+ * @param <T> type of result of the body
+ */
+public interface HaeinsaTransactionBody<T> {
+
+    /**
+     * Execute operations of the transaction. Transaction is committed by caller after this method returns,
+     * so body should not commit or rollback the transaction.
+     *
+     * @param tx transaction of current attempt
+     * @return result of the body, which is returned by execute when commit succeeds.
+     * @throws IOException {@link kr.co.vcnc.haeinsa.exception.ConflictException} makes the body retried.
+     */
+    T execute(HaeinsaTransaction tx) throws IOException;
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import javax.annotation.Nullable;
+
+import kr.co.vcnc.haeinsa.HaeinsaTransaction.CommitMethod;
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+
+/**
+ * Listener of transactions which is registered by {@link HaeinsaTransactionManager#addListener(HaeinsaTransactionListener)}.
+ * It can be used for tracing or debugging without changing code of transactions.
+ * Every callback does nothing by default, so implementation overrides only what it needs.
+ * <p>
+ * Callbacks are invoked synchronously on the thread which executes the operation,
+ * including threads of commit executor, so implementation should be thread-safe and return quickly.
+ * RuntimeException thrown by listener is logged and does not affect the transaction.
+ * If no listener is registered, transaction doesn't call or allocate anything for listeners.
+ */
+public abstract class HaeinsaTransactionListener {
+
+    /**
+     * Called when transaction is created by {@link HaeinsaTransactionManager#begin()}.
+     */
+    public void onBegin(HaeinsaTransaction tx) {
+    }
+
+    /**
+     * Called before transaction reads table by {@link HaeinsaGet}, {@link HaeinsaScan} or {@link HaeinsaIntraScan}.
+     */
+    public void onRead(HaeinsaTransaction tx, byte[] tableName, HaeinsaQuery query) {
+    }
+
+    /**
+     * Called before transaction buffers {@link HaeinsaPut} or {@link HaeinsaDelete} on table.
+     */
+    public void onWrite(HaeinsaTransaction tx, byte[] tableName, HaeinsaMutation mutation) {
+    }
+
+    /**
+     * Called after each RPC of read or commit protocol is finished, whether it succeeded or not.
+     *
+     * @param row row of the RPC, null if the RPC is not for single row such as {@link HaeinsaPhase#CHECK_READ_SET}
+     * @param elapsedNanos elapsed time of the RPC
+     */
+    public void onRpc(HaeinsaTransaction tx, HaeinsaPhase phase, byte[] tableName, @Nullable byte[] row, long elapsedNanos) {
+    }
+
+    /**
+     * Called when commit method of transaction is determined, before any RPC of commit is sent.
+     */
+    public void onCommitMethod(HaeinsaTransaction tx, CommitMethod method) {
+    }
+
+    /**
+     * Called when RPC of transaction failed by conflict with other transaction.
+     */
+    public void onConflict(HaeinsaTransaction tx, HaeinsaPhase phase, ConflictException e) {
+    }
+
+    /**
+     * Called after {@link HaeinsaTransaction#commit()} is finished.
+     *
+     * @param failure exception thrown by commit, null if commit succeeded
+     */
+    public void onCommit(HaeinsaTransaction tx, long elapsedNanos, @Nullable Throwable failure) {
+    }
+
+    /**
+     * Called after recovery of failed transaction whose primary row is given is finished.
+     * Concurrent recoveries of the same transaction which share a result are notified once.
+     *
+     * @param failure exception thrown by recovery, null if recovery succeeded
+     */
+    public void onRecover(TRowKey primary, long elapsedNanos, @Nullable Throwable failure) {
+    }
+}
@@ -15,18 +15,43 @@
  */
 package kr.co.vcnc.haeinsa;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
+import kr.co.vcnc.haeinsa.exception.ConflictException;
 import kr.co.vcnc.haeinsa.exception.DanglingRowLockException;
+import kr.co.vcnc.haeinsa.exception.NotExpiredYetException;
+import kr.co.vcnc.haeinsa.exception.RecoverableConflictException;
 import kr.co.vcnc.haeinsa.thrift.TRowLocks;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+import kr.co.vcnc.haeinsa.timestamp.HybridLogicalClock;
+import kr.co.vcnc.haeinsa.timestamp.SystemTimestampOracle;
+import kr.co.vcnc.haeinsa.timestamp.TimestampOracle;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Manager class of {@link HaeinsaTransaction}.
@@ -37,7 +62,20 @@ import com.google.common.base.Objects;
  * which can be used to clear it up or complete it.
  */
 public class HaeinsaTransactionManager {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HaeinsaTransactionManager.class);
     private final HaeinsaTablePool tablePool;
+    private final HaeinsaCommitScheduler commitScheduler;
+    @Nullable
+    private final HaeinsaLocalRowLockTable localRowLocks;
+    @Nullable
+    private final HaeinsaLockLeaseRenewer lockLeaseRenewer;
+    private final TimestampOracle timestampOracle;
+    private final HaeinsaRetryMetrics retryMetrics = new HaeinsaRetryMetrics();
+    private final HaeinsaMetrics metrics = new HaeinsaMetrics();
+    private final HaeinsaRecoveryCoordinator recoveryCoordinator = new HaeinsaRecoveryCoordinator();
+    // null if there is no listener, so transactions don't pay for listeners unless registered.
+    private volatile CompositeHaeinsaTransactionListener listener;
+    private volatile HaeinsaSlowTransactionLog slowTransactionLog;
 
     /**
      * Constructor for TransactionManager
@@ -45,7 +83,87 @@ public class HaeinsaTransactionManager {
      * @param tablePool HaeinsaTablePool to access HBase.
      */
     public HaeinsaTransactionManager(HaeinsaTablePool tablePool) {
-        this.tablePool = tablePool;
+        this(builder(tablePool));
+    }
+
+    private HaeinsaTransactionManager(Builder builder) {
+        this.tablePool = builder.tablePool;
+        this.localRowLocks = builder.localRowLocks;
+        this.lockLeaseRenewer = builder.lockLeaseRenewer;
+        this.timestampOracle = builder.timestampOracle != null ? builder.timestampOracle : new SystemTimestampOracle();
+        this.commitScheduler = new HaeinsaCommitScheduler(tablePool, builder.commitExecutor);
+    }
+
+    /**
+     * Create builder of TransactionManager which uses optional components.
+     *
+     * @param tablePool HaeinsaTablePool to access HBase.
+     */
+    public static Builder builder(HaeinsaTablePool tablePool) {
+        return new Builder(tablePool);
+    }
+
+    /**
+     * Builder of {@link HaeinsaTransactionManager}. Every component is optional and not used by default.
+     */
+    public static final class Builder {
+        private final HaeinsaTablePool tablePool;
+        private ExecutorService commitExecutor;
+        private HaeinsaLocalRowLockTable localRowLocks;
+        private HaeinsaLockLeaseRenewer lockLeaseRenewer;
+        private TimestampOracle timestampOracle;
+
+        private Builder(HaeinsaTablePool tablePool) {
+            this.tablePool = Preconditions.checkNotNull(tablePool);
+        }
+
+        /**
+         * Commit rows on different region servers concurrently.
+         * Operations on rows of the same region server are still executed sequentially.
+         *
+         * @param commitExecutor executor to send operations of each region server during commit and recovery,
+         * or null to send them sequentially on the thread which commits the transaction.
+         */
+        public Builder setCommitExecutor(@Nullable ExecutorService commitExecutor) {
+            this.commitExecutor = commitExecutor;
+            return this;
+        }
+
+        /**
+         * Detect transactions of this process committing same row with {@link HaeinsaLocalRowLockTable}
+         * before accessing HBase.
+         *
+         * @param localRowLocks in-process lock table of mutation rows, or null not to use it.
+         */
+        public Builder setLocalRowLocks(@Nullable HaeinsaLocalRowLockTable localRowLocks) {
+            this.localRowLocks = localRowLocks;
+            return this;
+        }
+
+        /**
+         * Renew lease of primary lock during commit with {@link HaeinsaLockLeaseRenewer}.
+         *
+         * @param lockLeaseRenewer renewer of primary lock, or null not to renew lock during commit.
+         */
+        public Builder setLockLeaseRenewer(@Nullable HaeinsaLockLeaseRenewer lockLeaseRenewer) {
+            this.lockLeaseRenewer = lockLeaseRenewer;
+            return this;
+        }
+
+        /**
+         * Take base of prewrite and commit timestamps from {@link TimestampOracle} instead of local clock.
+         *
+         * @param timestampOracle source of timestamps, or null to use local clock.
+         * Use {@link HybridLogicalClock} to merge commit timestamps of rows with local clock.
+         */
+        public Builder setTimestampOracle(@Nullable TimestampOracle timestampOracle) {
+            this.timestampOracle = timestampOracle;
+            return this;
+        }
+
+        public HaeinsaTransactionManager build() {
+            return new HaeinsaTransactionManager(this);
+        }
     }
 
     /**
@@ -57,7 +175,206 @@ public class HaeinsaTransactionManager {
      * @return new Transaction instance have reference to this manager instance.
      */
     public HaeinsaTransaction begin() {
-        return new HaeinsaTransaction(this);
+        HaeinsaTransaction tx = new HaeinsaTransaction(this);
+        HaeinsaSlowTransactionLog slowTransactionLog = this.slowTransactionLog;
+        if (slowTransactionLog != null && slowTransactionLog.sample()) {
+            tx.setProfile(new HaeinsaTransactionProfile(slowTransactionLog));
+        }
+        HaeinsaTransactionListener listener = this.listener;
+        if (listener != null) {
+            listener.onBegin(tx);
+        }
+        return tx;
+    }
+
+    /**
+     * Register listener which is notified of transactions of this manager from now on.
+     * <p>
+     * This method is thread-safe.
+     */
+    public synchronized void addListener(HaeinsaTransactionListener listener) {
+        Preconditions.checkNotNull(listener);
+        List<HaeinsaTransactionListener> listeners = Lists.newArrayList();
+        if (this.listener != null) {
+            listeners.addAll(this.listener.getListeners());
+        }
+        listeners.add(listener);
+        this.listener = new CompositeHaeinsaTransactionListener(listeners);
+    }
+
+    /**
+     * Unregister listener which is registered by {@link #addListener(HaeinsaTransactionListener)}.
+     * <p>
+     * This method is thread-safe.
+     *
+     * @return true if the listener was registered
+     */
+    public synchronized boolean removeListener(HaeinsaTransactionListener listener) {
+        if (this.listener == null) {
+            return false;
+        }
+        List<HaeinsaTransactionListener> listeners = Lists.newArrayList(this.listener.getListeners());
+        boolean removed = listeners.remove(listener);
+        this.listener = listeners.isEmpty() ? null : new CompositeHaeinsaTransactionListener(listeners);
+        return removed;
+    }
+
+    /**
+     * Log transactions of this manager which are begun from now on and commit slowly.
+     *
+     * @param slowTransactionLog logger of slow transactions, or null to disable it
+     */
+    public void setSlowTransactionLog(@Nullable HaeinsaSlowTransactionLog slowTransactionLog) {
+        this.slowTransactionLog = slowTransactionLog;
+    }
+
+    /**
+     * @return listener which notifies all registered listeners, null if there is no listener.
+     */
+    @Nullable
+    HaeinsaTransactionListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Execute body in new transaction and commit it, retrying with default {@link HaeinsaRetryPolicy} on conflict.
+     * See {@link #execute(HaeinsaTransactionBody, HaeinsaRetryPolicy)}.
+     */
+    public <T> T execute(HaeinsaTransactionBody<T> body) throws IOException {
+        return execute(body, new HaeinsaRetryPolicy());
+    }
+
+    /**
+     * Execute body in new transaction and commit it. If body or commit fails with {@link ConflictException},
+     * whole transaction is executed again with new {@link HaeinsaTransaction} after backoff of the policy.
+     * <ul>
+     * <li>{@link NotExpiredYetException} is retried after maximum backoff,
+     * because lock of other transaction which is still alive can't be recovered soon.</li>
+     * <li>{@link RecoverableConflictException} thrown by commit is not retried and treated as success,
+     * because primary row is committed already and the rows will be stabilized by next access.</li>
+     * <li>{@link DanglingRowLockException} and other exceptions are not retried.</li>
+     * </ul>
+     * This method is thread-safe.
+     *
+     * @param body body of the transaction
+     * @param policy retry policy
+     * @return result of the body in the attempt which is committed successfully.
+     * @throws IOException last ConflictException if retries are exhausted, or exception which is not retried.
+     */
+    public <T> T execute(HaeinsaTransactionBody<T> body, HaeinsaRetryPolicy policy) throws IOException {
+        retryMetrics.recordExecution();
+        long startTime = System.currentTimeMillis();
+        for (int attempt = 1;; attempt++) {
+            retryMetrics.recordAttempt();
+            HaeinsaTransaction tx = begin();
+            if (tx.getProfile() != null) {
+                tx.getProfile().setAttempt(attempt);
+            }
+            // deadline of the attempt is tracked apart from timeout of the transaction,
+            // so that expiry of locks written by the attempt is not shortened by the policy.
+            long deadline = policy.getAttemptTimeoutMillis() > 0
+                    ? System.currentTimeMillis() + policy.getAttemptTimeoutMillis() : tx.getExpiry();
+            boolean committing = false;
+            T result = null;
+            ConflictException conflict;
+            try {
+                result = body.execute(tx);
+                if (System.currentTimeMillis() > deadline) {
+                    throw new ConflictException("deadline of the attempt is exceeded before commit.");
+                }
+                committing = true;
+                tx.commit();
+                return result;
+            } catch (RecoverableConflictException e) {
+                if (committing) {
+                    LOGGER.warn(e.getMessage(), e);
+                    return result;
+                }
+                conflict = e;
+            } catch (DanglingRowLockException e) {
+                retryMetrics.recordFailure();
+                throw e;
+            } catch (ConflictException e) {
+                conflict = e;
+            } catch (IOException | RuntimeException | Error e) {
+                retryMetrics.recordFailure();
+                throw e;
+            } finally {
+                if (!committing) {
+                    tx.rollback();
+                }
+            }
+
+            long backoff = conflict instanceof NotExpiredYetException
+                    ? policy.getMaxBackoffMillisWithJitter() : policy.getBackoffMillis(attempt);
+            boolean budgetSpent = policy.getRetryBudgetMillis() > 0
+                    && System.currentTimeMillis() + backoff - startTime > policy.getRetryBudgetMillis();
+            if (attempt >= policy.getMaxAttempts() || budgetSpent) {
+                retryMetrics.recordFailure();
+                throw conflict;
+            }
+            LOGGER.debug("Retry transaction after {} ms, attempt: {}, cause: {}", new Object[] { backoff, attempt, conflict.getMessage() });
+            retryMetrics.recordRetry(backoff);
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                retryMetrics.recordFailure();
+                throw new InterruptedIOException("interrupted during backoff of transaction retry.");
+            }
+        }
+    }
+
+    /**
+     * Warm up table pool of this manager by {@link HaeinsaTablePool#warmUp()}, and record elapsed time on metrics.
+     *
+     * @return elapsed time of warm-up in milliseconds
+     */
+    public long warmUp() throws IOException {
+        long elapsedTime = tablePool.warmUp();
+        metrics.recordWarmUp(elapsedTime);
+        return elapsedTime;
+    }
+
+    /**
+     * @return latencies of phases, conflicts and recoveries of transactions of this manager.
+     */
+    public HaeinsaMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Report metrics of this manager periodically on a background thread.
+     *
+     * @return handle which stops reporting when closed
+     */
+    public Closeable startMetricsReporter(final HaeinsaMetricsReporter reporter, long period, TimeUnit unit) {
+        Preconditions.checkNotNull(reporter);
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("haeinsa-metrics-reporter").setDaemon(true).build());
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reporter.report(metrics);
+                } catch (RuntimeException e) {
+                    LOGGER.warn(e.getMessage(), e);
+                }
+            }
+        }, period, period, unit);
+        return new Closeable() {
+            @Override
+            public void close() {
+                scheduler.shutdown();
+            }
+        };
+    }
+
+    /**
+     * @return counters of transactions executed by {@link #execute(HaeinsaTransactionBody, HaeinsaRetryPolicy)}.
+     */
+    public HaeinsaRetryMetrics getRetryMetrics() {
+        return retryMetrics;
     }
 
     /**
@@ -80,7 +397,67 @@ public class HaeinsaTransactionManager {
             // There is no on-going transaction on the row.
             return null;
         }
+        return getTransaction(tableName, row, unstableRowLock);
+    }
+
+    /**
+     * Recover failed transaction which locks the row by {@link HaeinsaTransaction#recover(boolean)}, if any.
+     * Concurrent recoveries of the same transaction in this process are executed only once,
+     * and the others share its result by {@link HaeinsaRecoveryCoordinator}.
+     * <p>
+     * This method is thread-safe.
+     *
+     * @param tableName TableName of Transaction to recover.
+     * @param row Row of Transaction to recover.
+     * @throws IOException ConflictException, HBase IOException
+     */
+    void recover(final byte[] tableName, final byte[] row) throws IOException {
+        final TRowLock unstableRowLock = getUnstableRowLock(tableName, row);
+        if (unstableRowLock == null) {
+            // There is no on-going transaction on the row.
+            return;
+        }
+        final TRowKey primaryRowKey = TRowLocks.isPrimary(unstableRowLock)
+                ? new TRowKey(ByteBuffer.wrap(tableName), ByteBuffer.wrap(row)) : unstableRowLock.getPrimary();
+        recoveryCoordinator.recover(primaryRowKey, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                long startNanos = System.nanoTime();
+                Throwable failure = null;
+                try {
+                    HaeinsaTransaction previousTx = getTransaction(tableName, row, unstableRowLock);
+                    if (previousTx != null) {
+                        previousTx.recover(false);
+                    }
+                } catch (ConflictException e) {
+                    metrics.recordConflict(HaeinsaPhase.RECOVER, primaryRowKey.getTableName(), primaryRowKey.getRow(), e);
+                    failure = e;
+                    throw e;
+                } catch (IOException | RuntimeException | Error e) {
+                    failure = e;
+                    throw e;
+                } finally {
+                    long elapsedNanos = System.nanoTime() - startNanos;
+                    metrics.recordPhase(HaeinsaPhase.RECOVER, elapsedNanos);
+                    HaeinsaTransactionListener listener = HaeinsaTransactionManager.this.listener;
+                    if (listener != null) {
+                        listener.onRecover(primaryRowKey, elapsedNanos, failure);
+                    }
+                }
+                return null;
+            }
+        });
+    }
 
+    /**
+     * @return number of recoveries which shared result of concurrent recovery of the same transaction.
+     */
+    public long getSharedRecoveryCount() {
+        return recoveryCoordinator.getSharedCount();
+    }
+
+    @Nullable
+    private HaeinsaTransaction getTransaction(byte[] tableName, byte[] row, TRowLock unstableRowLock) throws IOException {
         TRowLock primaryRowLock = null;
         TRowKey primaryRowKey = null;
         if (TRowLocks.isPrimary(unstableRowLock)) {
@@ -149,26 +526,76 @@ public class HaeinsaTransactionManager {
      */
     private void checkDanglingRowLockOrThrow(byte[] tableName, byte[] row, TRowLock rowLock) throws IOException {
         TRowLock previousRowLock = rowLock;
-        TRowLock currentRowLock = getRowLock(tableName, row);
+        if (TRowLocks.isPrimary(previousRowLock)) {
+            // primary RowLock can't be dangling.
+            return;
+        }
+        // read the row and its primary together.
+        TRowKey secondaryRowKey = new TRowKey().setTableName(tableName).setRow(row);
+        TRowKey primaryRowKey = previousRowLock.getPrimary();
+        List<TRowLock> rowLocks = getRowLocks(Lists.newArrayList(secondaryRowKey, primaryRowKey));
+        TRowLock currentRowLock = rowLocks.get(0);
+        TRowLock primaryRowLock = rowLocks.get(1);
 
         // It is not a dangling RowLock if RowLock is changed.
         if (Objects.equal(previousRowLock, currentRowLock)) {
-            if (!TRowLocks.isPrimary(currentRowLock)) {
-                TRowKey primaryRowKey = currentRowLock.getPrimary();
-                TRowLock primaryRowLock = getRowLock(primaryRowKey.getTableName(), primaryRowKey.getRow());
+            if (!TRowLocks.isSecondaryOf(primaryRowKey, primaryRowLock, secondaryRowKey, currentRowLock)) {
+                throw new DanglingRowLockException(secondaryRowKey, "Primary lock doesn't have rowLock as secondary.");
+            }
+        }
+    }
 
-                TRowKey secondaryRowKey = new TRowKey().setTableName(tableName).setRow(row);
-                if (!TRowLocks.isSecondaryOf(primaryRowKey, primaryRowLock, secondaryRowKey, currentRowLock)) {
-                    throw new DanglingRowLockException(secondaryRowKey, "Primary lock doesn't have rowLock as secondary.");
-                }
+    /**
+     * Get {@link TRowLock}s of given rows. Rows of each table are read by single multi-get,
+     * and tables are read concurrently by {@link HaeinsaCommitScheduler#executeAll(List)}.
+     *
+     * @param rowKeys rows to read
+     * @return RowLocks in the same order with given rows
+     * @throws IOException When error occurs in HBase.
+     */
+    private List<TRowLock> getRowLocks(final List<TRowKey> rowKeys) throws IOException {
+        // { tableName -> indices of rows in rowKeys }, ordered by first appearance
+        Map<String, List<Integer>> tableIndices = Maps.newLinkedHashMap();
+        for (int i = 0; i < rowKeys.size(); i++) {
+            String tableName = Bytes.toString(rowKeys.get(i).getTableName());
+            List<Integer> indices = tableIndices.get(tableName);
+            if (indices == null) {
+                indices = Lists.newArrayList();
+                tableIndices.put(tableName, indices);
             }
+            indices.add(i);
+        }
+
+        final TRowLock[] rowLocks = new TRowLock[rowKeys.size()];
+        List<Callable<Void>> reads = Lists.newArrayListWithCapacity(tableIndices.size());
+        for (final Entry<String, List<Integer>> entry : tableIndices.entrySet()) {
+            reads.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    List<Integer> indices = entry.getValue();
+                    List<byte[]> rows = Lists.newArrayListWithCapacity(indices.size());
+                    for (int index : indices) {
+                        rows.add(rowKeys.get(index).getRow());
+                    }
+                    try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(entry.getKey())) {
+                        List<TRowLock> tableRowLocks = table.getRowLocks(rows);
+                        for (int i = 0; i < indices.size(); i++) {
+                            rowLocks[indices.get(i)] = tableRowLocks.get(i);
+                        }
+                    }
+                    return null;
+                }
+            });
         }
+        getCommitScheduler().executeAll(reads);
+        return Arrays.asList(rowLocks);
     }
 
     /**
      * Recover TRowLocks of failed HaeinsaTransaction from primary row on HBase.
      * Transaction information about secondary rows are recovered with
-     * {@link #addSecondaryRowLock(HaeinsaTransaction, TRowKey, TRowLock, TRowKey)}.
+     * {@link #addSecondaryRowLock(HaeinsaTransaction, TRowKey, TRowLock, TRowKey, TRowLock)},
+     * after locks of all secondary rows are read by {@link #getRowLocks(List)}.
      * HaeinsaTransaction made by this method do not assign proper values on mutations variable.
      */
     private HaeinsaTransaction getTransactionFromPrimary(TRowKey rowKey, TRowLock primaryRowLock) throws IOException {
@@ -179,8 +606,10 @@ public class HaeinsaTransactionManager {
         HaeinsaRowTransaction primaryRowTxState = primaryTableTxState.createOrGetRowState(rowKey.getRow());
         primaryRowTxState.setCurrent(primaryRowLock);
         if (primaryRowLock.getSecondariesSize() > 0) {
-            for (TRowKey secondaryRow : primaryRowLock.getSecondaries()) {
-                addSecondaryRowLock(transaction, rowKey, primaryRowLock, secondaryRow);
+            List<TRowKey> secondaryRows = primaryRowLock.getSecondaries();
+            List<TRowLock> secondaryRowLocks = getRowLocks(secondaryRows);
+            for (int i = 0; i < secondaryRows.size(); i++) {
+                addSecondaryRowLock(transaction, rowKey, primaryRowLock, secondaryRows.get(i), secondaryRowLocks.get(i));
             }
         }
         return transaction;
@@ -199,8 +628,7 @@ public class HaeinsaTransactionManager {
      * proper mutations variable.
      */
     private void addSecondaryRowLock(HaeinsaTransaction transaction, TRowKey primaryRowKey,
-                                     TRowLock primaryRowLock, TRowKey secondaryRowKey) throws IOException {
-        TRowLock secondaryRowLock = getRowLock(secondaryRowKey.getTableName(), secondaryRowKey.getRow());
+                                     TRowLock primaryRowLock, TRowKey secondaryRowKey, TRowLock secondaryRowLock) {
         if (secondaryRowLock.getCommitTimestamp() > transaction.getCommitTimestamp()) {
             // this row isn't a part of this transaction or already aborted.
             return;
@@ -224,4 +652,34 @@ public class HaeinsaTransactionManager {
     public HaeinsaTablePool getTablePool() {
         return tablePool;
     }
+
+    /**
+     * @return in-process lock table of mutation rows, or null if it is not used.
+     */
+    @Nullable
+    HaeinsaLocalRowLockTable getLocalRowLocks() {
+        return localRowLocks;
+    }
+
+    /**
+     * @return renewer of primary lock during commit, or null if lease is not renewed.
+     */
+    @Nullable
+    HaeinsaLockLeaseRenewer getLockLeaseRenewer() {
+        return lockLeaseRenewer;
+    }
+
+    /**
+     * @return source of base of prewrite and commit timestamps.
+     */
+    TimestampOracle getTimestampOracle() {
+        return timestampOracle;
+    }
+
+    /**
+     * @return scheduler of per-row operations during commit.
+     */
+    HaeinsaCommitScheduler getCommitScheduler() {
+        return commitScheduler;
+    }
 }
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time spent by a transaction in each {@link HaeinsaPhase} and in recoveries,
+ * which is collected only for transactions sampled by {@link HaeinsaSlowTransactionLog}.
+ * Phases are recorded by the same timing points as {@link HaeinsaMetrics},
+ * and can be recorded concurrently by threads of commit executor.
+ */
+final class HaeinsaTransactionProfile {
+    private final HaeinsaSlowTransactionLog slowTransactionLog;
+    private final AtomicLongArray phaseCounts = new AtomicLongArray(HaeinsaPhase.values().length);
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(HaeinsaPhase.values().length);
+    private final AtomicInteger recoveryCount = new AtomicInteger();
+    private final AtomicLong recoveryNanos = new AtomicLong();
+    // attempt of HaeinsaTransactionManager#execute, 1 if transaction is not retried.
+    private volatile int attempt = 1;
+
+    HaeinsaTransactionProfile(HaeinsaSlowTransactionLog slowTransactionLog) {
+        this.slowTransactionLog = slowTransactionLog;
+    }
+
+    HaeinsaSlowTransactionLog getSlowTransactionLog() {
+        return slowTransactionLog;
+    }
+
+    void recordPhase(HaeinsaPhase phase, long elapsedNanos) {
+        phaseCounts.incrementAndGet(phase.ordinal());
+        phaseNanos.addAndGet(phase.ordinal(), elapsedNanos);
+    }
+
+    void recordRecovery(long elapsedNanos) {
+        recoveryCount.incrementAndGet();
+        recoveryNanos.addAndGet(elapsedNanos);
+    }
+
+    void setAttempt(int attempt) {
+        this.attempt = attempt;
+    }
+
+    long getPhaseCount(HaeinsaPhase phase) {
+        return phaseCounts.get(phase.ordinal());
+    }
+
+    long getPhaseNanos(HaeinsaPhase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+
+    int getRecoveryCount() {
+        return recoveryCount.get();
+    }
+
+    long getRecoveryNanos() {
+        return recoveryNanos.get();
+    }
+
+    int getAttempt() {
+        return attempt;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Hash key of a row. {@link TRowKey} is not used directly as hash key,
+ * because it contains ByteBuffers whose hashCode depends on their position.
+ */
+final class HashedRowKey {
+    private final byte[] tableName;
+    private final byte[] row;
+    private final int hash;
+
+    public HashedRowKey(TRowKey rowKey) {
+        this(rowKey.getTableName(), rowKey.getRow());
+    }
+
+    public HashedRowKey(byte[] tableName, byte[] row) {
+        this.tableName = tableName;
+        this.row = row;
+        this.hash = 31 * Bytes.hashCode(tableName) + Bytes.hashCode(row);
+    }
+
+    public byte[] getTableName() {
+        return tableName;
+    }
+
+    public byte[] getRow() {
+        return row;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof HashedRowKey)) {
+            return false;
+        }
+        HashedRowKey other = (HashedRowKey) obj;
+        return Bytes.equals(tableName, other.tableName) && Bytes.equals(row, other.row);
+    }
+
+    @Override
+    public String toString() {
+        return Bytes.toString(tableName) + ":" + Bytes.toStringBinary(row);
+    }
+}
@@ -0,0 +1,428 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Table which measures phases of transaction on {@link HaeinsaMetrics} of the manager of each transaction,
+ * and notifies {@link HaeinsaTransactionListener} of the manager if any.
+ * {@link HaeinsaTablePool} wraps every table created by its factory once, so measuring costs
+ * only reading clock and updating atomic counters for each RPC.
+ */
+final class InstrumentedHaeinsaTable extends ForwardingHaeinsaTable {
+
+    InstrumentedHaeinsaTable(HaeinsaTableIfaceInternal table) {
+        super(table);
+    }
+
+    @Override
+    public HaeinsaResult get(@Nullable HaeinsaTransaction tx, HaeinsaGet get) throws IOException {
+        HaeinsaTransactionListener listener = getListener(tx);
+        if (listener != null) {
+            listener.onRead(tx, getTableName(), get);
+        }
+        long startNanos = System.nanoTime();
+        try {
+            return delegate().get(tx, get);
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.GET, get.getRow(), e);
+            throw e;
+        } finally {
+            recordPhase(tx, HaeinsaPhase.GET, get.getRow(), startNanos);
+        }
+    }
+
+    @Override
+    public HaeinsaResultScanner getScanner(@Nullable HaeinsaTransaction tx, byte[] family) throws IOException {
+        HaeinsaTransactionListener listener = getListener(tx);
+        if (listener != null) {
+            HaeinsaScan scan = new HaeinsaScan();
+            scan.addFamily(family);
+            listener.onRead(tx, getTableName(), scan);
+        }
+        try {
+            return instrument(tx, delegate().getScanner(tx, family));
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.SCAN, null, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public HaeinsaResultScanner getScanner(@Nullable HaeinsaTransaction tx, byte[] family, byte[] qualifier) throws IOException {
+        HaeinsaTransactionListener listener = getListener(tx);
+        if (listener != null) {
+            HaeinsaScan scan = new HaeinsaScan();
+            scan.addColumn(family, qualifier);
+            listener.onRead(tx, getTableName(), scan);
+        }
+        try {
+            return instrument(tx, delegate().getScanner(tx, family, qualifier));
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.SCAN, null, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public HaeinsaResultScanner getScanner(@Nullable HaeinsaTransaction tx, HaeinsaScan scan) throws IOException {
+        HaeinsaTransactionListener listener = getListener(tx);
+        if (listener != null) {
+            listener.onRead(tx, getTableName(), scan);
+        }
+        try {
+            return instrument(tx, delegate().getScanner(tx, scan));
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.SCAN, null, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public HaeinsaResultScanner getScanner(@Nullable HaeinsaTransaction tx, HaeinsaIntraScan intraScan) throws IOException {
+        HaeinsaTransactionListener listener = getListener(tx);
+        if (listener != null) {
+            listener.onRead(tx, getTableName(), intraScan);
+        }
+        try {
+            return instrument(tx, delegate().getScanner(tx, intraScan));
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.SCAN, intraScan.getRow(), e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void scan(@Nullable HaeinsaTransaction tx, HaeinsaScan scan, HaeinsaRowVisitor visitor) throws IOException {
+        HaeinsaTransactionListener listener = getListener(tx);
+        if (listener != null) {
+            listener.onRead(tx, getTableName(), scan);
+        }
+        try {
+            delegate().scan(tx, scan, visitor);
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.SCAN, null, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void put(HaeinsaTransaction tx, HaeinsaPut put) throws IOException {
+        HaeinsaTransactionListener listener = getListener(tx);
+        if (listener != null) {
+            listener.onWrite(tx, getTableName(), put);
+        }
+        try {
+            delegate().put(tx, put);
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.PUT, put.getRow(), e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void put(HaeinsaTransaction tx, List<HaeinsaPut> puts) throws IOException {
+        HaeinsaTransactionListener listener = getListener(tx);
+        if (listener != null) {
+            for (HaeinsaPut put : puts) {
+                listener.onWrite(tx, getTableName(), put);
+            }
+        }
+        // put one by one as HaeinsaTable does, to know row of the conflict.
+        for (HaeinsaPut put : puts) {
+            try {
+                delegate().put(tx, put);
+            } catch (ConflictException e) {
+                recordConflict(tx, HaeinsaPhase.PUT, put.getRow(), e);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void delete(HaeinsaTransaction tx, HaeinsaDelete delete) throws IOException {
+        HaeinsaTransactionListener listener = getListener(tx);
+        if (listener != null) {
+            listener.onWrite(tx, getTableName(), delete);
+        }
+        try {
+            delegate().delete(tx, delete);
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.DELETE, delete.getRow(), e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void delete(HaeinsaTransaction tx, List<HaeinsaDelete> deletes) throws IOException {
+        HaeinsaTransactionListener listener = getListener(tx);
+        if (listener != null) {
+            for (HaeinsaDelete delete : deletes) {
+                listener.onWrite(tx, getTableName(), delete);
+            }
+        }
+        // delete one by one as HaeinsaTable does, to know row of the conflict.
+        for (HaeinsaDelete delete : deletes) {
+            try {
+                delegate().delete(tx, delete);
+            } catch (ConflictException e) {
+                recordConflict(tx, HaeinsaPhase.DELETE, delete.getRow(), e);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void commitSingleRowPutOnly(HaeinsaRowTransaction rowState, byte[] row) throws IOException {
+        HaeinsaTransaction tx = rowState.getTableTransaction().getTransaction();
+        long startNanos = System.nanoTime();
+        try {
+            delegate().commitSingleRowPutOnly(rowState, row);
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.COMMIT_SINGLE_ROW_PUT_ONLY, row, e);
+            throw e;
+        } finally {
+            recordPhase(tx, HaeinsaPhase.COMMIT_SINGLE_ROW_PUT_ONLY, row, startNanos);
+        }
+    }
+
+    @Override
+    public void checkSingleRowLock(HaeinsaRowTransaction rowState, byte[] row) throws IOException {
+        HaeinsaTransaction tx = rowState.getTableTransaction().getTransaction();
+        long startNanos = System.nanoTime();
+        try {
+            delegate().checkSingleRowLock(rowState, row);
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.CHECK_SINGLE_ROW_LOCK, row, e);
+            throw e;
+        } finally {
+            recordPhase(tx, HaeinsaPhase.CHECK_SINGLE_ROW_LOCK, row, startNanos);
+        }
+    }
+
+    @Override
+    public void prewrite(HaeinsaRowTransaction rowState, byte[] row, boolean isPrimary) throws IOException {
+        HaeinsaTransaction tx = rowState.getTableTransaction().getTransaction();
+        long startNanos = System.nanoTime();
+        try {
+            delegate().prewrite(rowState, row, isPrimary);
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.PREWRITE, row, e);
+            throw e;
+        } finally {
+            recordPhase(tx, HaeinsaPhase.PREWRITE, row, startNanos);
+        }
+    }
+
+    @Override
+    public void applyMutations(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
+        HaeinsaTransaction tx = rowTxState.getTableTransaction().getTransaction();
+        long startNanos = System.nanoTime();
+        try {
+            delegate().applyMutations(rowTxState, row);
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.APPLY_MUTATIONS, row, e);
+            throw e;
+        } finally {
+            recordPhase(tx, HaeinsaPhase.APPLY_MUTATIONS, row, startNanos);
+        }
+    }
+
+    @Override
+    public void makeStable(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
+        HaeinsaTransaction tx = rowTxState.getTableTransaction().getTransaction();
+        long startNanos = System.nanoTime();
+        try {
+            delegate().makeStable(rowTxState, row);
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.MAKE_STABLE, row, e);
+            throw e;
+        } finally {
+            recordPhase(tx, HaeinsaPhase.MAKE_STABLE, row, startNanos);
+        }
+    }
+
+    @Override
+    public void commitPrimary(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
+        HaeinsaTransaction tx = rowTxState.getTableTransaction().getTransaction();
+        long startNanos = System.nanoTime();
+        try {
+            delegate().commitPrimary(rowTxState, row);
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.COMMIT_PRIMARY, row, e);
+            throw e;
+        } finally {
+            recordPhase(tx, HaeinsaPhase.COMMIT_PRIMARY, row, startNanos);
+        }
+    }
+
+    @Override
+    public void renewLock(HaeinsaRowTransaction rowTxState, byte[] row, long expiry) throws IOException {
+        HaeinsaTransaction tx = rowTxState.getTableTransaction().getTransaction();
+        long startNanos = System.nanoTime();
+        try {
+            delegate().renewLock(rowTxState, row, expiry);
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.RENEW_LOCK, row, e);
+            throw e;
+        } finally {
+            recordPhase(tx, HaeinsaPhase.RENEW_LOCK, row, startNanos);
+        }
+    }
+
+    @Override
+    public void abortPrimary(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
+        HaeinsaTransaction tx = rowTxState.getTableTransaction().getTransaction();
+        long startNanos = System.nanoTime();
+        try {
+            delegate().abortPrimary(rowTxState, row);
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.ABORT_PRIMARY, row, e);
+            throw e;
+        } finally {
+            recordPhase(tx, HaeinsaPhase.ABORT_PRIMARY, row, startNanos);
+        }
+    }
+
+    @Override
+    public void deletePrewritten(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
+        HaeinsaTransaction tx = rowTxState.getTableTransaction().getTransaction();
+        long startNanos = System.nanoTime();
+        try {
+            delegate().deletePrewritten(rowTxState, row);
+        } catch (ConflictException e) {
+            recordConflict(tx, HaeinsaPhase.DELETE_PREWRITTEN, row, e);
+            throw e;
+        } finally {
+            recordPhase(tx, HaeinsaPhase.DELETE_PREWRITTEN, row, startNanos);
+        }
+    }
+
+    @Override
+    public void checkReadSet(HaeinsaTableTransaction tableState) throws IOException {
+        HaeinsaTransaction tx = tableState.getTransaction();
+        long startNanos = System.nanoTime();
+        try {
+            // conflict is recorded by HaeinsaTable with the row which is modified.
+            delegate().checkReadSet(tableState);
+        } finally {
+            recordPhase(tx, HaeinsaPhase.CHECK_READ_SET, null, startNanos);
+        }
+    }
+
+    private void recordPhase(@Nullable HaeinsaTransaction tx, HaeinsaPhase phase, @Nullable byte[] row, long startNanos) {
+        if (tx == null || tx.getManager() == null) {
+            return;
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        tx.getManager().getMetrics().recordPhase(phase, elapsedNanos);
+        HaeinsaTransactionProfile profile = tx.getProfile();
+        if (profile != null) {
+            profile.recordPhase(phase, elapsedNanos);
+        }
+        HaeinsaTransactionListener listener = tx.getManager().getListener();
+        if (listener != null) {
+            listener.onRpc(tx, phase, getTableName(), row, elapsedNanos);
+        }
+    }
+
+    private void recordConflict(@Nullable HaeinsaTransaction tx, HaeinsaPhase phase, @Nullable byte[] row, ConflictException e) {
+        if (tx == null) {
+            return;
+        }
+        tx.recordConflict(phase, getTableName(), row, e);
+    }
+
+    private HaeinsaResultScanner instrument(@Nullable HaeinsaTransaction tx, HaeinsaResultScanner scanner) {
+        if (tx == null || tx.getManager() == null) {
+            // scanner without transaction doesn't conflict.
+            return scanner;
+        }
+        return new InstrumentedResultScanner(tx, scanner);
+    }
+
+    @Nullable
+    private static HaeinsaTransactionListener getListener(@Nullable HaeinsaTransaction tx) {
+        if (tx == null || tx.getManager() == null) {
+            return null;
+        }
+        return tx.getManager().getListener();
+    }
+
+    /**
+     * Scanner which records conflicts on reading locks of rows during iteration.
+     * Row of the conflict is unknown, because the scanner recovers or waits for the row before returning it.
+     */
+    private final class InstrumentedResultScanner implements HaeinsaResultScanner {
+        private final HaeinsaTransaction tx;
+        private final HaeinsaResultScanner scanner;
+
+        InstrumentedResultScanner(HaeinsaTransaction tx, HaeinsaResultScanner scanner) {
+            this.tx = tx;
+            this.scanner = scanner;
+        }
+
+        @Override
+        public Iterator<HaeinsaResult> iterator() {
+            return new AbstractIterator<HaeinsaResult>() {
+                @Override
+                protected HaeinsaResult computeNext() {
+                    try {
+                        HaeinsaResult result = InstrumentedResultScanner.this.next();
+                        return result != null ? result : endOfData();
+                    } catch (IOException e) {
+                        // because Iterator cannot throw IOException, wrap it with RuntimeException.
+                        throw new IllegalStateException(e.getMessage(), e);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public HaeinsaResult next() throws IOException {
+            try {
+                return scanner.next();
+            } catch (ConflictException e) {
+                recordConflict(tx, HaeinsaPhase.SCAN, null, e);
+                throw e;
+            }
+        }
+
+        @Override
+        public HaeinsaResult[] next(int nbRows) throws IOException {
+            try {
+                return scanner.next(nbRows);
+            } catch (ConflictException e) {
+                recordConflict(tx, HaeinsaPhase.SCAN, null, e);
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            scanner.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.PoolMap;
+
+/**
+ * {@link HaeinsaTablePool} which keeps idle tables in per-table lock-free stacks instead of {@link PoolMap}.
+ * <p>
+ * Handle returned by {@link #getTable(String)} is created once for each table instance and reused
+ * whenever the table is borrowed again, so borrowing and returning table do not allocate proxy.
+ * Most recently returned table is borrowed first to keep the table warm.
+ * <p>
+ * Handle should not be used after {@link HaeinsaTableIface#close()} is called,
+ * because it can be borrowed by other thread. Calling close() more than once is ignored.
+ */
+public class LockFreeHaeinsaTablePool extends HaeinsaTablePool {
+    // { tableName -> idle tables }
+    private final ConcurrentMap<String, TableStack> stacks = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    /**
+     * Constructor to set maximum versions and use the specified configuration.
+     *
+     * @param config configuration
+     * @param maxSize maximum number of idle references to keep for each table
+     */
+    public LockFreeHaeinsaTablePool(final Configuration config, final int maxSize) {
+        this(config, maxSize, null);
+    }
+
+    /**
+     * Constructor to set maximum versions and use the specified configuration
+     * and table factory.
+     *
+     * @param config configuration
+     * @param maxSize maximum number of idle references to keep for each table
+     * @param tableFactory table factory
+     */
+    public LockFreeHaeinsaTablePool(final Configuration config, final int maxSize, final HaeinsaTableIfaceFactory tableFactory) {
+        super(config, maxSize, tableFactory);
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public HaeinsaTableIface getTable(String tableName) {
+        return borrowTable(tableName);
+    }
+
+    @Override
+    HaeinsaTableIfaceInternal getTableInternal(String tableName) {
+        return borrowTable(tableName);
+    }
+
+    private PooledTable borrowTable(String tableName) {
+        TableStack stack = getOrCreateStack(tableName);
+        PooledTable table = stack.pop();
+        if (table == null) {
+            table = new PooledTable(stack, createHTable(tableName));
+        }
+        table.borrowed.set(true);
+        return table;
+    }
+
+    private TableStack getOrCreateStack(String tableName) {
+        TableStack stack = stacks.get(tableName);
+        if (stack == null) {
+            TableStack newStack = new TableStack();
+            stack = stacks.putIfAbsent(tableName, newStack);
+            if (stack == null) {
+                stack = newStack;
+            }
+        }
+        return stack;
+    }
+
+    /**
+     * Puts the table back into its stack.
+     * If the stack already contains <i>maxSize</i> tables or the pool of the table is closed,
+     * the table instance gets released.
+     */
+    private void returnTable(PooledTable table) throws IOException {
+        TableStack stack = table.stack;
+        if (stack.closed || !stack.push(table)) {
+            release(table.delegate());
+            return;
+        }
+        if (stack.closed) {
+            // closeTablePool() is called concurrently, release tables pushed after closing.
+            stack.releaseAll();
+        }
+    }
+
+    @Override
+    public void closeTablePool(final String tableName) throws IOException {
+        TableStack stack = stacks.remove(tableName);
+        if (stack != null) {
+            stack.closed = true;
+            stack.releaseAll();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (String tableName : stacks.keySet()) {
+            closeTablePool(tableName);
+        }
+        super.close();
+    }
+
+    @Override
+    int getCurrentPoolSize(String tableName) {
+        TableStack stack = stacks.get(tableName);
+        return stack == null ? 0 : stack.size.get();
+    }
+
+    /**
+     * Lock-free LIFO stack of idle tables with bounded size.
+     */
+    private final class TableStack {
+        private final Deque<PooledTable> tables = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private volatile boolean closed;
+
+        public PooledTable pop() {
+            PooledTable table = tables.pollFirst();
+            if (table != null) {
+                size.decrementAndGet();
+            }
+            return table;
+        }
+
+        /**
+         * @return false if stack is full.
+         */
+        public boolean push(PooledTable table) {
+            if (size.incrementAndGet() > maxSize) {
+                size.decrementAndGet();
+                return false;
+            }
+            tables.offerFirst(table);
+            return true;
+        }
+
+        public void releaseAll() throws IOException {
+            PooledTable table;
+            while ((table = pop()) != null) {
+                release(table.delegate());
+            }
+        }
+    }
+
+    /**
+     * Reusable handle of pooled table. Returned to its stack when closed.
+     */
+    private final class PooledTable extends ForwardingHaeinsaTable {
+        private final TableStack stack;
+        private final AtomicBoolean borrowed = new AtomicBoolean();
+
+        public PooledTable(TableStack stack, HaeinsaTableIfaceInternal table) {
+            super(table);
+            this.stack = stack;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (borrowed.compareAndSet(true, false)) {
+                returnTable(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HConnectionManager;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * {@link HaeinsaTableIfaceFactory} which creates every {@link HaeinsaTable} on top of one shared
+ * {@link HConnection} and one shared, bounded {@link ExecutorService}.
+ * <p>
+ * Tables created by {@link HTableFactory} own their thread pool for batch operations,
+ * so number of threads grows with number of pooled tables.
+ * Tables created by this factory share them instead, and closing the table does not close shared resources.
+ * Therefore tables are cheap enough to be created for each transaction.
+ * <p>
+ * If the connection and the executor are created by this factory,
+ * they are closed by {@link #close()}. Otherwise, caller should close them.
+ */
+public class SharedConnectionHaeinsaTableIfaceFactory implements HaeinsaTableIfaceFactory, Closeable {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final HConnection connection;
+    private final ExecutorService executor;
+    private final boolean cleanupOnClose;
+
+    /**
+     * Create factory which owns new {@link HConnection} and executor with <i>maxThreads</i> threads.
+     *
+     * @param config configuration
+     * @param maxThreads maximum number of threads shared by batch operations of all tables
+     * @throws IOException if connection can't be established
+     */
+    public SharedConnectionHaeinsaTableIfaceFactory(Configuration config, int maxThreads) throws IOException {
+        this(HConnectionManager.createConnection(config), createExecutor(maxThreads), true);
+    }
+
+    /**
+     * Create factory with connection and executor managed by caller.
+     *
+     * @param connection connection shared by tables
+     * @param executor executor shared by batch operations of tables
+     */
+    public SharedConnectionHaeinsaTableIfaceFactory(HConnection connection, ExecutorService executor) {
+        this(connection, executor, false);
+    }
+
+    private SharedConnectionHaeinsaTableIfaceFactory(HConnection connection, ExecutorService executor, boolean cleanupOnClose) {
+        this.connection = Preconditions.checkNotNull(connection);
+        this.executor = Preconditions.checkNotNull(executor);
+        this.cleanupOnClose = cleanupOnClose;
+    }
+
+    /**
+     * Executor with fixed number of threads, whose idle threads are terminated after {@link #KEEP_ALIVE_SECONDS}.
+     * Tasks are queued when all threads are busy, so batch operation is not rejected.
+     */
+    private static ExecutorService createExecutor(int maxThreads) {
+        Preconditions.checkArgument(maxThreads > 0, "maxThreads should be positive.");
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("haeinsa-table-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public HaeinsaTableIface createHaeinsaTableIface(Configuration config, byte[] tableName) {
+        try {
+            // HTable created with external connection and pool doesn't close them on close().
+            return new HaeinsaTable(new HTable(tableName, connection, executor));
+        } catch (IOException e) {
+            // HaeinsaTableIfaceFactory can't throw IOException on creation, as HTableFactory does.
+            throw new IllegalStateException("Failed to create table " + Bytes.toString(tableName), e);
+        }
+    }
+
+    @Override
+    public void releaseHaeinsaTableIface(HaeinsaTableIface table) throws IOException {
+        table.close();
+    }
+
+    public HConnection getConnection() {
+        return connection;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (cleanupOnClose) {
+            executor.shutdown();
+            connection.close();
+        }
+    }
+}
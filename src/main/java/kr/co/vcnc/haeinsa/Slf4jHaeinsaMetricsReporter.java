@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link HaeinsaMetricsReporter} which logs count, mean, p99 and max latency of every phase measured,
+ * with rows which have the most conflicts.
+ */
+public class Slf4jHaeinsaMetricsReporter implements HaeinsaMetricsReporter {
+    private final Logger logger;
+
+    public Slf4jHaeinsaMetricsReporter() {
+        this(LoggerFactory.getLogger(Slf4jHaeinsaMetricsReporter.class));
+    }
+
+    public Slf4jHaeinsaMetricsReporter(Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public void report(HaeinsaMetrics metrics) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+        StringBuilder builder = new StringBuilder("haeinsa commits=").append(metrics.getCommitCount())
+                .append(String.format(" rows/commit=%.2f rpcs/commit=%.2f", metrics.getMeanRowsPerCommit(), metrics.getMeanRpcsPerCommit()))
+                .append(" recoveries=").append(metrics.getRecoveryCount())
+                .append(" conflicts=").append(metrics.getConflictsByCause())
+                .append(" hotRows=").append(metrics.getHotConflictRows());
+        for (HaeinsaPhase phase : HaeinsaPhase.values()) {
+            HaeinsaHistogram latency = metrics.getPhaseLatency(phase);
+            if (latency.getCount() > 0) {
+                builder.append(String.format(" %s(count=%d mean=%.0fus p99=%dus max=%dus)", phase, latency.getCount(),
+                        latency.getMean(), latency.getPercentile(99), latency.getMax()));
+            }
+        }
+        logger.info(builder.toString());
+    }
+}
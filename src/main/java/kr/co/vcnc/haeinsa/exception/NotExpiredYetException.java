@@ -22,13 +22,34 @@ package kr.co.vcnc.haeinsa.exception;
 public class NotExpiredYetException extends ConflictException {
     private static final long serialVersionUID = -5160271558362505568L;
 
-    public NotExpiredYetException() {}
+    private final long expiry;
+
+    public NotExpiredYetException() {
+        this.expiry = 0;
+    }
 
     public NotExpiredYetException(String message) {
         super(message);
+        this.expiry = 0;
     }
 
     public NotExpiredYetException(String message, Throwable cause) {
         super(message, cause);
+        this.expiry = 0;
+    }
+
+    /**
+     * @param expiry expiry of the transaction holding the lock, which is expiry of its primary row.
+     */
+    public NotExpiredYetException(String message, long expiry) {
+        super(message);
+        this.expiry = expiry;
+    }
+
+    /**
+     * @return expiry of the transaction holding the lock, or 0 if unknown.
+     */
+    public long getExpiry() {
+        return expiry;
     }
 }
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.memory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableExistsException;
+import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * In-memory stand-in of HBase cluster which holds tables of {@link InMemoryHTable}.
+ * It implements get, scan, put, delete, checkAndPut and checkAndDelete with multi-version and row-level atomicity,
+ * so Haeinsa transactions can run on it without MiniHBaseCluster.
+ * <p>
+ * Latency and failures of calls are configurable to measure protocol-level changes deterministically.
+ * Every RPC-like call of tables sleeps for configured latency, then fails with {@link IOException}
+ * by configured failure rate before it is applied. Failures are decided by {@link Random} of given seed.
+ * <p>
+ * This class is thread-safe.
+ */
+public class InMemoryHBase implements HTableInterfaceFactory {
+    private final Configuration conf;
+    private final ConcurrentMap<String, InMemoryHTable> tables = Maps.newConcurrentMap();
+    private final Random random;
+    private final AtomicLong callCount = new AtomicLong();
+    private volatile long latencyNanos;
+    private volatile double failureRate;
+
+    public InMemoryHBase() {
+        this(HBaseConfiguration.create(), 0L);
+    }
+
+    public InMemoryHBase(Configuration conf, long seed) {
+        this.conf = conf;
+        this.random = new Random(seed);
+    }
+
+    public Configuration getConfiguration() {
+        return conf;
+    }
+
+    /**
+     * Create an empty table.
+     *
+     * @throws TableExistsException if table of same name already exists
+     */
+    public InMemoryHTable createTable(HTableDescriptor tableDesc) throws IOException {
+        InMemoryHTable table = new InMemoryHTable(this, tableDesc);
+        if (tables.putIfAbsent(tableDesc.getNameAsString(), table) != null) {
+            throw new TableExistsException(tableDesc.getNameAsString());
+        }
+        return table;
+    }
+
+    /**
+     * @throws TableNotFoundException if there is no table of the name
+     */
+    public InMemoryHTable getTable(String tableName) throws TableNotFoundException {
+        InMemoryHTable table = tables.get(tableName);
+        if (table == null) {
+            throw new TableNotFoundException(tableName);
+        }
+        return table;
+    }
+
+    @Override
+    public HTableInterface createHTableInterface(Configuration config, byte[] tableName) {
+        try {
+            return getTable(Bytes.toString(tableName));
+        } catch (TableNotFoundException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public void releaseHTableInterface(HTableInterface table) throws IOException {
+        table.close();
+    }
+
+    /**
+     * Set latency of every call. Zero disables latency, which is default.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        Preconditions.checkArgument(latency >= 0, "latency should not be negative: %s", latency);
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * Set ratio of calls which fail with {@link IOException}. Zero disables failures, which is default.
+     */
+    public void setFailureRate(double failureRate) {
+        Preconditions.checkArgument(failureRate >= 0.0 && failureRate <= 1.0, "failureRate should be in [0, 1]: %s", failureRate);
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * @return number of RPC-like calls made to tables of this instance, including failed ones.
+     */
+    public long getCallCount() {
+        return callCount.get();
+    }
+
+    /**
+     * Called before every RPC-like call of tables. Sleeps for latency and injects failure.
+     */
+    void beforeCall() throws IOException {
+        callCount.incrementAndGet();
+        long latency = latencyNanos;
+        if (latency > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            }
+        }
+        double rate = failureRate;
+        if (rate > 0) {
+            boolean fail;
+            synchronized (random) {
+                fail = random.nextDouble() < rate;
+            }
+            if (fail) {
+                throw new IOException("Injected failure");
+            }
+        }
+    }
+}
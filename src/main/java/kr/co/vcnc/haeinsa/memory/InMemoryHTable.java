@@ -0,0 +1,557 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.memory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.annotation.Nullable;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.RowLock;
+import org.apache.hadoop.hbase.client.RowMutations;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.coprocessor.Batch.Call;
+import org.apache.hadoop.hbase.client.coprocessor.Batch.Callback;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.ipc.CoprocessorProtocol;
+import org.apache.hadoop.hbase.regionserver.NoSuchColumnFamilyException;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+
+/**
+ * In-memory, thread-safe and multi-version implementation of {@link HTableInterface}.
+ * Instances are created by {@link InMemoryHBase#createTable(HTableDescriptor)} and shared by all users of the table,
+ * so {@link #close()} does nothing.
+ * <p>
+ * Like HBase, every mutation of a row is atomic and checkAndPut/checkAndDelete/append/increment are atomic on the row.
+ * Writes are not buffered regardless of auto flush, and time range of {@link Increment} is ignored.
+ * Row locks and coprocessors are not supported, because they need region server which this class doesn't emulate.
+ */
+public final class InMemoryHTable implements HTableInterface {
+    private final InMemoryHBase hbase;
+    private final HTableDescriptor tableDesc;
+    private final ConcurrentNavigableMap<byte[], InMemoryRow> rows = new ConcurrentSkipListMap<byte[], InMemoryRow>(Bytes.BYTES_COMPARATOR);
+
+    InMemoryHTable(InMemoryHBase hbase, HTableDescriptor tableDesc) {
+        this.hbase = hbase;
+        this.tableDesc = tableDesc;
+    }
+
+    @Override
+    public byte[] getTableName() {
+        return tableDesc.getName();
+    }
+
+    @Override
+    public Configuration getConfiguration() {
+        return hbase.getConfiguration();
+    }
+
+    @Override
+    public HTableDescriptor getTableDescriptor() throws IOException {
+        return tableDesc;
+    }
+
+    @Override
+    public boolean exists(Get get) throws IOException {
+        return !get(get).isEmpty();
+    }
+
+    @Override
+    public void batch(List<? extends Row> actions, Object[] results) throws IOException, InterruptedException {
+        IOException failure = null;
+        for (int i = 0; i < actions.size(); i++) {
+            try {
+                results[i] = doAction(actions.get(i));
+            } catch (IOException e) {
+                results[i] = e;
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public Object[] batch(List<? extends Row> actions) throws IOException, InterruptedException {
+        Object[] results = new Object[actions.size()];
+        batch(actions, results);
+        return results;
+    }
+
+    private Object doAction(Row action) throws IOException {
+        if (action instanceof Get) {
+            return get((Get) action);
+        } else if (action instanceof Put) {
+            put((Put) action);
+        } else if (action instanceof Delete) {
+            delete((Delete) action);
+        } else if (action instanceof RowMutations) {
+            mutateRow((RowMutations) action);
+        } else {
+            throw new DoNotRetryIOException("Unsupported action: " + action.getClass().getName());
+        }
+        return new Result();
+    }
+
+    @Override
+    public Result get(Get get) throws IOException {
+        hbase.beforeCall();
+        checkFamilies(get.getFamilyMap().keySet());
+        return read(get.getRow(), get.getFamilyMap(), get.getTimeRange(), get.getMaxVersions(), get.getFilter());
+    }
+
+    @Override
+    public Result[] get(List<Get> gets) throws IOException {
+        Result[] results = new Result[gets.size()];
+        for (int i = 0; i < gets.size(); i++) {
+            results[i] = get(gets.get(i));
+        }
+        return results;
+    }
+
+    private Result read(byte[] row, Map<byte[], NavigableSet<byte[]>> familyMap, TimeRange timeRange, int maxVersions,
+            @Nullable Filter filter) {
+        InMemoryRow inMemoryRow = rows.get(row);
+        if (inMemoryRow == null) {
+            return new Result();
+        }
+        if (filter != null) {
+            filter.reset();
+        }
+        return new Result(inMemoryRow.read(familyMap, timeRange, maxVersions, filter));
+    }
+
+    @Override
+    @Deprecated
+    public Result getRowOrBefore(byte[] row, byte[] family) throws IOException {
+        hbase.beforeCall();
+        checkFamilies(Collections.singleton(family));
+        Get get = new Get(row).addFamily(family);
+        for (byte[] candidate : rows.headMap(row, true).descendingKeySet()) {
+            Result result = read(candidate, get.getFamilyMap(), get.getTimeRange(), 1, null);
+            if (!result.isEmpty()) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public ResultScanner getScanner(Scan scan) throws IOException {
+        hbase.beforeCall();
+        checkFamilies(scan.getFamilyMap().keySet());
+        return new InMemoryResultScanner(scan);
+    }
+
+    @Override
+    public ResultScanner getScanner(byte[] family) throws IOException {
+        Scan scan = new Scan();
+        scan.addFamily(family);
+        return getScanner(scan);
+    }
+
+    @Override
+    public ResultScanner getScanner(byte[] family, byte[] qualifier) throws IOException {
+        Scan scan = new Scan();
+        scan.addColumn(family, qualifier);
+        return getScanner(scan);
+    }
+
+    @Override
+    public void put(Put put) throws IOException {
+        hbase.beforeCall();
+        checkFamilies(put.getFamilyMap().keySet());
+        getOrCreateRow(put.getRow()).put(put, System.currentTimeMillis());
+    }
+
+    @Override
+    public void put(List<Put> puts) throws IOException {
+        for (Put put : puts) {
+            put(put);
+        }
+    }
+
+    @Override
+    public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, byte[] value, Put put) throws IOException {
+        hbase.beforeCall();
+        checkRow(row, put);
+        checkFamilies(put.getFamilyMap().keySet());
+        InMemoryRow inMemoryRow = getOrCreateRow(row);
+        synchronized (inMemoryRow) {
+            if (!matches(inMemoryRow, family, qualifier, value)) {
+                return false;
+            }
+            inMemoryRow.put(put, System.currentTimeMillis());
+            return true;
+        }
+    }
+
+    @Override
+    public void delete(Delete delete) throws IOException {
+        hbase.beforeCall();
+        checkFamilies(delete.getFamilyMap().keySet());
+        getOrCreateRow(delete.getRow()).delete(delete, System.currentTimeMillis());
+    }
+
+    /**
+     * Deletes are removed from the list when they are applied, as HTable does.
+     */
+    @Override
+    public void delete(List<Delete> deletes) throws IOException {
+        Iterator<Delete> iterator = deletes.iterator();
+        while (iterator.hasNext()) {
+            delete(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    @Override
+    public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, byte[] value, Delete delete) throws IOException {
+        hbase.beforeCall();
+        checkRow(row, delete);
+        checkFamilies(delete.getFamilyMap().keySet());
+        InMemoryRow inMemoryRow = getOrCreateRow(row);
+        synchronized (inMemoryRow) {
+            if (!matches(inMemoryRow, family, qualifier, value)) {
+                return false;
+            }
+            inMemoryRow.delete(delete, System.currentTimeMillis());
+            return true;
+        }
+    }
+
+    @Override
+    public void mutateRow(RowMutations rm) throws IOException {
+        hbase.beforeCall();
+        for (Mutation mutation : rm.getMutations()) {
+            checkRow(rm.getRow(), mutation);
+            checkFamilies(mutation.getFamilyMap().keySet());
+        }
+        InMemoryRow inMemoryRow = getOrCreateRow(rm.getRow());
+        synchronized (inMemoryRow) {
+            long now = System.currentTimeMillis();
+            for (Mutation mutation : rm.getMutations()) {
+                if (mutation instanceof Put) {
+                    inMemoryRow.put((Put) mutation, now);
+                } else {
+                    inMemoryRow.delete((Delete) mutation, now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Null or empty expected value matches absent column or empty value, as HRegion#checkAndMutate does.
+     */
+    private static boolean matches(InMemoryRow inMemoryRow, byte[] family, byte[] qualifier, @Nullable byte[] expected) {
+        byte[] current = inMemoryRow.getLatestValue(family, qualifier);
+        if (expected == null || expected.length == 0) {
+            return current == null || current.length == 0;
+        }
+        return current != null && Bytes.equals(current, expected);
+    }
+
+    private void checkRow(byte[] row, Row action) throws DoNotRetryIOException {
+        if (!Bytes.equals(row, action.getRow())) {
+            throw new DoNotRetryIOException("Action's getRow must match the passed row");
+        }
+    }
+
+    private void checkFamilies(Iterable<byte[]> families) throws NoSuchColumnFamilyException {
+        for (byte[] family : families) {
+            if (!tableDesc.hasFamily(family)) {
+                throw new NoSuchColumnFamilyException("Column family " + Bytes.toString(family)
+                        + " does not exist in table " + tableDesc.getNameAsString());
+            }
+        }
+    }
+
+    private InMemoryRow getOrCreateRow(byte[] row) {
+        InMemoryRow inMemoryRow = rows.get(row);
+        if (inMemoryRow == null) {
+            InMemoryRow newRow = new InMemoryRow(row, tableDesc);
+            inMemoryRow = rows.putIfAbsent(row, newRow);
+            if (inMemoryRow == null) {
+                inMemoryRow = newRow;
+            }
+        }
+        return inMemoryRow;
+    }
+
+    /**
+     * Values are appended to the latest visible values, and written with current time.
+     */
+    @Override
+    public Result append(Append append) throws IOException {
+        hbase.beforeCall();
+        checkFamilies(append.getFamilyMap().keySet());
+        InMemoryRow inMemoryRow = getOrCreateRow(append.getRow());
+        synchronized (inMemoryRow) {
+            long now = System.currentTimeMillis();
+            List<KeyValue> kvs = Lists.newArrayList();
+            for (Entry<byte[], List<KeyValue>> entry : append.getFamilyMap().entrySet()) {
+                for (KeyValue kv : entry.getValue()) {
+                    byte[] current = inMemoryRow.getLatestValue(entry.getKey(), kv.getQualifier());
+                    byte[] value = current == null ? kv.getValue() : Bytes.add(current, kv.getValue());
+                    kvs.add(new KeyValue(append.getRow(), entry.getKey(), kv.getQualifier(), now, value));
+                }
+            }
+            writeAll(inMemoryRow, append.getRow(), kvs, now);
+            return append.isReturnResults() ? new Result(kvs) : null;
+        }
+    }
+
+    /**
+     * Amounts are added to the latest visible values, and written with current time.
+     * Absent column is considered as 0, and value which is not 64 bits wide can't be incremented as HBase.
+     */
+    @Override
+    public Result increment(Increment increment) throws IOException {
+        hbase.beforeCall();
+        checkFamilies(increment.familySet());
+        InMemoryRow inMemoryRow = getOrCreateRow(increment.getRow());
+        synchronized (inMemoryRow) {
+            long now = System.currentTimeMillis();
+            List<KeyValue> kvs = Lists.newArrayList();
+            for (Entry<byte[], NavigableMap<byte[], Long>> entry : increment.getFamilyMap().entrySet()) {
+                for (Entry<byte[], Long> column : entry.getValue().entrySet()) {
+                    byte[] current = inMemoryRow.getLatestValue(entry.getKey(), column.getKey());
+                    long amount = column.getValue();
+                    if (current != null) {
+                        if (current.length != Bytes.SIZEOF_LONG) {
+                            throw new DoNotRetryIOException("Attempted to increment field that isn't 64 bits wide");
+                        }
+                        amount += Bytes.toLong(current);
+                    }
+                    kvs.add(new KeyValue(increment.getRow(), entry.getKey(), column.getKey(), now, Bytes.toBytes(amount)));
+                }
+            }
+            writeAll(inMemoryRow, increment.getRow(), kvs, now);
+            return new Result(kvs);
+        }
+    }
+
+    @Override
+    public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount) throws IOException {
+        Result result = increment(new Increment(row).addColumn(family, qualifier, amount));
+        return Bytes.toLong(result.getValue(family, qualifier));
+    }
+
+    /**
+     * There is no WAL, so writeToWAL is ignored.
+     */
+    @Override
+    public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount, boolean writeToWAL) throws IOException {
+        return incrementColumnValue(row, family, qualifier, amount);
+    }
+
+    /**
+     * Write key values computed from current values of the row, and sort them to be returned as {@link Result}.
+     * Should be called with monitor of the row.
+     */
+    private static void writeAll(InMemoryRow inMemoryRow, byte[] row, List<KeyValue> kvs, long now) throws IOException {
+        Put put = new Put(row);
+        for (KeyValue kv : kvs) {
+            put.add(kv);
+        }
+        inMemoryRow.put(put, now);
+        Collections.sort(kvs, KeyValue.COMPARATOR);
+    }
+
+    @Override
+    public boolean isAutoFlush() {
+        return true;
+    }
+
+    @Override
+    public void flushCommits() throws IOException {
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public RowLock lockRow(byte[] row) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void unlockRow(RowLock rl) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T extends CoprocessorProtocol> T coprocessorProxy(Class<T> protocol, byte[] row) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T extends CoprocessorProtocol, R> Map<byte[], R> coprocessorExec(Class<T> protocol, byte[] startKey, byte[] endKey,
+            Call<T, R> callable) throws IOException, Throwable {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T extends CoprocessorProtocol, R> void coprocessorExec(Class<T> protocol, byte[] startKey, byte[] endKey,
+            Call<T, R> callable, Callback<R> callback) throws IOException, Throwable {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setAutoFlush(boolean autoFlush) {
+    }
+
+    @Override
+    public void setAutoFlush(boolean autoFlush, boolean clearBufferOnFail) {
+    }
+
+    @Override
+    public long getWriteBufferSize() {
+        return 0;
+    }
+
+    @Override
+    public void setWriteBufferSize(long writeBufferSize) throws IOException {
+    }
+
+    /**
+     * Scanner which reads rows lazily, so it sees rows which are written after it is opened as HBase scanner does.
+     * Each row is read atomically. Rows are returned in chunks of {@link Scan#getBatch()} key values if batch is set,
+     * and latency of a call is applied once per {@link Scan#getCaching()} results.
+     */
+    private final class InMemoryResultScanner implements ResultScanner {
+        private final Scan scan;
+        private final int caching;
+        private final Iterator<Entry<byte[], InMemoryRow>> rowIterator;
+        private List<KeyValue> pending = Lists.newArrayList();
+        private int returned;
+        private boolean closed;
+
+        InMemoryResultScanner(Scan scan) {
+            this.scan = scan;
+            this.caching = scan.getCaching() > 0
+                    ? scan.getCaching()
+                    : getConfiguration().getInt("hbase.client.scanner.caching", 1);
+            ConcurrentNavigableMap<byte[], InMemoryRow> range = rows.tailMap(scan.getStartRow(), true);
+            if (!Bytes.equals(scan.getStopRow(), HConstants.EMPTY_END_ROW)) {
+                range = range.headMap(scan.getStopRow(), false);
+            }
+            this.rowIterator = range.entrySet().iterator();
+        }
+
+        @Override
+        public Result next() throws IOException {
+            if (closed) {
+                return null;
+            }
+            if (returned > 0 && returned % caching == 0) {
+                hbase.beforeCall();
+            }
+            if (pending.isEmpty() && !fetch()) {
+                return null;
+            }
+            returned++;
+            int batch = scan.getBatch();
+            if (batch <= 0 || pending.size() <= batch) {
+                Result result = new Result(pending);
+                pending = Lists.newArrayList();
+                return result;
+            }
+            List<KeyValue> chunk = Lists.newArrayList(pending.subList(0, batch));
+            pending = Lists.newArrayList(pending.subList(batch, pending.size()));
+            return new Result(chunk);
+        }
+
+        private boolean fetch() {
+            Filter filter = scan.getFilter();
+            while (rowIterator.hasNext()) {
+                if (filter != null && filter.filterAllRemaining()) {
+                    return false;
+                }
+                Entry<byte[], InMemoryRow> entry = rowIterator.next();
+                Result result = read(entry.getKey(), scan.getFamilyMap(), scan.getTimeRange(), scan.getMaxVersions(), filter);
+                if (!result.isEmpty()) {
+                    pending = Lists.newArrayList(Arrays.asList(result.raw()));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Result[] next(int nbRows) throws IOException {
+            List<Result> results = Lists.newArrayListWithCapacity(nbRows);
+            for (int i = 0; i < nbRows; i++) {
+                Result result = next();
+                if (result == null) {
+                    break;
+                }
+                results.add(result);
+            }
+            return results.toArray(new Result[results.size()]);
+        }
+
+        @Override
+        public Iterator<Result> iterator() {
+            return new AbstractIterator<Result>() {
+                @Override
+                protected Result computeNext() {
+                    try {
+                        Result result = InMemoryResultScanner.this.next();
+                        return result == null ? endOfData() : result;
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.memory;
+
+import kr.co.vcnc.haeinsa.DefaultHaeinsaTableIfaceFactory;
+
+/**
+ * HaeinsaTableIfaceFactory which creates HaeinsaTable on {@link InMemoryHTable} of given {@link InMemoryHBase}.
+ * Use it with {@link kr.co.vcnc.haeinsa.HaeinsaTablePool} to run transactions without HBase cluster.
+ */
+public class InMemoryHaeinsaTableIfaceFactory extends DefaultHaeinsaTableIfaceFactory {
+
+    public InMemoryHaeinsaTableIfaceFactory(InMemoryHBase hbase) {
+        super(hbase);
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.memory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Multi-version cells of a row of {@link InMemoryHTable}. Operations on a row are atomic by monitor of the row,
+ * as HBase provides row-level atomicity.
+ * <p>
+ * Deletes are kept as markers like HBase before major compaction: DeleteFamily and DeleteColumn mask versions
+ * older than or equal to their timestamps, and Delete of a version masks the version, even if put is written later.
+ * Versions older than maximum versions of the family are dropped on put, as flush of HBase does.
+ */
+final class InMemoryRow {
+    private final byte[] row;
+    private final HTableDescriptor tableDesc;
+    private final NavigableMap<byte[], Family> families = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+
+    private static final class Family {
+        private long deletedUpTo = Long.MIN_VALUE;
+        private final NavigableMap<byte[], Column> columns = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    }
+
+    private static final class Column {
+        // newest version first
+        private final NavigableMap<Long, byte[]> versions = Maps.newTreeMap(Collections.reverseOrder());
+        private long deletedUpTo = Long.MIN_VALUE;
+        private final Set<Long> deletedVersions = Sets.newHashSet();
+    }
+
+    InMemoryRow(byte[] row, HTableDescriptor tableDesc) {
+        this.row = row;
+        this.tableDesc = tableDesc;
+    }
+
+    synchronized void put(Put put, long now) {
+        for (Entry<byte[], List<KeyValue>> entry : put.getFamilyMap().entrySet()) {
+            Family family = getOrCreateFamily(entry.getKey());
+            int maxVersions = tableDesc.getFamily(entry.getKey()).getMaxVersions();
+            for (KeyValue kv : entry.getValue()) {
+                Column column = family.columns.get(kv.getQualifier());
+                if (column == null) {
+                    column = new Column();
+                    family.columns.put(kv.getQualifier(), column);
+                }
+                long timestamp = kv.getTimestamp() == HConstants.LATEST_TIMESTAMP ? now : kv.getTimestamp();
+                column.versions.put(timestamp, kv.getValue());
+                trim(family, column, maxVersions);
+            }
+        }
+    }
+
+    private static void trim(Family family, Column column, int maxVersions) {
+        int visible = 0;
+        for (Long timestamp : column.versions.keySet()) {
+            if (isVisible(family, column, timestamp) && ++visible == maxVersions) {
+                column.versions.tailMap(timestamp, false).clear();
+                return;
+            }
+        }
+    }
+
+    synchronized void delete(Delete delete, long now) {
+        long deleteTimestamp = delete.getTimeStamp() == HConstants.LATEST_TIMESTAMP ? now : delete.getTimeStamp();
+        if (delete.getFamilyMap().isEmpty()) {
+            // delete whole row
+            for (byte[] familyName : tableDesc.getFamiliesKeys()) {
+                Family family = getOrCreateFamily(familyName);
+                family.deletedUpTo = Math.max(family.deletedUpTo, deleteTimestamp);
+            }
+            return;
+        }
+        for (Entry<byte[], List<KeyValue>> entry : delete.getFamilyMap().entrySet()) {
+            Family family = getOrCreateFamily(entry.getKey());
+            for (KeyValue kv : entry.getValue()) {
+                long timestamp = kv.getTimestamp() == HConstants.LATEST_TIMESTAMP ? now : kv.getTimestamp();
+                if (kv.isDeleteFamily()) {
+                    family.deletedUpTo = Math.max(family.deletedUpTo, timestamp);
+                    continue;
+                }
+                Column column = family.columns.get(kv.getQualifier());
+                if (column == null) {
+                    column = new Column();
+                    family.columns.put(kv.getQualifier(), column);
+                }
+                if (kv.isDeleteType()) {
+                    if (kv.isLatestTimestamp()) {
+                        // delete latest visible version
+                        Long latest = getLatestVisibleTimestamp(family, column);
+                        if (latest != null) {
+                            column.deletedVersions.add(latest);
+                        }
+                    } else {
+                        column.deletedVersions.add(timestamp);
+                    }
+                } else {
+                    column.deletedUpTo = Math.max(column.deletedUpTo, timestamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return value of the latest visible version of the column, null if there is no visible version.
+     */
+    @Nullable
+    synchronized byte[] getLatestValue(byte[] familyName, byte[] qualifier) {
+        Family family = families.get(familyName);
+        if (family == null) {
+            return null;
+        }
+        Column column = family.columns.get(qualifier);
+        if (column == null) {
+            return null;
+        }
+        Long latest = getLatestVisibleTimestamp(family, column);
+        return latest == null ? null : column.versions.get(latest);
+    }
+
+    /**
+     * Read visible versions of selected columns in the order of {@link KeyValue#COMPARATOR}.
+     *
+     * @param familyMap selected families and qualifiers, every family if empty and every qualifier if null
+     * @return empty list if no key value is selected or filter filters the row
+     */
+    synchronized List<KeyValue> read(Map<byte[], NavigableSet<byte[]>> familyMap, TimeRange timeRange, int maxVersions,
+            @Nullable Filter filter) {
+        List<KeyValue> kvs = Lists.newArrayList();
+        if (filter != null && filter.filterRowKey(row, 0, row.length)) {
+            return kvs;
+        }
+        NavigableMap<byte[], Family> selected = families;
+        if (!familyMap.isEmpty()) {
+            selected = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+            for (byte[] familyName : familyMap.keySet()) {
+                Family family = families.get(familyName);
+                if (family != null) {
+                    selected.put(familyName, family);
+                }
+            }
+        }
+        for (Entry<byte[], Family> familyEntry : selected.entrySet()) {
+            byte[] familyName = familyEntry.getKey();
+            Family family = familyEntry.getValue();
+            NavigableSet<byte[]> qualifiers = familyMap.isEmpty() ? null : familyMap.get(familyName);
+            int familyMaxVersions = Math.min(maxVersions, tableDesc.getFamily(familyName).getMaxVersions());
+            for (Entry<byte[], Column> columnEntry : family.columns.entrySet()) {
+                if (qualifiers != null && !qualifiers.contains(columnEntry.getKey())) {
+                    continue;
+                }
+                Column column = columnEntry.getValue();
+                int included = 0;
+                for (Entry<Long, byte[]> version : column.versions.entrySet()) {
+                    long timestamp = version.getKey();
+                    if (!isVisible(family, column, timestamp) || !timeRange.withinTimeRange(timestamp)) {
+                        continue;
+                    }
+                    KeyValue kv = new KeyValue(row, familyName, columnEntry.getKey(), timestamp, version.getValue());
+                    ReturnCode code = filter == null ? ReturnCode.INCLUDE : filter.filterKeyValue(kv);
+                    if (code == ReturnCode.NEXT_ROW) {
+                        return filterRow(kvs, filter);
+                    }
+                    if (code == ReturnCode.INCLUDE || code == ReturnCode.INCLUDE_AND_NEXT_COL) {
+                        kvs.add(filter == null ? kv : filter.transform(kv));
+                        included++;
+                    }
+                    if (included >= familyMaxVersions || code != ReturnCode.INCLUDE && code != ReturnCode.SKIP) {
+                        // other codes move to next column
+                        break;
+                    }
+                }
+            }
+        }
+        return filterRow(kvs, filter);
+    }
+
+    private static List<KeyValue> filterRow(List<KeyValue> kvs, @Nullable Filter filter) {
+        if (filter == null) {
+            return kvs;
+        }
+        if (filter.hasFilterRow()) {
+            filter.filterRow(kvs);
+        }
+        if (filter.filterRow()) {
+            kvs.clear();
+        }
+        return kvs;
+    }
+
+    private Family getOrCreateFamily(byte[] familyName) {
+        Family family = families.get(familyName);
+        if (family == null) {
+            family = new Family();
+            families.put(familyName, family);
+        }
+        return family;
+    }
+
+    @Nullable
+    private static Long getLatestVisibleTimestamp(Family family, Column column) {
+        for (Long timestamp : column.versions.keySet()) {
+            if (isVisible(family, column, timestamp)) {
+                return timestamp;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isVisible(Family family, Column column, long timestamp) {
+        return timestamp > family.deletedUpTo && timestamp > column.deletedUpTo && !column.deletedVersions.contains(timestamp);
+    }
+}
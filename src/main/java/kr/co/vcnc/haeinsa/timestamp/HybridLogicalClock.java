@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.timestamp;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Hybrid logical clock which merges timestamps observed from row locks with physical clock.
+ * <p>
+ * Issued timestamp is the max of physical time and one after the last issued or observed timestamp,
+ * so timestamps follow wall time when the clock is ahead, and order after every observed commit
+ * even if clock of this process is behind of other clients or commits of hot rows run ahead of wall time.
+ * Physical time is taken from given {@link TimestampOracle}, which is local clock by default.
+ * <p>
+ * Observed timestamp too far ahead of local clock and the last timestamp is merged only up to {@link #getMaxOffsetMillis()},
+ * so that a single bogus timestamp doesn't push every following timestamp into the future.
+ * Ordering against rows of transaction is still guaranteed by {@link kr.co.vcnc.haeinsa.HaeinsaTransaction#commit()},
+ * which takes commit timestamps of the rows into account.
+ * <p>
+ * Expiry of locks is computed from physical time, not from timestamps issued by this clock.
+ */
+public class HybridLogicalClock implements TimestampOracle {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HybridLogicalClock.class);
+    public static final long DEFAULT_MAX_OFFSET_MILLIS = 60000;
+
+    private final TimestampOracle physicalClock;
+    private final long maxOffsetMillis;
+    private long last = Long.MIN_VALUE;
+
+    public HybridLogicalClock() {
+        this(new SystemTimestampOracle(), DEFAULT_MAX_OFFSET_MILLIS);
+    }
+
+    /**
+     * @param physicalClock source of physical time
+     * @param maxOffsetMillis maximum offset of observed timestamp ahead of the clock which is merged
+     */
+    public HybridLogicalClock(TimestampOracle physicalClock, long maxOffsetMillis) {
+        Preconditions.checkArgument(maxOffsetMillis >= 0, "maxOffsetMillis should not be negative");
+        this.physicalClock = Preconditions.checkNotNull(physicalClock);
+        this.maxOffsetMillis = maxOffsetMillis;
+    }
+
+    @Override
+    public long next() throws IOException {
+        long physicalTime = physicalClock.next();
+        synchronized (this) {
+            last = Math.max(physicalTime, last + 1);
+            return last;
+        }
+    }
+
+    @Override
+    public void observe(long timestamp) {
+        long currentTime = System.currentTimeMillis();
+        synchronized (this) {
+            long bound = Math.max(currentTime, last) + maxOffsetMillis;
+            if (timestamp > bound) {
+                LOGGER.warn("Observed timestamp " + timestamp + " is ahead of the clock more than max offset.");
+                last = bound;
+            } else {
+                last = Math.max(last, timestamp);
+            }
+        }
+    }
+
+    /**
+     * @return last timestamp issued or merged
+     */
+    public synchronized long getLast() {
+        return last;
+    }
+
+    public long getMaxOffsetMillis() {
+        return maxOffsetMillis;
+    }
+}
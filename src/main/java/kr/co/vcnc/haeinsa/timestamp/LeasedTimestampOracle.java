@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.timestamp;
+
+import java.io.IOException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * {@link TimestampOracle} which issues timestamps from blocks leased from {@link TimestampBlockAllocator},
+ * so that one call of the allocator, which may be an RPC, serves many transactions.
+ * <p>
+ * Timestamps of a block are issued in order. Block is discarded when it is exhausted or its lease is expired,
+ * so that timestamps don't fall far behind wall time when the oracle is idle.
+ * Timestamps issued by oracles sharing the same allocator are unique, but ordered only within each oracle.
+ */
+public class LeasedTimestampOracle implements TimestampOracle {
+    private final TimestampBlockAllocator allocator;
+    private final int blockSize;
+    private final long leaseMillis;
+
+    private long next;
+    private long end;
+    private long leaseExpiry;
+
+    /**
+     * @param allocator allocator of timestamp blocks
+     * @param blockSize number of timestamps leased at once
+     * @param leaseMillis time during which leased block is used
+     */
+    public LeasedTimestampOracle(TimestampBlockAllocator allocator, int blockSize, long leaseMillis) {
+        Preconditions.checkArgument(blockSize > 0, "blockSize should be positive");
+        Preconditions.checkArgument(leaseMillis > 0, "leaseMillis should be positive");
+        this.allocator = Preconditions.checkNotNull(allocator);
+        this.blockSize = blockSize;
+        this.leaseMillis = leaseMillis;
+    }
+
+    @Override
+    public synchronized long next() throws IOException {
+        long currentTime = System.currentTimeMillis();
+        if (next >= end || currentTime >= leaseExpiry) {
+            long start = allocator.allocate(blockSize);
+            // never go backward even if the allocator is replaced or restarted.
+            next = Math.max(start, next);
+            end = start + blockSize;
+            leaseExpiry = currentTime + leaseMillis;
+            if (next >= end) {
+                throw new IOException("allocated block is behind of issued timestamps: " + start);
+            }
+        }
+        return next++;
+    }
+
+    @Override
+    public void observe(long timestamp) {
+        // blocks are allocated regardless of timestamps of other clients.
+    }
+}
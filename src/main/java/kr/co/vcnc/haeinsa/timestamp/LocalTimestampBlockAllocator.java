@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.timestamp;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * In-process {@link TimestampBlockAllocator}. Block starts at current time of local clock,
+ * or right after the last block if the last block is ahead of the clock,
+ * so that timestamps stay close to wall time and never go backward even if the clock does.
+ */
+public class LocalTimestampBlockAllocator implements TimestampBlockAllocator {
+    private long next;
+
+    public LocalTimestampBlockAllocator() {
+        this(0);
+    }
+
+    /**
+     * @param lowerBound minimum timestamp of the first block, such as the one after the last timestamp issued before restart.
+     */
+    public LocalTimestampBlockAllocator(long lowerBound) {
+        this.next = lowerBound;
+    }
+
+    @Override
+    public synchronized long allocate(int size) {
+        Preconditions.checkArgument(size > 0, "size should be positive");
+        long start = Math.max(next, System.currentTimeMillis());
+        next = start + size;
+        return start;
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.timestamp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * {@link TimestampBlockAllocator} which allocates blocks from {@link TimestampOracleServer}.
+ * Allocations are serialized on a single connection, which is reopened on next allocation if it fails.
+ */
+public class RemoteTimestampBlockAllocator implements TimestampBlockAllocator, Closeable {
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final int READ_TIMEOUT_MILLIS = 3000;
+
+    private final InetSocketAddress address;
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    public RemoteTimestampBlockAllocator(String host, int port) {
+        this(new InetSocketAddress(host, port));
+    }
+
+    public RemoteTimestampBlockAllocator(InetSocketAddress address) {
+        this.address = Preconditions.checkNotNull(address);
+    }
+
+    @Override
+    public synchronized long allocate(int size) throws IOException {
+        Preconditions.checkArgument(size > 0, "size should be positive");
+        if (socket == null) {
+            connect();
+        }
+        try {
+            out.writeInt(size);
+            out.flush();
+            return in.readLong();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void connect() throws IOException {
+        Socket newSocket = new Socket();
+        try {
+            newSocket.setTcpNoDelay(true);
+            newSocket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            newSocket.connect(address, CONNECT_TIMEOUT_MILLIS);
+            in = new DataInputStream(new BufferedInputStream(newSocket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+        } catch (IOException e) {
+            newSocket.close();
+            throw e;
+        }
+        socket = newSocket;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (socket != null) {
+            Socket closing = socket;
+            socket = null;
+            in = null;
+            out = null;
+            closing.close();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.timestamp;
+
+/**
+ * {@link TimestampOracle} which returns current time of local clock.
+ * Timestamps can be duplicated within a millisecond, and can decrease if the clock is adjusted backward.
+ */
+public class SystemTimestampOracle implements TimestampOracle {
+
+    @Override
+    public long next() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void observe(long timestamp) {
+        // timestamps are not adjusted by observed ones.
+    }
+}
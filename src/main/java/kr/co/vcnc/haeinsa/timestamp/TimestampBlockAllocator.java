@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.timestamp;
+
+import java.io.IOException;
+
+/**
+ * Allocator of blocks of consecutive timestamps, which is used by {@link LeasedTimestampOracle}.
+ * Every block should be above any block allocated before. Implementation should be thread-safe.
+ */
+public interface TimestampBlockAllocator {
+
+    /**
+     * Allocate block of timestamps.
+     *
+     * @param size number of timestamps in the block
+     * @return first timestamp of the block, block is [start, start + size).
+     * @throws IOException if block can't be allocated.
+     */
+    long allocate(int size) throws IOException;
+}
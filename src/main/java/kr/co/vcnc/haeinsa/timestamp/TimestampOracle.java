@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.timestamp;
+
+import java.io.IOException;
+
+/**
+ * Source of timestamps which are used as base of prewrite and commit timestamps of transactions.
+ * <p>
+ * Timestamps are milliseconds since epoch, because they are used as versions of HBase cells
+ * and compared with commit timestamps of rows written by other clients.
+ * Timestamps returned by an oracle should never decrease. Implementation should be thread-safe.
+ */
+public interface TimestampOracle {
+
+    /**
+     * @return next timestamp
+     * @throws IOException if timestamp can't be allocated.
+     */
+    long next() throws IOException;
+
+    /**
+     * Notify timestamp observed from other clients, such as commit timestamp of row lock.
+     * Oracle may issue timestamps above the observed one after this call, but it is not required to.
+     *
+     * @param timestamp observed timestamp
+     */
+    void observe(long timestamp);
+}
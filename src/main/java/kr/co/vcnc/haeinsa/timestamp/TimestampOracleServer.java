@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.timestamp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Small standalone server which allocates timestamp blocks to {@link RemoteTimestampBlockAllocator}s
+ * by {@link LocalTimestampBlockAllocator}.
+ * <p>
+ * Protocol is a sequence of requests and responses on a TCP connection.
+ * Request is block size as int, and response is the first timestamp of the block as long.
+ * Server doesn't persist issued timestamps, so it should be restarted with lower bound
+ * above the last issued timestamp if the clock of the new server can be behind of it.
+ * <p>
+ * Server can be run locally by {@code java kr.co.vcnc.haeinsa.timestamp.TimestampOracleServer [port] [lowerBound]}.
+ */
+public class TimestampOracleServer implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimestampOracleServer.class);
+    public static final int DEFAULT_PORT = 9190;
+
+    private final TimestampBlockAllocator allocator;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+
+    /**
+     * Start server on given port.
+     *
+     * @param port port to listen, or 0 to use ephemeral port
+     * @param allocator allocator which allocates blocks of every client
+     */
+    public TimestampOracleServer(int port, TimestampBlockAllocator allocator) throws IOException {
+        this.allocator = Preconditions.checkNotNull(allocator);
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(port));
+        this.executor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("haeinsa-timestamp-oracle-%d").setDaemon(true).build());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /**
+     * @return port which server listens
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (SocketException e) {
+                // server socket is closed.
+            } catch (IOException e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket client = socket) {
+            client.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+            while (true) {
+                int size = in.readInt();
+                out.writeLong(allocator.allocate(size));
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // client closed the connection.
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        long lowerBound = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        TimestampOracleServer server = new TimestampOracleServer(port, new LocalTimestampBlockAllocator(lowerBound));
+        LOGGER.info("Timestamp oracle server is listening on port " + server.getPort());
+        Thread.currentThread().join();
+    }
+}
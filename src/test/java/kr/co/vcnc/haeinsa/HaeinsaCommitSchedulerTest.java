@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class HaeinsaCommitSchedulerTest {
+    private static final int REGION_SERVER_COUNT = 3;
+
+    /**
+     * Create pool of tables which locate row on region server by first byte of the row.
+     */
+    private static HaeinsaTablePool createTablePool() {
+        return new LockFreeHaeinsaTablePool(HBaseConfiguration.create(), 8, new HaeinsaTableIfaceFactory() {
+            @Override
+            public HaeinsaTableIface createHaeinsaTableIface(Configuration config, byte[] tableName) {
+                return new HaeinsaTable(TestingUtility.createStubHTableInterface(tableName)) {
+                    @Override
+                    @Nullable
+                    public String getRegionServer(byte[] row) throws IOException {
+                        return "rs" + (row[0] % REGION_SERVER_COUNT);
+                    }
+                };
+            }
+
+            @Override
+            public void releaseHaeinsaTableIface(HaeinsaTableIface table) throws IOException {
+                table.close();
+            }
+        });
+    }
+
+    private static Map<TRowKey, HaeinsaRowTransaction> createRows(int count) {
+        Map<TRowKey, HaeinsaRowTransaction> rows = Maps.newLinkedHashMap();
+        for (int i = 0; i < count; i++) {
+            rows.put(new TRowKey().setTableName(Bytes.toBytes("test")).setRow(new byte[] { (byte) i }), null);
+        }
+        return rows;
+    }
+
+    @Test
+    public void testGroupByRegionServer() throws Exception {
+        HaeinsaTablePool tablePool = createTablePool();
+        HaeinsaCommitScheduler scheduler = new HaeinsaCommitScheduler(tablePool, null);
+        final List<Integer> appliedRows = Lists.newArrayList();
+        scheduler.execute(createRows(7), new HaeinsaCommitScheduler.RowOperation() {
+            @Override
+            public void apply(HaeinsaTableIfaceInternal table, TRowKey rowKey, HaeinsaRowTransaction rowState) {
+                appliedRows.add((int) rowKey.getRow()[0]);
+            }
+        });
+        // rows on the same region server are executed consecutively, in order of first appearance.
+        Assert.assertEquals(appliedRows, Lists.newArrayList(0, 3, 6, 1, 4, 2, 5));
+        tablePool.close();
+    }
+
+    @Test
+    public void testConcurrentGroups() throws Exception {
+        HaeinsaTablePool tablePool = createTablePool();
+        ExecutorService executor = Executors.newFixedThreadPool(REGION_SERVER_COUNT);
+        HaeinsaCommitScheduler scheduler = new HaeinsaCommitScheduler(tablePool, executor);
+        final List<Integer> appliedRows = Collections.synchronizedList(Lists.<Integer>newArrayList());
+        final ConcurrentMap<String, List<Integer>> rowsByServer = Maps.newConcurrentMap();
+        scheduler.execute(createRows(30), new HaeinsaCommitScheduler.RowOperation() {
+            @Override
+            public void apply(HaeinsaTableIfaceInternal table, TRowKey rowKey, HaeinsaRowTransaction rowState) throws IOException {
+                String regionServer = table.getRegionServer(rowKey.getRow());
+                rowsByServer.putIfAbsent(regionServer, Collections.synchronizedList(Lists.<Integer>newArrayList()));
+                rowsByServer.get(regionServer).add((int) rowKey.getRow()[0]);
+                appliedRows.add((int) rowKey.getRow()[0]);
+            }
+        });
+        Assert.assertEquals(appliedRows.size(), 30);
+        Assert.assertEquals(rowsByServer.size(), REGION_SERVER_COUNT);
+        // rows in the same group are executed sequentially in given order.
+        for (List<Integer> rows : rowsByServer.values()) {
+            for (int i = 1; i < rows.size(); i++) {
+                Assert.assertEquals(rows.get(i) - rows.get(i - 1), REGION_SERVER_COUNT);
+            }
+        }
+
+        // exception of failed group should be thrown after all groups are finished.
+        appliedRows.clear();
+        try {
+            scheduler.execute(createRows(30), new HaeinsaCommitScheduler.RowOperation() {
+                @Override
+                public void apply(HaeinsaTableIfaceInternal table, TRowKey rowKey, HaeinsaRowTransaction rowState) throws IOException {
+                    if (rowKey.getRow()[0] == 4) {
+                        throw new ConflictException("conflict on row 4");
+                    }
+                    appliedRows.add((int) rowKey.getRow()[0]);
+                }
+            });
+            Assert.fail();
+        } catch (ConflictException e) {
+            // group of row 4 stops at row 4, rows after it in the group are not applied.
+            Assert.assertEquals(appliedRows.size(), 30 - 9);
+        }
+        executor.shutdown();
+        tablePool.close();
+    }
+
+    @Test(timeOut = 10000)
+    public void testNestedExecution() throws Exception {
+        HaeinsaTablePool tablePool = createTablePool();
+        // single thread is busy with groups, so tasks nested in a group can't be executed by the executor.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final HaeinsaCommitScheduler scheduler = new HaeinsaCommitScheduler(tablePool, executor);
+        final AtomicInteger nestedCount = new AtomicInteger();
+        scheduler.execute(createRows(REGION_SERVER_COUNT), new HaeinsaCommitScheduler.RowOperation() {
+            @Override
+            public void apply(HaeinsaTableIfaceInternal table, TRowKey rowKey, HaeinsaRowTransaction rowState) throws IOException {
+                List<Callable<Void>> tasks = Lists.newArrayList();
+                for (int i = 0; i < 2; i++) {
+                    tasks.add(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            nestedCount.incrementAndGet();
+                            return null;
+                        }
+                    });
+                }
+                scheduler.executeAll(tasks);
+            }
+        });
+        Assert.assertEquals(nestedCount.get(), REGION_SERVER_COUNT * 2);
+        executor.shutdown();
+        tablePool.close();
+    }
+}
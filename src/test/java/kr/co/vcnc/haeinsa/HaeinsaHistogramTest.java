@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class HaeinsaHistogramTest {
+
+    @Test
+    public void testPercentile() throws Exception {
+        HaeinsaHistogram histogram = new HaeinsaHistogram();
+        Assert.assertEquals(histogram.getPercentile(99), 0);
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(histogram.getCount(), 100);
+        Assert.assertEquals(histogram.getSum(), 5050);
+        Assert.assertEquals(histogram.getMax(), 100);
+        Assert.assertEquals(histogram.getMean(), 50.5, 0.001);
+        // 50th value is in bucket [32, 64), and 99th value is in bucket [64, 128) capped by max.
+        Assert.assertEquals(histogram.getPercentile(50), 63);
+        Assert.assertEquals(histogram.getPercentile(99), 100);
+
+        histogram.record(-1);
+        Assert.assertEquals(histogram.getPercentile(0.5), 0);
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+public class HaeinsaLocalRowLockTableTest {
+
+    private static TRowKey rowKey(String row) {
+        return new TRowKey().setTableName(Bytes.toBytes("test")).setRow(Bytes.toBytes(row));
+    }
+
+    @Test
+    public void testFailFast() throws Exception {
+        HaeinsaLocalRowLockTable lockTable = new HaeinsaLocalRowLockTable(4);
+        HaeinsaTransaction tx1 = new HaeinsaTransaction(null);
+        HaeinsaTransaction tx2 = new HaeinsaTransaction(null);
+        List<TRowKey> rows1 = Lists.newArrayList(rowKey("a"), rowKey("b"));
+        List<TRowKey> rows2 = Lists.newArrayList(rowKey("c"), rowKey("b"));
+
+        lockTable.lockAll(tx1, rows1);
+        Assert.assertEquals(lockTable.size(), 2);
+        try {
+            lockTable.lockAll(tx2, rows2);
+            Assert.fail();
+        } catch (ConflictException e) {
+            // lock of row c taken by tx2 should be released.
+            Assert.assertEquals(lockTable.size(), 2);
+        }
+        // tx2 can't release locks of tx1
+        lockTable.unlockAll(tx2, rows2);
+        Assert.assertEquals(lockTable.size(), 2);
+
+        lockTable.unlockAll(tx1, rows1);
+        Assert.assertEquals(lockTable.size(), 0);
+        lockTable.lockAll(tx2, rows2);
+        Assert.assertEquals(lockTable.size(), 2);
+    }
+
+    @Test
+    public void testWait() throws Exception {
+        final HaeinsaLocalRowLockTable lockTable = new HaeinsaLocalRowLockTable(4, 10, TimeUnit.SECONDS);
+        final HaeinsaTransaction tx1 = new HaeinsaTransaction(null);
+        HaeinsaTransaction tx2 = new HaeinsaTransaction(null);
+        final List<TRowKey> rows = Lists.newArrayList(rowKey("a"));
+
+        lockTable.lockAll(tx1, rows);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                lockTable.unlockAll(tx1, rows);
+            }
+        });
+        thread.start();
+        // tx2 waits until tx1 releases the lock.
+        lockTable.lockAll(tx2, rows);
+        thread.join();
+        Assert.assertEquals(lockTable.size(), 1);
+    }
+}
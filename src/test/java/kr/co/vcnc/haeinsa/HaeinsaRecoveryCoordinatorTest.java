@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class HaeinsaRecoveryCoordinatorTest {
+
+    private static TRowKey rowKey(String row) {
+        return new TRowKey().setTableName(Bytes.toBytes("test")).setRow(Bytes.toBytes(row));
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        final HaeinsaRecoveryCoordinator coordinator = new HaeinsaRecoveryCoordinator();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger executions = new AtomicInteger();
+        final Callable<Void> recovery = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                executions.incrementAndGet();
+                release.await();
+                throw new ConflictException("primary is not expired yet.");
+            }
+        };
+        final AtomicReference<Throwable> leaderFailure = new AtomicReference<Throwable>();
+        final AtomicReference<Throwable> followerFailure = new AtomicReference<Throwable>();
+
+        Thread leader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    coordinator.recover(rowKey("primary"), recovery);
+                } catch (Throwable t) {
+                    leaderFailure.set(t);
+                }
+            }
+        });
+        leader.start();
+        while (coordinator.size() == 0) {
+            Thread.sleep(1);
+        }
+
+        // same primary with differently positioned buffers joins the recovery in flight.
+        Thread follower = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ByteBuffer tableName = ByteBuffer.wrap(Bytes.toBytes("_test"));
+                    tableName.position(1);
+                    coordinator.recover(new TRowKey(tableName.slice(), ByteBuffer.wrap(Bytes.toBytes("primary"))), recovery);
+                } catch (Throwable t) {
+                    followerFailure.set(t);
+                }
+            }
+        });
+        follower.start();
+        while (coordinator.getSharedCount() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        leader.join();
+        follower.join();
+
+        Assert.assertEquals(executions.get(), 1);
+        Assert.assertTrue(leaderFailure.get() instanceof ConflictException);
+        Assert.assertSame(followerFailure.get(), leaderFailure.get());
+        Assert.assertEquals(coordinator.size(), 0);
+
+        // recovery is executed again after the previous one is finished.
+        coordinator.recover(rowKey("primary"), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                executions.incrementAndGet();
+                return null;
+            }
+        });
+        Assert.assertEquals(executions.get(), 2);
+        Assert.assertEquals(coordinator.getSharedCount(), 1);
+    }
+}
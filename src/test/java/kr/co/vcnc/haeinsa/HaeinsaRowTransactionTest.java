@@ -15,6 +15,9 @@
  */
 package kr.co.vcnc.haeinsa;
 
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue.Type;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -150,4 +153,63 @@ public class HaeinsaRowTransactionTest {
         Assert.assertEquals(merger.getLastPut().toTMutation(), expectedPut.toTMutation());
         Assert.assertFalse(merger.canExchangeDeleteAndPut());
     }
+
+    @Test
+    public void testScannersOfMergedMutations() throws Exception {
+        byte[] row = Bytes.toBytes("ymkim");
+        HaeinsaRowTransaction rowTx = new HaeinsaRowTransaction(null);
+        Assert.assertTrue(rowTx.getScanners().isEmpty());
+
+        HaeinsaPut put = new HaeinsaPut(row);
+        put.add(Bytes.toBytes("data"), Bytes.toBytes("phoneNumber"), Bytes.toBytes("010-1234-5678"));
+        put.add(Bytes.toBytes("data"), Bytes.toBytes("address"), Bytes.toBytes("Seoul"));
+        rowTx.addMutation(put);
+
+        HaeinsaDelete delete = new HaeinsaDelete(row);
+        delete.deleteColumns(Bytes.toBytes("data"), Bytes.toBytes("phoneNumber"));
+        delete.deleteFamily(Bytes.toBytes("meta"));
+        rowTx.addMutation(delete);
+
+        put = new HaeinsaPut(row);
+        put.add(Bytes.toBytes("meta"), Bytes.toBytes("name"), Bytes.toBytes("Kim"));
+        put.add(Bytes.toBytes("data"), Bytes.toBytes("address"), Bytes.toBytes("Busan"));
+        rowTx.addMutation(put);
+
+        List<HaeinsaKeyValueScanner> scanners = rowTx.getScanners();
+        Assert.assertEquals(scanners.size(), 1);
+        HaeinsaKeyValueScanner scanner = scanners.get(0);
+        Assert.assertEquals(scanner.getSequenceID(), 1);
+
+        HaeinsaKeyValue kv = scanner.next();
+        Assert.assertEquals(kv.getType(), Type.Put);
+        Assert.assertTrue(kv.matchingColumn(Bytes.toBytes("data"), Bytes.toBytes("address")));
+        Assert.assertEquals(kv.getValue(), Bytes.toBytes("Busan"));
+
+        kv = scanner.next();
+        Assert.assertEquals(kv.getType(), Type.DeleteColumn);
+        Assert.assertTrue(kv.matchingColumn(Bytes.toBytes("data"), Bytes.toBytes("phoneNumber")));
+
+        kv = scanner.next();
+        Assert.assertEquals(kv.getType(), Type.DeleteFamily);
+        Assert.assertEquals(kv.getFamily(), Bytes.toBytes("meta"));
+
+        kv = scanner.next();
+        Assert.assertEquals(kv.getType(), Type.Put);
+        Assert.assertTrue(kv.matchingColumn(Bytes.toBytes("meta"), Bytes.toBytes("name")));
+
+        Assert.assertNull(scanner.peek());
+
+        // delete family removes every buffered key-value of the family.
+        delete = new HaeinsaDelete(row);
+        delete.deleteFamily(Bytes.toBytes("data"));
+        rowTx.addMutation(delete);
+
+        scanner = rowTx.getScanners().get(0);
+        kv = scanner.next();
+        Assert.assertEquals(kv.getType(), Type.DeleteFamily);
+        Assert.assertEquals(kv.getFamily(), Bytes.toBytes("data"));
+        kv = scanner.next();
+        Assert.assertEquals(kv.getType(), Type.DeleteFamily);
+        Assert.assertEquals(kv.getFamily(), Bytes.toBytes("meta"));
+    }
 }
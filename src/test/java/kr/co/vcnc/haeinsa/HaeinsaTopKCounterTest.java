@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class HaeinsaTopKCounterTest {
+
+    @Test
+    public void testTopK() throws Exception {
+        HaeinsaTopKCounter<String> counter = new HaeinsaTopKCounter<String>(3);
+        Assert.assertTrue(counter.getTop(10).isEmpty());
+        for (int i = 0; i < 100; i++) {
+            counter.offer("hot");
+            if (i % 2 == 0) {
+                counter.offer("warm");
+            }
+        }
+        // cold keys evict each other, and never evict frequent keys.
+        for (int i = 0; i < 20; i++) {
+            counter.offer("cold" + i);
+        }
+        List<Entry<String, Long>> top = counter.getTop(2);
+        Assert.assertEquals(top.size(), 2);
+        Assert.assertEquals(top.get(0).getKey(), "hot");
+        Assert.assertEquals(top.get(0).getValue(), Long.valueOf(100));
+        Assert.assertEquals(top.get(1).getKey(), "warm");
+        Assert.assertEquals(top.get(1).getValue(), Long.valueOf(50));
+
+        // new key inherits minimum count, which is an upper bound of its actual count.
+        List<Entry<String, Long>> all = counter.getTop(10);
+        Assert.assertEquals(all.size(), 3);
+        Assert.assertEquals(all.get(2).getKey(), "cold19");
+        Assert.assertEquals(all.get(2).getValue(), Long.valueOf(20));
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class HaeinsaTrackerTest {
+
+    private static HaeinsaKeyValue put(String family, String qualifier) {
+        return new HaeinsaKeyValue(Bytes.toBytes("row"), Bytes.toBytes(family), Bytes.toBytes(qualifier), Bytes.toBytes("value"), Type.Put);
+    }
+
+    @Test
+    public void testDeleteTracker() {
+        HaeinsaDeleteTracker tracker = new HaeinsaDeleteTracker();
+        byte[] row = Bytes.toBytes("row");
+        tracker.add(new HaeinsaKeyValue(row, Bytes.toBytes("data"), Bytes.toBytes("b"), null, Type.DeleteColumn), 5);
+        tracker.add(new HaeinsaKeyValue(row, Bytes.toBytes("data"), Bytes.toBytes("a"), null, Type.DeleteColumn), 7);
+        tracker.add(new HaeinsaKeyValue(row, Bytes.toBytes("data"), Bytes.toBytes("a"), null, Type.DeleteColumn), 3);
+        tracker.add(new HaeinsaKeyValue(row, Bytes.toBytes("meta"), null, null, Type.DeleteFamily), 4);
+
+        // deletes only hide older (higher sequenceID) key values, lowest sequenceID of same column is kept.
+        Assert.assertTrue(tracker.isDeleted(put("data", "a"), 4));
+        Assert.assertFalse(tracker.isDeleted(put("data", "a"), 3));
+        Assert.assertTrue(tracker.isDeleted(put("data", "b"), 6));
+        Assert.assertFalse(tracker.isDeleted(put("data", "b"), 5));
+        Assert.assertFalse(tracker.isDeleted(put("data", "c"), 10));
+        Assert.assertTrue(tracker.isDeleted(put("meta", "anything"), 10));
+        Assert.assertFalse(tracker.isDeleted(put("meta", "anything"), 1));
+        Assert.assertTrue(tracker.isDeleted(put("data", "a")));
+
+        tracker.reset();
+        Assert.assertFalse(tracker.isDeleted(put("data", "a")));
+        Assert.assertFalse(tracker.isDeleted(put("meta", "anything")));
+
+        // grow beyond initial capacity after reset
+        for (int i = 20; i > 0; i--) {
+            tracker.add(new HaeinsaKeyValue(row, Bytes.toBytes("data"), Bytes.toBytes("q" + i), null, Type.DeleteColumn), i);
+            tracker.add(new HaeinsaKeyValue(row, Bytes.toBytes("family" + i), null, null, Type.DeleteFamily), i);
+        }
+        for (int i = 1; i <= 20; i++) {
+            Assert.assertTrue(tracker.isDeleted(put("data", "q" + i)));
+            Assert.assertTrue(tracker.isDeleted(put("family" + i, "q")));
+        }
+        Assert.assertFalse(tracker.isDeleted(put("data", "q0")));
+    }
+
+    @Test
+    public void testColumnTracker() {
+        NavigableSet<byte[]> qualifiers = Sets.newTreeSet(Bytes.BYTES_COMPARATOR);
+        qualifiers.add(Bytes.toBytes("name"));
+        qualifiers.add(Bytes.toBytes("address"));
+        NavigableMap<byte[], NavigableSet<byte[]>> familyMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        familyMap.put(Bytes.toBytes("meta"), null);
+        familyMap.put(Bytes.toBytes("data"), qualifiers);
+
+        HaeinsaColumnTracker tracker = new HaeinsaColumnTracker(familyMap, null, false, null, false);
+        Assert.assertTrue(tracker.isMatched(put("data", "name")));
+        Assert.assertTrue(tracker.isMatched(put("data", "address")));
+        Assert.assertFalse(tracker.isMatched(put("data", "phoneNumber")));
+        Assert.assertTrue(tracker.isMatched(put("meta", "anything")));
+        Assert.assertFalse(tracker.isMatched(put("other", "name")));
+
+        tracker = new HaeinsaColumnTracker(familyMap, Bytes.toBytes("address"), false, Bytes.toBytes("name"), true);
+        Assert.assertTrue(tracker.isMatched(put("data", "name")));
+        Assert.assertFalse(tracker.isMatched(put("data", "address")));
+
+        tracker = new HaeinsaColumnTracker(Maps.<byte[], NavigableSet<byte[]>>newHashMap(), null, false, null, false);
+        Assert.assertTrue(tracker.isMatched(put("other", "name")));
+    }
+}
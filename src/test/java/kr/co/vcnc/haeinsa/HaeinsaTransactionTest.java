@@ -15,19 +15,47 @@
  */
 package kr.co.vcnc.haeinsa;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.Nullable;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
 import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+import kr.co.vcnc.haeinsa.timestamp.HybridLogicalClock;
+import kr.co.vcnc.haeinsa.timestamp.LeasedTimestampOracle;
+import kr.co.vcnc.haeinsa.timestamp.LocalTimestampBlockAllocator;
+import kr.co.vcnc.haeinsa.timestamp.RemoteTimestampBlockAllocator;
+import kr.co.vcnc.haeinsa.timestamp.TimestampOracleServer;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HConnectionManager;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
 public class HaeinsaTransactionTest extends HaeinsaTestBase {
 
     @Test
@@ -143,4 +171,822 @@ public class HaeinsaTransactionTest extends HaeinsaTestBase {
             Assert.assertEquals(rowLock.getExpiry(), tx.getExpiry());
         }
     }
+
+    @Test
+    public void testCompactReadSet() throws Exception {
+        final HaeinsaTransactionManager tm = context().getTransactionManager();
+        final HaeinsaTableIface table = context().getHaeinsaTableIface("test");
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("qualifier");
+
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < 5; i++) {
+            table.put(tx, new HaeinsaPut(Bytes.toBytes("row" + i)).add(family, qualifier, Bytes.toBytes("value" + i)));
+        }
+        tx.commit();
+
+        // read-only transaction with compact read-set
+        tx = tm.begin();
+        Assert.assertEquals(scanWithCompactReadSet(table, tx), 5);
+        HaeinsaTableTransaction tableState = tx.createOrGetTableState(table.getTableName());
+        Assert.assertTrue(tableState.getRowStates().isEmpty());
+        Assert.assertEquals(tableState.getReadSet().size(), 5);
+        tx.commit();
+
+        // conflict if scanned row is modified by other transaction
+        tx = tm.begin();
+        scanWithCompactReadSet(table, tx);
+        HaeinsaTransaction otherTx = tm.begin();
+        table.put(otherTx, new HaeinsaPut(Bytes.toBytes("row3")).add(family, qualifier, Bytes.toBytes("modified")));
+        otherTx.commit();
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("row9")).add(family, qualifier, Bytes.toBytes("value9")));
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (ConflictException e) {
+            // expected
+        }
+        Assert.assertNull(table.get(tm.begin(), new HaeinsaGet(Bytes.toBytes("row9"))).getValue(family, qualifier));
+
+        // scanned row can be accessed again in same transaction
+        tx = tm.begin();
+        scanWithCompactReadSet(table, tx);
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("row2")).add(family, qualifier, Bytes.toBytes("modified")));
+        tx.commit();
+
+        // conflict if scanned row is modified before it is accessed again
+        tx = tm.begin();
+        scanWithCompactReadSet(table, tx);
+        otherTx = tm.begin();
+        table.put(otherTx, new HaeinsaPut(Bytes.toBytes("row1")).add(family, qualifier, Bytes.toBytes("modified")));
+        otherTx.commit();
+        table.get(tx, new HaeinsaGet(Bytes.toBytes("row1")));
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (ConflictException e) {
+            // expected
+        }
+
+        table.close();
+    }
+
+    @Test
+    public void testCompactReadSetWithInterleavedScanners() throws Exception {
+        final HaeinsaTransactionManager tm = new HaeinsaTransactionManager(context().getTransactionManager().getTablePool());
+        final HaeinsaTableIface table = context().getHaeinsaTableIface("test");
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("qualifier");
+
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < 6; i++) {
+            table.put(tx, new HaeinsaPut(Bytes.toBytes("interleaved" + i)).add(family, qualifier, Bytes.toBytes("value" + i)));
+        }
+        tx.commit();
+
+        // rows read by two scanners opened together are interleaved in read-set.
+        tx = tm.begin();
+        readInterleaved(table, tx);
+        Assert.assertEquals(tx.createOrGetTableState(table.getTableName()).getReadSet().size(), 6);
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("interleaved9")).add(family, qualifier, Bytes.toBytes("value9")));
+        tx.commit();
+
+        // conflict if a row of the first scanner is modified by other transaction
+        tx = tm.begin();
+        readInterleaved(table, tx);
+        HaeinsaTransaction otherTx = tm.begin();
+        table.put(otherTx, new HaeinsaPut(Bytes.toBytes("interleaved5")).add(family, qualifier, Bytes.toBytes("modified")));
+        otherTx.commit();
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (ConflictException e) {
+            // conflict is counted on the row which is modified.
+            Assert.assertEquals(tm.getMetrics().getConflictCount(HaeinsaPhase.CHECK_READ_SET), 1);
+            Entry<String, Long> hotRow = Iterables.getOnlyElement(tm.getMetrics().getHotConflictRows().entrySet());
+            Assert.assertTrue(hotRow.getKey().endsWith(":interleaved5"));
+        }
+
+        table.close();
+    }
+
+    /**
+     * Read interleaved3 ~ interleaved5 and interleaved0 ~ interleaved2 by two scanners alternately.
+     */
+    private void readInterleaved(HaeinsaTableIface table, HaeinsaTransaction tx) throws Exception {
+        HaeinsaScan first = new HaeinsaScan().setCompactReadSet(true);
+        first.setStartRow(Bytes.toBytes("interleaved3"));
+        first.setStopRow(Bytes.toBytes("interleaved6"));
+        HaeinsaScan second = new HaeinsaScan().setCompactReadSet(true);
+        second.setStartRow(Bytes.toBytes("interleaved0"));
+        second.setStopRow(Bytes.toBytes("interleaved3"));
+        try (HaeinsaResultScanner firstScanner = table.getScanner(tx, first);
+                HaeinsaResultScanner secondScanner = table.getScanner(tx, second)) {
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(firstScanner.next().getRow(), Bytes.toBytes("interleaved" + (i + 3)));
+                Assert.assertEquals(secondScanner.next().getRow(), Bytes.toBytes("interleaved" + i));
+            }
+            Assert.assertNull(firstScanner.next());
+            Assert.assertNull(secondScanner.next());
+        }
+    }
+
+    @Test
+    public void testScanWithVisitor() throws Exception {
+        final HaeinsaTransactionManager tm = context().getTransactionManager();
+        final HaeinsaTableIface table = context().getHaeinsaTableIface("test");
+        final byte[] family = Bytes.toBytes("data");
+
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < 5; i++) {
+            table.put(tx, new HaeinsaPut(Bytes.toBytes("row" + i))
+                    .add(family, Bytes.toBytes("a"), Bytes.toBytes("value" + i))
+                    .add(family, Bytes.toBytes("b"), Bytes.toBytes("value" + i)));
+        }
+        tx.commit();
+
+        // visitor sees buffered mutations of the transaction
+        tx = tm.begin();
+        HaeinsaDelete delete = new HaeinsaDelete(Bytes.toBytes("row1"));
+        delete.deleteColumns(family, Bytes.toBytes("a"));
+        table.delete(tx, delete);
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("row5")).add(family, Bytes.toBytes("a"), Bytes.toBytes("value5")));
+        final List<String> visited = Lists.newArrayList();
+        table.scan(tx, new HaeinsaScan(), new HaeinsaRowVisitor() {
+            private int count;
+
+            @Override
+            public boolean visit(HaeinsaKeyValue kv) {
+                count++;
+                return true;
+            }
+
+            @Override
+            public boolean endRow(byte[] row) {
+                visited.add(Bytes.toString(row) + ":" + count);
+                count = 0;
+                return true;
+            }
+        });
+        Assert.assertEquals(visited, Lists.newArrayList("row0:2", "row1:1", "row2:2", "row3:2", "row4:2", "row5:1"));
+        // locks of visited rows are tracked same as scanner.
+        Assert.assertEquals(tx.createOrGetTableState(table.getTableName()).getRowStates().size(), 6);
+        tx.rollback();
+
+        // visitor stops in the middle of scan
+        tx = tm.begin();
+        visited.clear();
+        table.scan(tx, new HaeinsaScan(), new HaeinsaRowVisitor() {
+            @Override
+            public boolean visit(HaeinsaKeyValue kv) {
+                visited.add(Bytes.toString(kv.getRow()) + ":" + Bytes.toString(kv.getQualifier()));
+                return visited.size() < 3;
+            }
+
+            @Override
+            public boolean endRow(byte[] row) {
+                return true;
+            }
+        });
+        Assert.assertEquals(visited, Lists.newArrayList("row0:a", "row0:b", "row1:a"));
+        Assert.assertEquals(tx.createOrGetTableState(table.getTableName()).getRowStates().size(), 2);
+        tx.rollback();
+
+        // scan without transaction
+        visited.clear();
+        table.scan(null, new HaeinsaScan(), new HaeinsaRowVisitor() {
+            @Override
+            public boolean visit(HaeinsaKeyValue kv) {
+                return true;
+            }
+
+            @Override
+            public boolean endRow(byte[] row) {
+                visited.add(Bytes.toString(row));
+                return visited.size() < 2;
+            }
+        });
+        Assert.assertEquals(visited, Lists.newArrayList("row0", "row1"));
+
+        table.close();
+    }
+
+    private int scanWithCompactReadSet(HaeinsaTableIface table, HaeinsaTransaction tx) throws Exception {
+        int count = 0;
+        try (HaeinsaResultScanner scanner = table.getScanner(tx, new HaeinsaScan().setCompactReadSet(true))) {
+            for (HaeinsaResult result : scanner) {
+                Assert.assertFalse(result.isEmpty());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testLocalRowLock() throws Exception {
+        final HaeinsaLocalRowLockTable lockTable = new HaeinsaLocalRowLockTable(4);
+        final HaeinsaTransactionManager tm = HaeinsaTransactionManager.builder(context().getTransactionManager().getTablePool())
+                .setLocalRowLocks(lockTable)
+                .build();
+        final HaeinsaTableIface table = context().getHaeinsaTableIface("test");
+        final HTableInterface hTable = context().getHTableInterface("test");
+        final byte[] row = Bytes.toBytes("row");
+        final byte[] family = Bytes.toBytes("data");
+
+        // other transaction of this process is committing the row.
+        HaeinsaTransaction otherTx = tm.begin();
+        List<TRowKey> rowKeys = Lists.newArrayList(new TRowKey().setTableName(table.getTableName()).setRow(row));
+        lockTable.lockAll(otherTx, rowKeys);
+
+        final AtomicReference<Throwable> commitFailure = new AtomicReference<>();
+        tm.addListener(new HaeinsaTransactionListener() {
+            @Override
+            public void onCommit(HaeinsaTransaction tx, long elapsedNanos, @Nullable Throwable failure) {
+                commitFailure.set(failure);
+            }
+        });
+        HaeinsaTransaction tx = tm.begin();
+        table.put(tx, new HaeinsaPut(row).add(family, Bytes.toBytes("a"), Bytes.toBytes("value")));
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("row2")).add(family, Bytes.toBytes("a"), Bytes.toBytes("value")));
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (ConflictException e) {
+            // transaction fails before prewrite
+            Assert.assertSame(commitFailure.get(), e);
+        }
+        // conflict on local lock is measured as a failed commit, and counted on the row.
+        Assert.assertEquals(tm.getMetrics().getCommitCount(), 1);
+        Assert.assertEquals(tm.getMetrics().getConflictCount(HaeinsaPhase.LOCAL_ROW_LOCK), 1);
+        Assert.assertTrue(Iterables.getOnlyElement(tm.getMetrics().getHotConflictRows().keySet()).endsWith(":row"));
+        Assert.assertFalse(TestingUtility.checkLockExist(hTable, row));
+        Assert.assertFalse(TestingUtility.checkLockExist(hTable, Bytes.toBytes("row2")));
+        Assert.assertEquals(lockTable.size(), 1);
+
+        lockTable.unlockAll(otherTx, rowKeys);
+        tx = tm.begin();
+        table.put(tx, new HaeinsaPut(row).add(family, Bytes.toBytes("a"), Bytes.toBytes("value")));
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("row2")).add(family, Bytes.toBytes("a"), Bytes.toBytes("value")));
+        tx.commit();
+        Assert.assertEquals(lockTable.size(), 0);
+
+        tx = tm.begin();
+        Assert.assertEquals(table.get(tx, new HaeinsaGet(row)).getValue(family, Bytes.toBytes("a")), Bytes.toBytes("value"));
+        tx.rollback();
+
+        table.close();
+        hTable.close();
+    }
+
+    @Test
+    public void testExecuteWithRetry() throws Exception {
+        final HaeinsaTransactionManager tm = new HaeinsaTransactionManager(context().getTransactionManager().getTablePool());
+        final HaeinsaTableIface table = context().getHaeinsaTableIface("test");
+        final byte[] row = Bytes.toBytes("counter");
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("count");
+        HaeinsaRetryPolicy policy = new HaeinsaRetryPolicy().setMaxAttempts(3).setInitialBackoffMillis(1);
+
+        // first attempt conflicts with other transaction which increments counter concurrently.
+        long count = tm.execute(new HaeinsaTransactionBody<Long>() {
+            private int attempt;
+
+            @Override
+            public Long execute(HaeinsaTransaction tx) throws IOException {
+                long count = getCount(table, tx, row, family, qualifier) + 1;
+                table.put(tx, new HaeinsaPut(row).add(family, qualifier, Bytes.toBytes(count)));
+                if (attempt++ == 0) {
+                    HaeinsaTransaction otherTx = tm.begin();
+                    long otherCount = getCount(table, otherTx, row, family, qualifier) + 1;
+                    table.put(otherTx, new HaeinsaPut(row).add(family, qualifier, Bytes.toBytes(otherCount)));
+                    otherTx.commit();
+                }
+                return count;
+            }
+        }, policy);
+        Assert.assertEquals(count, 2);
+        Assert.assertEquals(tm.getRetryMetrics().getAttempts(), 2);
+        Assert.assertEquals(tm.getRetryMetrics().getRetries(), 1);
+        Assert.assertEquals(tm.getRetryMetrics().getFailures(), 0);
+
+        // conflict is retried up to maxAttempts
+        try {
+            tm.execute(new HaeinsaTransactionBody<Void>() {
+                @Override
+                public Void execute(HaeinsaTransaction tx) throws IOException {
+                    throw new ConflictException("conflict");
+                }
+            }, policy);
+            Assert.fail();
+        } catch (ConflictException e) {
+            Assert.assertEquals(tm.getRetryMetrics().getAttempts(), 2 + 3);
+            Assert.assertEquals(tm.getRetryMetrics().getFailures(), 1);
+        }
+
+        // other exceptions are not retried
+        try {
+            tm.execute(new HaeinsaTransactionBody<Void>() {
+                @Override
+                public Void execute(HaeinsaTransaction tx) throws IOException {
+                    throw new IOException("failure");
+                }
+            }, policy);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertFalse(e instanceof ConflictException);
+            Assert.assertEquals(tm.getRetryMetrics().getAttempts(), 2 + 3 + 1);
+            Assert.assertEquals(tm.getRetryMetrics().getExecutions(), 3);
+        }
+
+        // deadline of the attempt doesn't shorten timeout of locks written by the attempt
+        try {
+            tm.execute(new HaeinsaTransactionBody<Void>() {
+                @Override
+                public Void execute(HaeinsaTransaction tx) throws IOException {
+                    Assert.assertEquals(tx.getTimeout(), HaeinsaConstants.DEFAULT_ROW_LOCK_TIMEOUT);
+                    table.put(tx, new HaeinsaPut(row).add(family, qualifier, Bytes.toBytes(0L)));
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return null;
+                }
+            }, new HaeinsaRetryPolicy().setMaxAttempts(1).setAttemptTimeoutMillis(10));
+            Assert.fail();
+        } catch (ConflictException e) {
+            Assert.assertEquals(tm.getRetryMetrics().getFailures(), 3);
+        }
+        HaeinsaTransaction tx = tm.begin();
+        Assert.assertEquals(getCount(table, tx, row, family, qualifier), 2);
+        tx.rollback();
+        table.close();
+    }
+
+    private static long getCount(HaeinsaTableIface table, HaeinsaTransaction tx, byte[] row, byte[] family, byte[] qualifier)
+            throws IOException {
+        byte[] value = table.get(tx, new HaeinsaGet(row).addColumn(family, qualifier)).getValue(family, qualifier);
+        return value == null ? 0 : Bytes.toLong(value);
+    }
+
+    @Test
+    public void testLockLeaseRenewal() throws Exception {
+        final byte[] tableName = context().getHaeinsaTableIface("test").getTableName();
+        final byte[] family = Bytes.toBytes("data");
+        final Configuration conf = context().getCluster().getConfiguration();
+        final ExecutorService threadPool = Executors.newCachedThreadPool();
+        // remaining time until expiry of primary lock, which is read after slow prewrite of secondary row
+        final AtomicLong remainingExpiry = new AtomicLong();
+        // whether renewal of lock is applied but client fails to get its result
+        final AtomicBoolean ambiguousRenewal = new AtomicBoolean();
+        final HaeinsaTableIfaceFactory sharedFactory = new SharedConnectionHaeinsaTableIfaceFactory(
+                HConnectionManager.getConnection(conf), threadPool);
+        HaeinsaTablePool tablePool = new HaeinsaTablePool(conf, 128, new HaeinsaTableIfaceFactory() {
+            @Override
+            public HaeinsaTableIface createHaeinsaTableIface(Configuration config, byte[] tableName) {
+                return new ForwardingHaeinsaTable(sharedFactory.createHaeinsaTableIface(config, tableName)) {
+                    @Override
+                    public void prewrite(HaeinsaRowTransaction rowState, byte[] row, boolean isPrimary) throws IOException {
+                        super.prewrite(rowState, row, isPrimary);
+                        if (!isPrimary) {
+                            try {
+                                Thread.sleep(1000);
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                            TRowKey primary = rowState.getTableTransaction().getTransaction().getPrimary();
+                            TRowLock primaryRowLock = delegate().getRowLock(primary.getRow());
+                            remainingExpiry.set(primaryRowLock.getExpiry() - System.currentTimeMillis());
+                        }
+                    }
+
+                    @Override
+                    public void renewLock(HaeinsaRowTransaction rowState, byte[] row, long expiry) throws IOException {
+                        super.renewLock(rowState, row, expiry);
+                        if (ambiguousRenewal.get()) {
+                            throw new IOException("timeout after renewal is applied");
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public void releaseHaeinsaTableIface(HaeinsaTableIface table) throws IOException {
+                table.close();
+            }
+        });
+
+        // without renewal, primary lock is expired during slow commit.
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(tablePool);
+        commitSlowTransaction(tm, tableName, family);
+        Assert.assertTrue(remainingExpiry.get() < 0);
+
+        // with renewal, primary lock is not expired.
+        HaeinsaLockLeaseRenewer lockLeaseRenewer = new HaeinsaLockLeaseRenewer(1);
+        tm = HaeinsaTransactionManager.builder(tablePool).setLockLeaseRenewer(lockLeaseRenewer).build();
+        commitSlowTransaction(tm, tableName, family);
+        Assert.assertTrue(remainingExpiry.get() > 0);
+
+        // lock renewed by ambiguous failure is adopted by the transaction.
+        ambiguousRenewal.set(true);
+        commitSlowTransaction(tm, tableName, family);
+        Assert.assertTrue(remainingExpiry.get() > 0);
+
+        lockLeaseRenewer.close();
+        tablePool.close();
+        threadPool.shutdown();
+    }
+
+    private static void commitSlowTransaction(HaeinsaTransactionManager tm, byte[] tableName, byte[] family) throws IOException {
+        try (HaeinsaTableIface table = tm.getTablePool().getTable(tableName)) {
+            HaeinsaTransaction tx = tm.begin();
+            tx.setTimeout(300);
+            table.put(tx, new HaeinsaPut(Bytes.toBytes("row1")).add(family, Bytes.toBytes("a"), Bytes.toBytes("value")));
+            table.put(tx, new HaeinsaPut(Bytes.toBytes("row2")).add(family, Bytes.toBytes("a"), Bytes.toBytes("value")));
+            tx.commit();
+        }
+    }
+
+    @Test
+    public void testAbortAfterConcurrentPrewrite() throws Exception {
+        final byte[] tableName = context().getHaeinsaTableIface("test").getTableName();
+        final HTableInterface hTable = context().getHTableInterface("test");
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("value");
+        // rows in commit order, which are primary row, row which conflicts and row which is prewritten slowly.
+        final byte[][] rows = new byte[3][];
+        List<TRowKey> rowKeys = Lists.newArrayList();
+        for (String row : new String[] { "row1", "row2", "row3" }) {
+            rowKeys.add(new TRowKey().setTableName(tableName).setRow(Bytes.toBytes(row)));
+        }
+        Collections.sort(rowKeys, new HaeinsaTransaction.HashComparator());
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = rowKeys.get(i).getRow();
+        }
+        final Configuration conf = context().getCluster().getConfiguration();
+        final ExecutorService threadPool = Executors.newCachedThreadPool();
+        final AtomicBoolean slowPrewriteFinished = new AtomicBoolean();
+        // whether slow prewrite was finished when primary row is aborted, for each abort of primary row
+        final List<Boolean> abortsOfPrimary = Collections.synchronizedList(Lists.<Boolean>newArrayList());
+        final HaeinsaTableIfaceFactory sharedFactory = new SharedConnectionHaeinsaTableIfaceFactory(
+                HConnectionManager.getConnection(conf), threadPool);
+        // every row is located on its own region server, and prewrite of the last row is slow.
+        HaeinsaTablePool tablePool = new HaeinsaTablePool(conf, 128, new HaeinsaTableIfaceFactory() {
+            @Override
+            public HaeinsaTableIface createHaeinsaTableIface(Configuration config, byte[] tableName) {
+                return new ForwardingHaeinsaTable(sharedFactory.createHaeinsaTableIface(config, tableName)) {
+                    @Override
+                    @Nullable
+                    public String getRegionServer(byte[] row) throws IOException {
+                        return Bytes.toString(row);
+                    }
+
+                    @Override
+                    public void prewrite(HaeinsaRowTransaction rowState, byte[] row, boolean isPrimary) throws IOException {
+                        if (Bytes.equals(row, rows[2])) {
+                            try {
+                                Thread.sleep(500);
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                        }
+                        super.prewrite(rowState, row, isPrimary);
+                        if (Bytes.equals(row, rows[2])) {
+                            slowPrewriteFinished.set(true);
+                        }
+                    }
+
+                    @Override
+                    public void abortPrimary(HaeinsaRowTransaction rowState, byte[] row) throws IOException {
+                        abortsOfPrimary.add(slowPrewriteFinished.get());
+                        super.abortPrimary(rowState, row);
+                    }
+                };
+            }
+
+            @Override
+            public void releaseHaeinsaTableIface(HaeinsaTableIface table) throws IOException {
+                table.close();
+            }
+        });
+        ExecutorService commitExecutor = Executors.newFixedThreadPool(2);
+        HaeinsaTransactionManager tm = HaeinsaTransactionManager.builder(tablePool).setCommitExecutor(commitExecutor).build();
+
+        try (HaeinsaTableIface table = tablePool.getTable(tableName)) {
+            HaeinsaTransaction tx = tm.begin();
+            for (byte[] row : rows) {
+                table.put(tx, new HaeinsaPut(row).add(family, qualifier, Bytes.toBytes("value")));
+            }
+            // other transaction modifies second row, so that its prewrite fails while the last row is being prewritten.
+            HaeinsaTransaction otherTx = tm.begin();
+            table.put(otherTx, new HaeinsaPut(rows[1]).add(family, qualifier, Bytes.toBytes("other")));
+            otherTx.commit();
+            try {
+                tx.commit();
+                Assert.fail();
+            } catch (ConflictException e) {
+                // expected
+            }
+        }
+        // transaction is aborted once after slow prewrite is finished, so no row is left prewritten.
+        Assert.assertEquals(abortsOfPrimary, Lists.newArrayList(true));
+        for (byte[] row : rows) {
+            Assert.assertEquals(TRowLocks.deserialize(TestingUtility.getLock(hTable, row)).getState(), TRowLockState.STABLE);
+        }
+
+        commitExecutor.shutdown();
+        tablePool.close();
+        threadPool.shutdown();
+        hTable.close();
+    }
+
+    @Test
+    public void testTimestampOracle() throws Exception {
+        final HaeinsaTableIface table = context().getHaeinsaTableIface("test");
+        final HTableInterface hTable = context().getHTableInterface("test");
+        final byte[] row = Bytes.toBytes("row");
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("value");
+
+        // oracle server which is ahead of local clock.
+        long lowerBound = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        TimestampOracleServer server = new TimestampOracleServer(0, new LocalTimestampBlockAllocator(lowerBound));
+        RemoteTimestampBlockAllocator allocator = new RemoteTimestampBlockAllocator("localhost", server.getPort());
+        HaeinsaTransactionManager tm = HaeinsaTransactionManager.builder(context().getTransactionManager().getTablePool())
+                .setTimestampOracle(new LeasedTimestampOracle(allocator, 100, 1000))
+                .build();
+
+        HaeinsaTransaction tx = tm.begin();
+        table.put(tx, new HaeinsaPut(row).add(family, qualifier, Bytes.toBytes("value1")));
+        tx.commit();
+        long commitTimestamp = TRowLocks.deserialize(TestingUtility.getLock(hTable, row)).getCommitTimestamp();
+        Assert.assertTrue(commitTimestamp > lowerBound);
+
+        tx = tm.begin();
+        table.put(tx, new HaeinsaPut(row).add(family, qualifier, Bytes.toBytes("value2")));
+        tx.commit();
+        Assert.assertTrue(TRowLocks.deserialize(TestingUtility.getLock(hTable, row)).getCommitTimestamp() > commitTimestamp);
+
+        tx = tm.begin();
+        Assert.assertEquals(table.get(tx, new HaeinsaGet(row)).getValue(family, qualifier), Bytes.toBytes("value2"));
+        tx.rollback();
+
+        allocator.close();
+        server.close();
+        table.close();
+        hTable.close();
+    }
+
+    @Test
+    public void testHybridLogicalClock() throws Exception {
+        final HaeinsaTableIface table = context().getHaeinsaTableIface("test");
+        final HTableInterface hTable = context().getHTableInterface("test");
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("value");
+        final HaeinsaTablePool tablePool = context().getTransactionManager().getTablePool();
+
+        // other client whose timestamps are ahead of local clock commits row1.
+        long lowerBound = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        HaeinsaTransactionManager otherTm = HaeinsaTransactionManager.builder(tablePool)
+                .setTimestampOracle(new LeasedTimestampOracle(new LocalTimestampBlockAllocator(lowerBound), 100, 1000))
+                .build();
+        HaeinsaTransaction tx = otherTm.begin();
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("row1")).add(family, qualifier, Bytes.toBytes("value")));
+        tx.commit();
+        long row1CommitTimestamp = TRowLocks.deserialize(TestingUtility.getLock(hTable, Bytes.toBytes("row1"))).getCommitTimestamp();
+
+        // transaction which observed row1 makes clock of the manager follow it.
+        HybridLogicalClock clock = new HybridLogicalClock();
+        HaeinsaTransactionManager tm = HaeinsaTransactionManager.builder(tablePool).setTimestampOracle(clock).build();
+        tx = tm.begin();
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("row1")).add(family, qualifier, Bytes.toBytes("value2")));
+        tx.commit();
+        // expiry is computed from physical time, not from commit timestamp ahead of it.
+        Assert.assertTrue(tx.getCommitTimestamp() > row1CommitTimestamp);
+        Assert.assertTrue(tx.getExpiry() <= System.currentTimeMillis() + tx.getTimeout());
+
+        // following transaction on other row is ordered after it, although local clock is behind.
+        long previousCommitTimestamp = tx.getCommitTimestamp();
+        tx = tm.begin();
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("row2")).add(family, qualifier, Bytes.toBytes("value")));
+        tx.commit();
+        Assert.assertTrue(tx.getCommitTimestamp() > previousCommitTimestamp);
+        Assert.assertTrue(clock.getLast() >= tx.getCommitTimestamp());
+
+        table.close();
+        hTable.close();
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final HaeinsaTableIface table = context().getHaeinsaTableIface("test");
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("value");
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(context().getTransactionManager().getTablePool());
+        HaeinsaMetrics metrics = tm.getMetrics();
+
+        HaeinsaTransaction tx = tm.begin();
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("row1")).add(family, qualifier, Bytes.toBytes("value")));
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("row2")).add(family, qualifier, Bytes.toBytes("value")));
+        tx.commit();
+        Assert.assertEquals(metrics.getCommitCount(), 1);
+        Assert.assertEquals(metrics.getRowsPerCommit().getMax(), 2);
+        // prewrite, applyMutations and makeStable of both rows, and commitPrimary.
+        Assert.assertEquals(metrics.getPhaseLatency(HaeinsaPhase.PREWRITE).getCount(), 2);
+        Assert.assertEquals(metrics.getPhaseLatency(HaeinsaPhase.COMMIT_PRIMARY).getCount(), 1);
+        Assert.assertEquals(metrics.getPhaseLatency(HaeinsaPhase.MAKE_STABLE).getCount(), 2);
+        // applyMutations doesn't send RPC, because every mutation is applied by prewrite.
+        Assert.assertEquals(metrics.getRpcsPerCommit().getMax(), 5);
+
+        // applyMutations sends an RPC for each mutation remaining after prewrite.
+        tx = tm.begin();
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("row1")).add(family, qualifier, Bytes.toBytes("value")));
+        table.delete(tx, new HaeinsaDelete(Bytes.toBytes("row1")).deleteColumns(family, Bytes.toBytes("deleted")));
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("row1")).add(family, Bytes.toBytes("other"), Bytes.toBytes("value")));
+        tx.commit();
+        // Puts are merged and exchanged with delete, so put is applied by prewrite.
+        // prewrite, commitPrimary, applyMutations of delete, and makeStable.
+        Assert.assertEquals(metrics.getCommitCount(), 2);
+        Assert.assertEquals(metrics.getPhaseLatency(HaeinsaPhase.APPLY_MUTATIONS).getCount(), 2 + 1);
+        Assert.assertEquals(metrics.getRpcsPerCommit().getSum(), 5 + 4);
+
+        // conflicting transaction fails on prewrite of primary.
+        HaeinsaTransaction tx1 = tm.begin();
+        HaeinsaTransaction tx2 = tm.begin();
+        table.get(tx1, new HaeinsaGet(Bytes.toBytes("row1")));
+        table.get(tx2, new HaeinsaGet(Bytes.toBytes("row1")));
+        table.put(tx1, new HaeinsaPut(Bytes.toBytes("row1")).add(family, qualifier, Bytes.toBytes("value1")));
+        table.put(tx2, new HaeinsaPut(Bytes.toBytes("row1")).add(family, qualifier, Bytes.toBytes("value2")));
+        tx1.commit();
+        try {
+            tx2.commit();
+            Assert.fail();
+        } catch (ConflictException e) {
+            Assert.assertEquals(metrics.getConflictCount(HaeinsaPhase.COMMIT_SINGLE_ROW_PUT_ONLY), 1);
+            Assert.assertEquals(metrics.getConflictsByCause().get("ConflictException"), Long.valueOf(1));
+        }
+        Entry<String, Long> hotRow = Iterables.getOnlyElement(metrics.getHotConflictRows().entrySet());
+        Assert.assertTrue(hotRow.getKey().endsWith(":row1"));
+        Assert.assertEquals(hotRow.getValue(), Long.valueOf(1));
+        Assert.assertEquals(Iterables.getOnlyElement(metrics.getHotConflictTables().values()), Long.valueOf(1));
+        Assert.assertEquals(metrics.getCommitCount(), 4);
+        Assert.assertEquals(metrics.getPhaseLatency(HaeinsaPhase.GET).getCount(), 2);
+
+        // metrics are exposed through JMX.
+        ObjectName objectName = metrics.registerMBean("testMetrics");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Assert.assertEquals(server.getAttribute(objectName, "CommitCount"), 4L);
+        metrics.unregisterMBean();
+        Assert.assertFalse(server.isRegistered(objectName));
+
+        // reporter is called periodically.
+        final CountDownLatch reported = new CountDownLatch(2);
+        Closeable reporter = tm.startMetricsReporter(new HaeinsaMetricsReporter() {
+            @Override
+            public void report(HaeinsaMetrics metrics) {
+                reported.countDown();
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(reported.await(10, TimeUnit.SECONDS));
+        reporter.close();
+
+        table.close();
+    }
+
+    @Test
+    public void testListener() throws Exception {
+        final HaeinsaTableIface table = context().getHaeinsaTableIface("test");
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("value");
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(context().getTransactionManager().getTablePool());
+        final List<String> events = Collections.synchronizedList(Lists.<String>newArrayList());
+        HaeinsaTransactionListener listener = new HaeinsaTransactionListener() {
+            @Override
+            public void onBegin(HaeinsaTransaction tx) {
+                events.add("begin");
+            }
+
+            @Override
+            public void onRead(HaeinsaTransaction tx, byte[] tableName, HaeinsaQuery query) {
+                events.add("read");
+            }
+
+            @Override
+            public void onWrite(HaeinsaTransaction tx, byte[] tableName, HaeinsaMutation mutation) {
+                events.add("write " + Bytes.toString(mutation.getRow()));
+            }
+
+            @Override
+            public void onRpc(HaeinsaTransaction tx, HaeinsaPhase phase, byte[] tableName, byte[] row, long elapsedNanos) {
+                events.add(phase.name());
+            }
+
+            @Override
+            public void onCommitMethod(HaeinsaTransaction tx, HaeinsaTransaction.CommitMethod method) {
+                events.add(method.name());
+            }
+
+            @Override
+            public void onConflict(HaeinsaTransaction tx, HaeinsaPhase phase, ConflictException e) {
+                events.add("conflict " + phase.name());
+            }
+
+            @Override
+            public void onCommit(HaeinsaTransaction tx, long elapsedNanos, Throwable failure) {
+                events.add(failure == null ? "committed" : "failed");
+            }
+        };
+        // listener which throws exception doesn't affect transaction.
+        tm.addListener(new HaeinsaTransactionListener() {
+            @Override
+            public void onCommitMethod(HaeinsaTransaction tx, HaeinsaTransaction.CommitMethod method) {
+                throw new IllegalStateException("broken listener");
+            }
+        });
+        tm.addListener(listener);
+
+        HaeinsaTransaction tx = tm.begin();
+        table.get(tx, new HaeinsaGet(Bytes.toBytes("listenerRow")));
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("listenerRow")).add(family, qualifier, Bytes.toBytes("value")));
+        tx.commit();
+        Assert.assertEquals(events, Lists.newArrayList("begin", "read", "GET", "write listenerRow",
+                "SINGLE_ROW_PUT_ONLY", "COMMIT_SINGLE_ROW_PUT_ONLY", "committed"));
+
+        // conflicting transaction is notified of conflict and failure of commit.
+        events.clear();
+        HaeinsaTransaction tx1 = tm.begin();
+        HaeinsaTransaction tx2 = tm.begin();
+        table.get(tx1, new HaeinsaGet(Bytes.toBytes("listenerRow")));
+        table.get(tx2, new HaeinsaGet(Bytes.toBytes("listenerRow")));
+        table.put(tx1, new HaeinsaPut(Bytes.toBytes("listenerRow")).add(family, qualifier, Bytes.toBytes("value1")));
+        table.put(tx2, new HaeinsaPut(Bytes.toBytes("listenerRow")).add(family, qualifier, Bytes.toBytes("value2")));
+        tx1.commit();
+        events.clear();
+        try {
+            tx2.commit();
+            Assert.fail();
+        } catch (ConflictException e) {
+            Assert.assertEquals(events, Lists.newArrayList("SINGLE_ROW_PUT_ONLY", "conflict COMMIT_SINGLE_ROW_PUT_ONLY",
+                    "COMMIT_SINGLE_ROW_PUT_ONLY", "failed"));
+        }
+
+        // unregistered listener is not notified anymore.
+        Assert.assertTrue(tm.removeListener(listener));
+        Assert.assertFalse(tm.removeListener(listener));
+        events.clear();
+        tm.begin();
+        Assert.assertTrue(events.isEmpty());
+
+        table.close();
+    }
+
+    @Test
+    public void testSlowTransactionLog() throws Exception {
+        final HaeinsaTableIface table = context().getHaeinsaTableIface("test");
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("value");
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(context().getTransactionManager().getTablePool());
+
+        // transaction which is not sampled is not profiled.
+        tm.setSlowTransactionLog(new HaeinsaSlowTransactionLog(0, TimeUnit.MILLISECONDS, 0));
+        Assert.assertNull(tm.begin().getProfile());
+
+        tm.setSlowTransactionLog(new HaeinsaSlowTransactionLog(0, TimeUnit.MILLISECONDS, 1));
+        HaeinsaTransaction tx = tm.begin();
+        HaeinsaTransactionProfile profile = tx.getProfile();
+        Assert.assertNotNull(profile);
+        table.get(tx, new HaeinsaGet(Bytes.toBytes("slowRow1")));
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("slowRow1")).add(family, qualifier, Bytes.toBytes("value")));
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("slowRow2")).add(family, qualifier, Bytes.toBytes("value")));
+        tx.commit();
+        // phases are recorded on the same timing points with metrics, including reads before commit.
+        Assert.assertEquals(profile.getPhaseCount(HaeinsaPhase.GET), 1);
+        Assert.assertEquals(profile.getPhaseCount(HaeinsaPhase.PREWRITE), 2);
+        Assert.assertEquals(profile.getPhaseCount(HaeinsaPhase.COMMIT_PRIMARY), 1);
+        Assert.assertEquals(profile.getPhaseCount(HaeinsaPhase.MAKE_STABLE), 2);
+        Assert.assertEquals(profile.getAttempt(), 1);
+
+        String description = HaeinsaSlowTransactionLog.describe(tx, profile, HaeinsaTransaction.CommitMethod.MULTI_ROW_MUTATIONS,
+                2, 1, TimeUnit.MILLISECONDS.toNanos(15), null);
+        Assert.assertTrue(description.startsWith("slow transaction commit=15.0ms method=MULTI_ROW_MUTATIONS rows=2 tables=1 primary="));
+        Assert.assertTrue(description.contains(":slowRow1 attempt=1 rpcs=5 "));
+        Assert.assertTrue(description.contains(" PREWRITE=2/"));
+        Assert.assertFalse(description.contains("failure="));
+
+        // attempt of retried transaction is logged.
+        final AtomicLong attempts = new AtomicLong();
+        tm.execute(new HaeinsaTransactionBody<Void>() {
+            @Override
+            public Void execute(HaeinsaTransaction tx) throws IOException {
+                Assert.assertEquals(tx.getProfile().getAttempt(), attempts.incrementAndGet());
+                if (attempts.get() < 2) {
+                    throw new ConflictException("conflict on first attempt");
+                }
+                return null;
+            }
+        });
+        Assert.assertEquals(attempts.get(), 2);
+
+        table.close();
+    }
 }
@@ -18,21 +18,31 @@ package kr.co.vcnc.haeinsa;
 import static kr.co.vcnc.haeinsa.TestingUtility.checkLockChanged;
 import static kr.co.vcnc.haeinsa.TestingUtility.getLock;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import kr.co.vcnc.haeinsa.exception.ConflictException;
 import kr.co.vcnc.haeinsa.exception.DanglingRowLockException;
+import kr.co.vcnc.haeinsa.exception.NotExpiredYetException;
 import kr.co.vcnc.haeinsa.thrift.TRowLocks;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.google.common.collect.Lists;
+
 /**
  * Basic unit test for Haeinsa which consist of basic transaction test, multiple
  * mutations test, conflict and recover test, conflict and abort test,
@@ -578,6 +588,144 @@ public class HaeinsaUnitTest extends HaeinsaTestBase {
         testTable.close();
     }
 
+    /**
+     * Unit test for recovering several unstable rows of failed transactions during scan.
+     */
+    @Test
+    public void testScanRecoverUnstableRows() throws Exception {
+        final HaeinsaTransactionManager tm = context().getTransactionManager();
+        final HaeinsaTableIface testTable = context().getHaeinsaTableIface("test");
+        final HaeinsaTableIfaceInternal testInternalTable = (HaeinsaTableIfaceInternal) testTable;
+        final HTableInterface hTestTable = context().getHTableInterface("test");
+        final String[] rows = { "row1", "row2", "row3", "row4" };
+
+        HaeinsaTransaction tx = tm.begin();
+        for (String row : rows) {
+            HaeinsaPut put = new HaeinsaPut(Bytes.toBytes(row));
+            put.add(Bytes.toBytes("data"), Bytes.toBytes("value"), Bytes.toBytes("committed"));
+            testTable.put(tx, put);
+        }
+        tx.commit();
+
+        // Failed transaction which prewrote row1, row2 and row3, and another one which prewrote row4.
+        HaeinsaTransaction failedTx1 = tm.begin();
+        HaeinsaTransaction failedTx2 = tm.begin();
+        for (String row : rows) {
+            HaeinsaPut put = new HaeinsaPut(Bytes.toBytes(row));
+            put.add(Bytes.toBytes("data"), Bytes.toBytes("value"), Bytes.toBytes("failed"));
+            testTable.put(row.equals("row4") ? failedTx2 : failedTx1, put);
+        }
+        prewriteExpired(testInternalTable, failedTx1);
+        prewriteExpired(testInternalTable, failedTx2);
+        for (String row : rows) {
+            Assert.assertFalse(TRowLocks.deserialize(getLock(hTestTable, Bytes.toBytes(row))).getState() == TRowLockState.STABLE);
+        }
+
+        tx = tm.begin();
+        HaeinsaScan scan = new HaeinsaScan();
+        scan.setCaching(10);
+        try (HaeinsaResultScanner scanner = testTable.getScanner(tx, scan)) {
+            for (String row : rows) {
+                HaeinsaResult result = scanner.next();
+                Assert.assertEquals(result.getRow(), Bytes.toBytes(row));
+                Assert.assertEquals(result.getValue(Bytes.toBytes("data"), Bytes.toBytes("value")), Bytes.toBytes("committed"));
+            }
+            Assert.assertNull(scanner.next());
+        }
+        tx.rollback();
+
+        for (String row : rows) {
+            Assert.assertEquals(TRowLocks.deserialize(getLock(hTestTable, Bytes.toBytes(row))).getState(), TRowLockState.STABLE);
+        }
+
+        testTable.close();
+        hTestTable.close();
+    }
+
+    /**
+     * Prewrite all rows of the transaction on the table with expired lock, as if the transaction failed after prewrite.
+     */
+    private static void prewriteExpired(HaeinsaTableIfaceInternal table, HaeinsaTransaction failedTx) throws Exception {
+        failedTx.classifyAndSortRows(false);
+        long currentCommitTimestamp = getMaxCommitTimestamp(failedTx);
+        failedTx.setPrewriteTimestamp(currentCommitTimestamp + 1);
+        failedTx.setCommitTimestamp(currentCommitTimestamp + 3);
+        // lock is expired already.
+        failedTx.setExpiry(System.currentTimeMillis() - 1);
+        TRowKey primaryRowKey = failedTx.getMutationRowStates().firstKey();
+        failedTx.setPrimary(primaryRowKey);
+        table.prewrite(failedTx.getMutationRowStates().get(primaryRowKey), primaryRowKey.getRow(), true);
+        for (Entry<TRowKey, HaeinsaRowTransaction> entry : failedTx.getMutationRowStates().entrySet()) {
+            if (!entry.getKey().equals(primaryRowKey)) {
+                table.prewrite(entry.getValue(), entry.getKey().getRow(), false);
+            }
+        }
+    }
+
+    /**
+     * Timestamps of prewrite should be above commit timestamps of the rows as {@link HaeinsaTransaction#commit()} does,
+     * otherwise recovery deletes committed data which has same timestamp with the prewritten one.
+     */
+    private static long getMaxCommitTimestamp(HaeinsaTransaction tx) {
+        long maxCommitTimestamp = System.currentTimeMillis();
+        for (HaeinsaRowTransaction rowState : tx.getMutationRowStates().values()) {
+            maxCommitTimestamp = Math.max(maxCommitTimestamp, rowState.getCurrent().getCommitTimestamp());
+        }
+        return maxCommitTimestamp;
+    }
+
+    /**
+     * Unit test for recovering unstable rows of a scan batch when caching of the scan is not set.
+     * Scanner should fetch rows by scanner caching of the table, so that rows ahead are recovered together.
+     */
+    @Test
+    public void testScanRecoverUnstableRowsWithDefaultCaching() throws Exception {
+        final HTableInterface hTestTable = context().getHTableInterface("test");
+        // tables of the pool have scanner caching of 10, and scan below doesn't set caching.
+        Configuration conf = new Configuration(context().getCluster().getConfiguration());
+        conf.setInt("hbase.client.scanner.caching", 10);
+        final HaeinsaTablePool tablePool = new HaeinsaTablePool(conf, 8);
+        final HaeinsaTransactionManager tm = new HaeinsaTransactionManager(tablePool);
+        final HaeinsaTableIface testTable = tablePool.getTable(context().createContextedTableName("test"));
+        final String[] rows = { "row1", "row2", "row3", "row4" };
+
+        HaeinsaTransaction tx = tm.begin();
+        for (String row : rows) {
+            HaeinsaPut put = new HaeinsaPut(Bytes.toBytes(row));
+            put.add(Bytes.toBytes("data"), Bytes.toBytes("value"), Bytes.toBytes("committed"));
+            testTable.put(tx, put);
+        }
+        tx.commit();
+
+        // Failed transaction which prewrote row1, row2 and row3, and another one which prewrote row4.
+        HaeinsaTransaction failedTx1 = tm.begin();
+        HaeinsaTransaction failedTx2 = tm.begin();
+        for (String row : rows) {
+            HaeinsaPut put = new HaeinsaPut(Bytes.toBytes(row));
+            put.add(Bytes.toBytes("data"), Bytes.toBytes("value"), Bytes.toBytes("failed"));
+            testTable.put(row.equals("row4") ? failedTx2 : failedTx1, put);
+        }
+        prewriteExpired((HaeinsaTableIfaceInternal) testTable, failedTx1);
+        prewriteExpired((HaeinsaTableIfaceInternal) testTable, failedTx2);
+
+        tx = tm.begin();
+        try (HaeinsaResultScanner scanner = testTable.getScanner(tx, new HaeinsaScan())) {
+            HaeinsaResult result = scanner.next();
+            Assert.assertEquals(result.getRow(), Bytes.toBytes("row1"));
+            // row4 is fetched with row1 in a batch, so it is recovered before scanner reaches it.
+            Assert.assertEquals(TRowLocks.deserialize(getLock(hTestTable, Bytes.toBytes("row4"))).getState(), TRowLockState.STABLE);
+            for (int i = 1; i < rows.length; i++) {
+                result = scanner.next();
+                Assert.assertEquals(result.getRow(), Bytes.toBytes(rows[i]));
+                Assert.assertEquals(result.getValue(Bytes.toBytes("data"), Bytes.toBytes("value")), Bytes.toBytes("committed"));
+            }
+            Assert.assertNull(scanner.next());
+        }
+        tx.rollback();
+        testTable.close();
+        tablePool.close();
+    }
+
     /**
      * Unit test for multiple mutations for any rows in {@link HaeinsaTransaction}.
      */
@@ -982,4 +1130,299 @@ public class HaeinsaUnitTest extends HaeinsaTestBase {
         testTable.close();
         hTestTable.close();
     }
+
+    @Test
+    public void testWarmUpTablePool() throws Exception {
+        // create table on the cluster
+        context().getHaeinsaTableIface("test").close();
+        String tableName = context().createContextedTableName("test");
+
+        Configuration conf = new Configuration(context().getCluster().getConfiguration());
+        conf.setStrings(HaeinsaTablePool.WARM_UP_TABLES_KEY, tableName);
+        conf.setInt(HaeinsaTablePool.WARM_UP_SIZE_KEY, 4);
+        HaeinsaTablePool tablePool = new HaeinsaTablePool(conf, 3);
+        Assert.assertEquals(tablePool.getLastWarmUpTimeMillis(), -1);
+
+        long elapsedTime = tablePool.warmUp();
+        Assert.assertTrue(elapsedTime >= 0);
+        Assert.assertEquals(tablePool.getLastWarmUpTimeMillis(), elapsedTime);
+        // number of warmed up tables is limited by maximum size of the pool
+        Assert.assertEquals(tablePool.getCurrentPoolSize(tableName), 3);
+
+        // warm-up through manager is reported on its metrics.
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(tablePool);
+        Assert.assertEquals(tm.getMetrics().getLastWarmUpMillis(), -1);
+        elapsedTime = tm.warmUp();
+        Assert.assertEquals(tm.getMetrics().getLastWarmUpMillis(), elapsedTime);
+        Assert.assertEquals(tablePool.getCurrentPoolSize(tableName), 3);
+
+        tablePool.close();
+    }
+
+    @Test
+    public void testLockWaitPolicy() throws Exception {
+        final HaeinsaTransactionManager tm = context().getTransactionManager();
+        final HaeinsaTableIface testTable = context().getHaeinsaTableIface("test");
+        final HaeinsaTableIfaceInternal testInternalTable = (HaeinsaTableIfaceInternal) testTable;
+        final byte[] row = Bytes.toBytes("row");
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("value");
+
+        HaeinsaTransaction tx = tm.begin();
+        testTable.put(tx, new HaeinsaPut(row).add(family, qualifier, Bytes.toBytes("committed")));
+        tx.commit();
+
+        // ongoing transaction which prewrote the row, and its lock expires after 1 second.
+        HaeinsaTransaction ongoingTx = tm.begin();
+        testTable.put(ongoingTx, new HaeinsaPut(row).add(family, qualifier, Bytes.toBytes("ongoing")));
+        ongoingTx.classifyAndSortRows(false);
+        long currentCommitTimestamp = getMaxCommitTimestamp(ongoingTx);
+        ongoingTx.setPrewriteTimestamp(currentCommitTimestamp + 1);
+        ongoingTx.setCommitTimestamp(currentCommitTimestamp + 3);
+        ongoingTx.setExpiry(System.currentTimeMillis() + 1000);
+        TRowKey primaryRowKey = ongoingTx.getMutationRowStates().firstKey();
+        ongoingTx.setPrimary(primaryRowKey);
+        testInternalTable.prewrite(ongoingTx.getMutationRowStates().get(primaryRowKey), row, true);
+
+        // transaction without lock-wait policy fails immediately.
+        tx = tm.begin();
+        try {
+            testTable.get(tx, new HaeinsaGet(row));
+            Assert.fail();
+        } catch (NotExpiredYetException e) {
+            Assert.assertEquals(tx.getLockWaitMillis(), 0);
+        }
+
+        // conflicts on put, delete and scan are counted on metrics too.
+        HaeinsaMetrics metrics = tm.getMetrics();
+        long putConflicts = metrics.getConflictCount(HaeinsaPhase.PUT);
+        long deleteConflicts = metrics.getConflictCount(HaeinsaPhase.DELETE);
+        long scanConflicts = metrics.getConflictCount(HaeinsaPhase.SCAN);
+        tx = tm.begin();
+        try {
+            testTable.put(tx, new HaeinsaPut(row).add(family, qualifier, Bytes.toBytes("value")));
+            Assert.fail();
+        } catch (NotExpiredYetException e) {
+            Assert.assertEquals(metrics.getConflictCount(HaeinsaPhase.PUT), putConflicts + 1);
+        }
+        try {
+            testTable.delete(tx, new HaeinsaDelete(row).deleteFamily(family));
+            Assert.fail();
+        } catch (NotExpiredYetException e) {
+            Assert.assertEquals(metrics.getConflictCount(HaeinsaPhase.DELETE), deleteConflicts + 1);
+        }
+        HaeinsaScan scan = new HaeinsaScan().setStartRow(row).setStopRow(Bytes.add(row, new byte[] { 0 }));
+        try (HaeinsaResultScanner scanner = testTable.getScanner(tx, scan)) {
+            scanner.next();
+            Assert.fail();
+        } catch (NotExpiredYetException e) {
+            Assert.assertEquals(metrics.getConflictCount(HaeinsaPhase.SCAN), scanConflicts + 1);
+        }
+        tx.rollback();
+
+        // transaction fails after max wait is spent.
+        tx = tm.begin();
+        tx.setLockWaitPolicy(new HaeinsaLockWaitPolicy().setMaxWaitMillis(50));
+        try {
+            testTable.get(tx, new HaeinsaGet(row));
+            Assert.fail();
+        } catch (NotExpiredYetException e) {
+            Assert.assertTrue(tx.getLockWaitMillis() >= 50);
+        }
+
+        // transaction waits until the lock expires, and recovers it.
+        tx = tm.begin();
+        tx.setLockWaitPolicy(new HaeinsaLockWaitPolicy().setMaxWaitMillis(5000).setMaxPollMillis(100));
+        HaeinsaResult result = testTable.get(tx, new HaeinsaGet(row));
+        Assert.assertEquals(result.getValue(family, qualifier), Bytes.toBytes("committed"));
+        Assert.assertTrue(tx.getLockWaitMillis() > 0);
+        Assert.assertTrue(System.currentTimeMillis() > ongoingTx.getExpiry());
+        tx.rollback();
+
+        testTable.close();
+    }
+
+    @Test
+    public void testLockWaitOnExpiredSecondaryRow() throws Exception {
+        final HaeinsaTransactionManager tm = context().getTransactionManager();
+        final HaeinsaTableIface testTable = context().getHaeinsaTableIface("test");
+        final HaeinsaTableIfaceInternal testInternalTable = (HaeinsaTableIfaceInternal) testTable;
+        final byte[] primaryRow = Bytes.toBytes("primary");
+        final byte[] secondaryRow = Bytes.toBytes("secondary");
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("value");
+
+        // ongoing transaction whose secondary row is expired already, but primary row is alive for 500 milliseconds.
+        HaeinsaTransaction ongoingTx = tm.begin();
+        testTable.put(ongoingTx, new HaeinsaPut(primaryRow).add(family, qualifier, Bytes.toBytes("ongoing")));
+        testTable.put(ongoingTx, new HaeinsaPut(secondaryRow).add(family, qualifier, Bytes.toBytes("ongoing")));
+        ongoingTx.classifyAndSortRows(false);
+        long currentCommitTimestamp = getMaxCommitTimestamp(ongoingTx);
+        ongoingTx.setPrewriteTimestamp(currentCommitTimestamp + 1);
+        ongoingTx.setCommitTimestamp(currentCommitTimestamp + 3);
+        TRowKey primaryRowKey = new TRowKey(ByteBuffer.wrap(testTable.getTableName()), ByteBuffer.wrap(primaryRow));
+        TRowKey secondaryRowKey = new TRowKey(ByteBuffer.wrap(testTable.getTableName()), ByteBuffer.wrap(secondaryRow));
+        ongoingTx.setPrimary(primaryRowKey);
+        ongoingTx.setExpiry(System.currentTimeMillis() - 1);
+        testInternalTable.prewrite(ongoingTx.getMutationRowStates().get(secondaryRowKey), secondaryRow, false);
+        ongoingTx.setExpiry(System.currentTimeMillis() + 500);
+        testInternalTable.prewrite(ongoingTx.getMutationRowStates().get(primaryRowKey), primaryRow, true);
+
+        // transaction waits until primary row expires, instead of polling recovery of secondary row continuously.
+        long recoveryCount = tm.getMetrics().getRecoveryCount();
+        HaeinsaTransaction tx = tm.begin();
+        tx.setLockWaitPolicy(new HaeinsaLockWaitPolicy().setMaxWaitMillis(5000).setMaxPollMillis(100));
+        testTable.put(tx, new HaeinsaPut(secondaryRow).add(family, qualifier, Bytes.toBytes("committed")));
+        tx.commit();
+        Assert.assertTrue(System.currentTimeMillis() > ongoingTx.getExpiry());
+        Assert.assertTrue(tx.getLockWaitMillis() > 0);
+        Assert.assertTrue(tm.getMetrics().getRecoveryCount() - recoveryCount < 20);
+
+        tx = tm.begin();
+        Assert.assertEquals(testTable.get(tx, new HaeinsaGet(secondaryRow)).getValue(family, qualifier), Bytes.toBytes("committed"));
+        Assert.assertNull(testTable.get(tx, new HaeinsaGet(primaryRow)).getValue(family, qualifier));
+        tx.rollback();
+
+        testTable.close();
+    }
+
+    @Test
+    public void testLockJanitor() throws Exception {
+        final HaeinsaTransactionManager tm = context().getTransactionManager();
+        final HaeinsaTableIface testTable = context().getHaeinsaTableIface("test");
+        final HaeinsaTableIfaceInternal testInternalTable = (HaeinsaTableIfaceInternal) testTable;
+        final HTableInterface hTestTable = context().getHTableInterface("test");
+        final String[] rows = { "row1", "row2", "row3", "row4" };
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("value");
+
+        HaeinsaTransaction tx = tm.begin();
+        for (String row : rows) {
+            testTable.put(tx, new HaeinsaPut(Bytes.toBytes(row)).add(family, qualifier, Bytes.toBytes("committed")));
+        }
+        tx.commit();
+
+        // Failed transaction which prewrote row1 and row2, and another one which committed primary of row3 and row4.
+        HaeinsaTransaction abortedTx = tm.begin();
+        HaeinsaTransaction committedTx = tm.begin();
+        for (String row : rows) {
+            HaeinsaTransaction failedTx = row.equals("row1") || row.equals("row2") ? abortedTx : committedTx;
+            testTable.put(failedTx, new HaeinsaPut(Bytes.toBytes(row)).add(family, qualifier, Bytes.toBytes("failed")));
+        }
+        for (HaeinsaTransaction failedTx : new HaeinsaTransaction[] { abortedTx, committedTx }) {
+            failedTx.classifyAndSortRows(false);
+            long currentCommitTimestamp = getMaxCommitTimestamp(failedTx);
+            failedTx.setPrewriteTimestamp(currentCommitTimestamp + 1);
+            failedTx.setCommitTimestamp(currentCommitTimestamp + 3);
+            // lock is expired already.
+            failedTx.setExpiry(System.currentTimeMillis() - 1);
+            TRowKey primaryRowKey = failedTx.getMutationRowStates().firstKey();
+            failedTx.setPrimary(primaryRowKey);
+            testInternalTable.prewrite(failedTx.getMutationRowStates().get(primaryRowKey), primaryRowKey.getRow(), true);
+            for (Entry<TRowKey, HaeinsaRowTransaction> entry : failedTx.getMutationRowStates().entrySet()) {
+                if (!entry.getKey().equals(primaryRowKey)) {
+                    testInternalTable.prewrite(entry.getValue(), entry.getKey().getRow(), false);
+                }
+            }
+            if (failedTx == committedTx) {
+                testInternalTable.commitPrimary(failedTx.getMutationRowStates().get(primaryRowKey), primaryRowKey.getRow());
+            }
+        }
+
+        // table has single region, which belongs to only one of two shards.
+        String tableName = context().createContextedTableName("test");
+        long recoveryCount = tm.getMetrics().getRecoveryCount();
+        List<HaeinsaLockJanitor> janitors = Lists.newArrayList();
+        for (int shardIndex = 0; shardIndex < 2; shardIndex++) {
+            HaeinsaLockJanitor janitor = new HaeinsaLockJanitor(tm, Collections.singletonList(tableName), 2).setShard(shardIndex, 2);
+            janitor.runOnce();
+            janitor.close();
+            janitors.add(janitor);
+        }
+        HaeinsaLockJanitor janitor = janitors.get(0).getScannedLockCount() > 0 ? janitors.get(0) : janitors.get(1);
+        HaeinsaLockJanitor otherJanitor = janitor == janitors.get(0) ? janitors.get(1) : janitors.get(0);
+        Assert.assertEquals(otherJanitor.getScannedLockCount(), 0);
+        Assert.assertEquals(janitor.getScannedLockCount(), rows.length);
+        Assert.assertEquals(janitor.getAbortedCount(), 1);
+        Assert.assertEquals(janitor.getRecoveredCount(), 1);
+        // secondary rows are not recovered again after their primary rows in the same pass.
+        Assert.assertEquals(janitor.getSkippedCount(), 0);
+        Assert.assertEquals(janitor.getFailedCount(), 0);
+        // recoveries are recorded on metrics of the transaction manager.
+        Assert.assertEquals(tm.getMetrics().getRecoveryCount() - recoveryCount, 2);
+
+        for (String row : rows) {
+            Assert.assertEquals(TRowLocks.deserialize(getLock(hTestTable, Bytes.toBytes(row))).getState(), TRowLockState.STABLE);
+        }
+        tx = tm.begin();
+        for (String row : rows) {
+            String expected = row.equals("row1") || row.equals("row2") ? "committed" : "failed";
+            HaeinsaResult result = testTable.get(tx, new HaeinsaGet(Bytes.toBytes(row)));
+            Assert.assertEquals(result.getValue(family, qualifier), Bytes.toBytes(expected));
+        }
+        tx.rollback();
+
+        testTable.close();
+        hTestTable.close();
+    }
+
+    @Test
+    public void testRecoverMultiTableTransaction() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        final HaeinsaTransactionManager tm = HaeinsaTransactionManager.builder(context().getTransactionManager().getTablePool())
+                .setCommitExecutor(executor)
+                .build();
+        final HaeinsaTableIface testTable = context().getHaeinsaTableIface("test");
+        final HaeinsaTableIface logTable = context().getHaeinsaTableIface("log");
+        final HaeinsaTableIfaceInternal testInternalTable = (HaeinsaTableIfaceInternal) testTable;
+        final HaeinsaTableIfaceInternal logInternalTable = (HaeinsaTableIfaceInternal) logTable;
+        final HTableInterface hTestTable = context().getHTableInterface("test");
+        final HTableInterface hLogTable = context().getHTableInterface("log");
+        final String[] rows = { "row1", "row2", "row3" };
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("value");
+
+        // Failed transaction which committed primary, and left secondaries of both tables prewritten.
+        HaeinsaTransaction failedTx = tm.begin();
+        for (String row : rows) {
+            testTable.put(failedTx, new HaeinsaPut(Bytes.toBytes(row)).add(family, qualifier, Bytes.toBytes("failed")));
+            logTable.put(failedTx, new HaeinsaPut(Bytes.toBytes(row)).add(family, qualifier, Bytes.toBytes("failed")));
+        }
+        long currentCommitTimestamp = System.currentTimeMillis();
+        failedTx.classifyAndSortRows(false);
+        failedTx.setPrewriteTimestamp(currentCommitTimestamp + 1);
+        failedTx.setCommitTimestamp(currentCommitTimestamp + 3);
+        failedTx.setExpiry(currentCommitTimestamp - 1);
+        TRowKey primaryRowKey = failedTx.getMutationRowStates().firstKey();
+        failedTx.setPrimary(primaryRowKey);
+        HaeinsaTableIfaceInternal primaryTable = Bytes.equals(primaryRowKey.getTableName(), logInternalTable.getTableName())
+                ? logInternalTable : testInternalTable;
+        primaryTable.prewrite(failedTx.getMutationRowStates().get(primaryRowKey), primaryRowKey.getRow(), true);
+        for (Entry<TRowKey, HaeinsaRowTransaction> entry : failedTx.getMutationRowStates().entrySet()) {
+            if (!entry.getKey().equals(primaryRowKey)) {
+                HaeinsaTableIfaceInternal table = Bytes.equals(entry.getKey().getTableName(), logInternalTable.getTableName())
+                        ? logInternalTable : testInternalTable;
+                table.prewrite(entry.getValue(), entry.getKey().getRow(), false);
+            }
+        }
+        primaryTable.commitPrimary(failedTx.getMutationRowStates().get(primaryRowKey), primaryRowKey.getRow());
+
+        // reading a secondary row recovers whole transaction, whose secondary locks are read table by table.
+        HaeinsaTransaction tx = tm.begin();
+        HaeinsaTableIface secondaryTable = primaryTable == logInternalTable ? testTable : logTable;
+        HaeinsaResult result = secondaryTable.get(tx, new HaeinsaGet(Bytes.toBytes("row3")));
+        Assert.assertEquals(result.getValue(family, qualifier), Bytes.toBytes("failed"));
+        tx.rollback();
+
+        for (String row : rows) {
+            Assert.assertEquals(TRowLocks.deserialize(getLock(hTestTable, Bytes.toBytes(row))).getState(), TRowLockState.STABLE);
+            Assert.assertEquals(TRowLocks.deserialize(getLock(hLogTable, Bytes.toBytes(row))).getState(), TRowLockState.STABLE);
+        }
+
+        executor.shutdown();
+        testTable.close();
+        logTable.close();
+        hTestTable.close();
+        hLogTable.close();
+    }
 }
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LockFreeHaeinsaTablePoolTest {
+
+    /**
+     * Factory which creates HaeinsaTable on top of HTableInterface stub, and counts created and released tables.
+     */
+    private static class CountingTableFactory implements HaeinsaTableIfaceFactory {
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger released = new AtomicInteger();
+        // released tables which are not created by this factory
+        private final AtomicInteger foreign = new AtomicInteger();
+        private final Set<HaeinsaTableIface> tables = Collections.newSetFromMap(new ConcurrentHashMap<HaeinsaTableIface, Boolean>());
+
+        @Override
+        public HaeinsaTableIface createHaeinsaTableIface(Configuration config, byte[] tableName) {
+            created.incrementAndGet();
+            HaeinsaTableIface table = new HaeinsaTable(TestingUtility.createStubHTableInterface(tableName));
+            tables.add(table);
+            return table;
+        }
+
+        @Override
+        public void releaseHaeinsaTableIface(HaeinsaTableIface table) throws IOException {
+            released.incrementAndGet();
+            if (!tables.remove(table)) {
+                foreign.incrementAndGet();
+            }
+            table.close();
+        }
+    }
+
+    @Test
+    public void testReuseTable() throws Exception {
+        CountingTableFactory factory = new CountingTableFactory();
+        LockFreeHaeinsaTablePool pool = new LockFreeHaeinsaTablePool(HBaseConfiguration.create(), 2, factory);
+
+        HaeinsaTableIface first = pool.getTable("test");
+        first.close();
+        // closing twice should not push the table to the pool twice.
+        first.close();
+        Assert.assertEquals(pool.getCurrentPoolSize("test"), 1);
+
+        HaeinsaTableIface second = pool.getTable("test");
+        Assert.assertSame(second, first);
+        Assert.assertEquals(pool.getCurrentPoolSize("test"), 0);
+
+        HaeinsaTableIface third = pool.getTable("test");
+        HaeinsaTableIface fourth = pool.getTable("test");
+        Assert.assertEquals(factory.created.get(), 3);
+        second.close();
+        third.close();
+        // pool is full, so fourth table should be released.
+        fourth.close();
+        Assert.assertEquals(pool.getCurrentPoolSize("test"), 2);
+        Assert.assertEquals(factory.released.get(), 1);
+
+        pool.close();
+        Assert.assertEquals(pool.getCurrentPoolSize("test"), 0);
+        Assert.assertEquals(factory.released.get(), 3);
+        // tables are released as they are created by the factory.
+        Assert.assertEquals(factory.foreign.get(), 0);
+    }
+
+    @Test
+    public void testConcurrentBorrow() throws Exception {
+        final int threads = 16;
+        final int maxSize = 8;
+        CountingTableFactory factory = new CountingTableFactory();
+        final LockFreeHaeinsaTablePool pool = new LockFreeHaeinsaTablePool(HBaseConfiguration.create(), maxSize, factory);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                        for (int j = 0; j < 1000; j++) {
+                            try (HaeinsaTableIfaceInternal table = pool.getTableInternal("test")) {
+                                Assert.assertEquals(table.getTableName(), "test".getBytes());
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        latch.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        Assert.assertEquals(failures.get(), 0);
+        Assert.assertTrue(pool.getCurrentPoolSize("test") <= maxSize);
+        Assert.assertEquals(factory.created.get() - factory.released.get(), pool.getCurrentPoolSize("test"));
+        pool.close();
+        Assert.assertEquals(factory.created.get(), factory.released.get());
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HConnectionManager;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SharedConnectionHaeinsaTableIfaceFactoryTest extends HaeinsaTestBase {
+
+    /**
+     * Create proxy of the connection which records names of invoked methods.
+     */
+    private static HConnection recordingConnection(final HConnection connection, final List<String> invoked) {
+        return (HConnection) Proxy.newProxyInstance(HConnection.class.getClassLoader(), new Class<?>[] { HConnection.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        invoked.add(method.getName());
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    @Test
+    public void testSharedConnection() throws Exception {
+        final byte[] tableName = context().getHaeinsaTableIface("test").getTableName();
+        final byte[] family = Bytes.toBytes("data");
+        final byte[] qualifier = Bytes.toBytes("qualifier");
+        final Configuration conf = context().getCluster().getConfiguration();
+        final HConnection connection = HConnectionManager.createConnection(conf);
+        final List<String> invoked = new CopyOnWriteArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        SharedConnectionHaeinsaTableIfaceFactory factory =
+                new SharedConnectionHaeinsaTableIfaceFactory(recordingConnection(connection, invoked), executor);
+
+        HaeinsaTablePool tablePool = new HaeinsaTablePool(conf, 2, factory);
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(tablePool);
+        HaeinsaTableIface table = tablePool.getTable(tableName);
+        // table is created on the shared connection.
+        Assert.assertFalse(invoked.isEmpty());
+        HaeinsaTransaction tx = tm.begin();
+        table.put(tx, new HaeinsaPut(Bytes.toBytes("row")).add(family, qualifier, Bytes.toBytes("value")));
+        tx.commit();
+        table.close();
+        // release tables of the pool, which should not close shared connection and executor.
+        tablePool.close();
+        Assert.assertFalse(invoked.contains("close"));
+        Assert.assertFalse(connection.isClosed());
+        Assert.assertFalse(executor.isShutdown());
+
+        // tables created after release still work on the shared connection.
+        HaeinsaTableIface otherTable = factory.createHaeinsaTableIface(conf, tableName);
+        HaeinsaResult result = otherTable.get(null, new HaeinsaGet(Bytes.toBytes("row")).addColumn(family, qualifier));
+        Assert.assertEquals(result.getValue(family, qualifier), Bytes.toBytes("value"));
+        factory.releaseHaeinsaTableIface(otherTable);
+
+        // connection and executor managed by caller are not closed by factory.
+        factory.close();
+        Assert.assertFalse(invoked.contains("close"));
+        executor.shutdown();
+        connection.close();
+    }
+
+    @Test
+    public void testOwnedConnection() throws Exception {
+        final byte[] tableName = context().getHaeinsaTableIface("test").getTableName();
+        final Configuration conf = context().getCluster().getConfiguration();
+        SharedConnectionHaeinsaTableIfaceFactory factory = new SharedConnectionHaeinsaTableIfaceFactory(conf, 2);
+
+        HaeinsaTableIface table = factory.createHaeinsaTableIface(conf, tableName);
+        factory.releaseHaeinsaTableIface(table);
+        Assert.assertFalse(factory.getConnection().isClosed());
+        Assert.assertFalse(factory.getExecutor().isShutdown());
+
+        // connection and executor created by factory are closed with factory.
+        factory.close();
+        Assert.assertTrue(factory.getConnection().isClosed());
+        Assert.assertTrue(factory.getExecutor().isShutdown());
+    }
+}
@@ -16,6 +16,9 @@
 package kr.co.vcnc.haeinsa;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.concurrent.ExecutorService;
 
 import org.apache.hadoop.conf.Configuration;
@@ -57,6 +60,26 @@ public final class TestingUtility {
         }));
     }
 
+    /**
+     * Create stub of {@link HTableInterface} which doesn't access HBase.
+     * Only {@link HTableInterface#getTableName()} returns given table name, other methods return null.
+     *
+     * @param tableName table name
+     * @return stub of {@link HTableInterface}
+     */
+    public static HTableInterface createStubHTableInterface(final byte[] tableName) {
+        return (HTableInterface) Proxy.newProxyInstance(HTableInterface.class.getClassLoader(),
+                new Class<?>[] { HTableInterface.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getTableName")) {
+                            return tableName;
+                        }
+                        return null;
+                    }
+                });
+    }
+
     /**
      * Check if there is lock in specific row in table
      *
@@ -0,0 +1,332 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.memory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import kr.co.vcnc.haeinsa.HaeinsaConstants;
+import kr.co.vcnc.haeinsa.HaeinsaGet;
+import kr.co.vcnc.haeinsa.HaeinsaIntraScan;
+import kr.co.vcnc.haeinsa.HaeinsaPut;
+import kr.co.vcnc.haeinsa.HaeinsaResult;
+import kr.co.vcnc.haeinsa.HaeinsaResultScanner;
+import kr.co.vcnc.haeinsa.HaeinsaTableIface;
+import kr.co.vcnc.haeinsa.HaeinsaTablePool;
+import kr.co.vcnc.haeinsa.HaeinsaTransaction;
+import kr.co.vcnc.haeinsa.HaeinsaTransactionManager;
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.ColumnRangeFilter;
+import org.apache.hadoop.hbase.regionserver.NoSuchColumnFamilyException;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+public class InMemoryHTableTest {
+    private static final byte[] ROW = Bytes.toBytes("row");
+    private static final byte[] FAMILY = Bytes.toBytes("data");
+    private static final byte[] QUALIFIER = Bytes.toBytes("col");
+
+    private InMemoryHBase hbase;
+    private InMemoryHTable table;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        hbase = new InMemoryHBase();
+        HTableDescriptor tableDesc = new HTableDescriptor("test");
+        HColumnDescriptor lockColumnDesc = new HColumnDescriptor(HaeinsaConstants.LOCK_FAMILY);
+        lockColumnDesc.setMaxVersions(1);
+        tableDesc.addFamily(lockColumnDesc);
+        HColumnDescriptor dataColumnDesc = new HColumnDescriptor(FAMILY);
+        dataColumnDesc.setMaxVersions(2);
+        tableDesc.addFamily(dataColumnDesc);
+        table = hbase.createTable(tableDesc);
+    }
+
+    private void put(long timestamp, String value) throws IOException {
+        Put put = new Put(ROW);
+        put.add(FAMILY, QUALIFIER, timestamp, Bytes.toBytes(value));
+        table.put(put);
+    }
+
+    private List<KeyValue> getVersions() throws IOException {
+        Get get = new Get(ROW);
+        get.setMaxVersions();
+        return table.get(get).list();
+    }
+
+    @Test
+    public void testVersions() throws Exception {
+        put(1, "a");
+        put(3, "c");
+        put(2, "b");
+        Assert.assertEquals(Bytes.toString(table.get(new Get(ROW)).getValue(FAMILY, QUALIFIER)), "c");
+
+        // versions older than max versions of the family are dropped.
+        List<KeyValue> versions = getVersions();
+        Assert.assertEquals(versions.size(), 2);
+        Assert.assertEquals(versions.get(0).getTimestamp(), 3);
+        Assert.assertEquals(versions.get(1).getTimestamp(), 2);
+
+        Get get = new Get(ROW);
+        get.setTimeRange(0, 3);
+        Assert.assertEquals(Bytes.toString(table.get(get).getValue(FAMILY, QUALIFIER)), "b");
+
+        // put of same timestamp overwrites the version.
+        put(3, "d");
+        Assert.assertEquals(Bytes.toString(table.get(new Get(ROW)).getValue(FAMILY, QUALIFIER)), "d");
+        Assert.assertTrue(table.get(new Get(Bytes.toBytes("unknown"))).isEmpty());
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        put(1, "a");
+        put(2, "b");
+
+        // deleteColumn of exact timestamp masks the version, even if it is written again.
+        Delete delete = new Delete(ROW);
+        delete.deleteColumn(FAMILY, QUALIFIER, 2);
+        table.delete(delete);
+        Assert.assertEquals(Bytes.toString(table.get(new Get(ROW)).getValue(FAMILY, QUALIFIER)), "a");
+        put(2, "b");
+        Assert.assertEquals(Bytes.toString(table.get(new Get(ROW)).getValue(FAMILY, QUALIFIER)), "a");
+
+        put(3, "c");
+        delete = new Delete(ROW);
+        delete.deleteColumns(FAMILY, QUALIFIER, 3);
+        table.delete(delete);
+        Assert.assertTrue(table.get(new Get(ROW)).isEmpty());
+
+        put(4, "d");
+        Assert.assertEquals(getVersions().size(), 1);
+        delete = new Delete(ROW);
+        delete.deleteFamily(FAMILY, 4);
+        table.delete(delete);
+        Assert.assertTrue(table.get(new Get(ROW)).isEmpty());
+
+        put(5, "e");
+        table.delete(new Delete(ROW, 5, null));
+        Assert.assertTrue(table.get(new Get(ROW)).isEmpty());
+        Assert.assertFalse(table.exists(new Get(ROW)));
+    }
+
+    @Test
+    public void testCheckAndMutate() throws Exception {
+        Put put = new Put(ROW);
+        put.add(FAMILY, QUALIFIER, 1, Bytes.toBytes("a"));
+        // null expected value means the column does not exist.
+        Assert.assertTrue(table.checkAndPut(ROW, FAMILY, QUALIFIER, null, put));
+        Assert.assertFalse(table.checkAndPut(ROW, FAMILY, QUALIFIER, null, put));
+
+        put = new Put(ROW);
+        put.add(FAMILY, QUALIFIER, 2, Bytes.toBytes("b"));
+        Assert.assertFalse(table.checkAndPut(ROW, FAMILY, QUALIFIER, Bytes.toBytes("b"), put));
+        Assert.assertTrue(table.checkAndPut(ROW, FAMILY, QUALIFIER, Bytes.toBytes("a"), put));
+
+        Delete delete = new Delete(ROW);
+        delete.deleteColumns(FAMILY, QUALIFIER, 2);
+        Assert.assertFalse(table.checkAndDelete(ROW, FAMILY, QUALIFIER, Bytes.toBytes("a"), delete));
+        Assert.assertTrue(table.checkAndDelete(ROW, FAMILY, QUALIFIER, Bytes.toBytes("b"), delete));
+        Assert.assertTrue(table.get(new Get(ROW)).isEmpty());
+
+        try {
+            table.checkAndPut(Bytes.toBytes("other"), FAMILY, QUALIFIER, null, put);
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            Put unknownFamilyPut = new Put(ROW);
+            unknownFamilyPut.add(Bytes.toBytes("unknown"), QUALIFIER, Bytes.toBytes("a"));
+            table.put(unknownFamilyPut);
+            Assert.fail();
+        } catch (NoSuchColumnFamilyException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            Put put = new Put(Bytes.toBytes("row" + i));
+            for (int j = 0; j < 5; j++) {
+                put.add(FAMILY, Bytes.toBytes("col" + j), Bytes.toBytes(i * 10 + j));
+            }
+            table.put(put);
+        }
+        ResultScanner scanner = table.getScanner(new Scan(Bytes.toBytes("row1"), Bytes.toBytes("row3")));
+        Assert.assertEquals(Bytes.toString(scanner.next().getRow()), "row1");
+        Assert.assertEquals(Bytes.toString(scanner.next().getRow()), "row2");
+        Assert.assertNull(scanner.next());
+        scanner.close();
+
+        Scan scan = new Scan(Bytes.toBytes("row4"));
+        scan.setFilter(new ColumnRangeFilter(Bytes.toBytes("col1"), true, Bytes.toBytes("col4"), false));
+        scan.setBatch(2);
+        scanner = table.getScanner(scan);
+        Result[] results = scanner.next(10);
+        scanner.close();
+        Assert.assertEquals(results.length, 2);
+        Assert.assertEquals(results[0].size(), 2);
+        Assert.assertEquals(Bytes.toInt(results[0].raw()[0].getValue()), 41);
+        Assert.assertEquals(results[1].size(), 1);
+        Assert.assertEquals(Bytes.toInt(results[1].raw()[0].getValue()), 43);
+    }
+
+    @Test
+    public void testAppendAndIncrement() throws Exception {
+        Append append = new Append(ROW);
+        append.add(FAMILY, QUALIFIER, Bytes.toBytes("a"));
+        Assert.assertEquals(table.append(append).getValue(FAMILY, QUALIFIER), Bytes.toBytes("a"));
+        append = new Append(ROW);
+        append.add(FAMILY, QUALIFIER, Bytes.toBytes("b"));
+        Assert.assertEquals(table.append(append).getValue(FAMILY, QUALIFIER), Bytes.toBytes("ab"));
+        Assert.assertEquals(table.get(new Get(ROW)).getValue(FAMILY, QUALIFIER), Bytes.toBytes("ab"));
+
+        // value which is not 64 bits wide can't be incremented.
+        try {
+            table.incrementColumnValue(ROW, FAMILY, QUALIFIER, 1);
+            Assert.fail();
+        } catch (DoNotRetryIOException e) {
+            // expected
+        }
+
+        // increments of multiple threads are atomic.
+        final byte[] counter = Bytes.toBytes("counter");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Void>> futures = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int j = 0; j < 100; j++) {
+                        table.incrementColumnValue(ROW, FAMILY, counter, 1);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        Result result = table.increment(new Increment(ROW).addColumn(FAMILY, counter, 10));
+        Assert.assertEquals(Bytes.toLong(result.getValue(FAMILY, counter)), 410L);
+        Assert.assertEquals(Bytes.toLong(table.get(new Get(ROW)).getValue(FAMILY, counter)), 410L);
+    }
+
+    @Test
+    public void testGetRowOrBefore() throws Exception {
+        put(1, "a");
+        Put put = new Put(Bytes.toBytes("row2"));
+        put.add(HaeinsaConstants.LOCK_FAMILY, HaeinsaConstants.LOCK_QUALIFIER, Bytes.toBytes("lock"));
+        table.put(put);
+
+        // row2 doesn't have the family, so row before it is returned.
+        Assert.assertEquals(table.getRowOrBefore(Bytes.toBytes("row3"), FAMILY).getRow(), ROW);
+        Assert.assertEquals(table.getRowOrBefore(ROW, FAMILY).getValue(FAMILY, QUALIFIER), Bytes.toBytes("a"));
+        Assert.assertNull(table.getRowOrBefore(Bytes.toBytes("a"), FAMILY));
+    }
+
+    @Test
+    public void testFailureInjection() throws Exception {
+        hbase.setFailureRate(1.0);
+        try {
+            put(1, "a");
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+        hbase.setFailureRate(0.0);
+        Assert.assertTrue(table.get(new Get(ROW)).isEmpty());
+        Assert.assertEquals(hbase.getCallCount(), 2);
+    }
+
+    @Test
+    public void testTransaction() throws Exception {
+        HaeinsaTablePool tablePool = new HaeinsaTablePool(hbase.getConfiguration(), 8, new InMemoryHaeinsaTableIfaceFactory(hbase));
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(tablePool);
+        HaeinsaTableIface testTable = tablePool.getTable("test");
+
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < 3; i++) {
+            HaeinsaPut put = new HaeinsaPut(ROW);
+            put.add(FAMILY, Bytes.toBytes("col" + i), Bytes.toBytes("value" + i));
+            testTable.put(tx, put);
+        }
+        HaeinsaPut put = new HaeinsaPut(Bytes.toBytes("row2"));
+        put.add(FAMILY, QUALIFIER, Bytes.toBytes("value"));
+        testTable.put(tx, put);
+        tx.commit();
+
+        tx = tm.begin();
+        HaeinsaIntraScan intraScan = new HaeinsaIntraScan(ROW, Bytes.toBytes("col1"), true, Bytes.toBytes("col2"), true);
+        intraScan.addFamily(FAMILY);
+        HaeinsaResultScanner scanner = testTable.getScanner(tx, intraScan);
+        HaeinsaResult result = scanner.next();
+        Assert.assertEquals(result.list().size(), 2);
+        Assert.assertEquals(result.getValue(FAMILY, Bytes.toBytes("col1")), Bytes.toBytes("value1"));
+        Assert.assertEquals(result.getValue(FAMILY, Bytes.toBytes("col2")), Bytes.toBytes("value2"));
+        Assert.assertNull(scanner.next());
+        scanner.close();
+        tx.rollback();
+
+        // concurrent transactions on same row conflict.
+        HaeinsaTransaction tx1 = tm.begin();
+        HaeinsaTransaction tx2 = tm.begin();
+        result = testTable.get(tx1, new HaeinsaGet(Bytes.toBytes("row2")));
+        Assert.assertEquals(result.getValue(FAMILY, QUALIFIER), Bytes.toBytes("value"));
+        testTable.get(tx2, new HaeinsaGet(Bytes.toBytes("row2")));
+        put = new HaeinsaPut(Bytes.toBytes("row2"));
+        put.add(FAMILY, QUALIFIER, Bytes.toBytes("value1"));
+        testTable.put(tx1, put);
+        put = new HaeinsaPut(Bytes.toBytes("row2"));
+        put.add(FAMILY, QUALIFIER, Bytes.toBytes("value2"));
+        testTable.put(tx2, put);
+        tx1.commit();
+        try {
+            tx2.commit();
+            Assert.fail();
+        } catch (ConflictException e) {
+            // expected
+        }
+        tx = tm.begin();
+        result = testTable.get(tx, new HaeinsaGet(Bytes.toBytes("row2")));
+        tx.rollback();
+        Assert.assertEquals(result.getValue(FAMILY, QUALIFIER), Bytes.toBytes("value1"));
+        tablePool.close();
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.timestamp;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class HybridLogicalClockTest {
+
+    @Test
+    public void testMergeObservedTimestamps() throws Exception {
+        HybridLogicalClock clock = new HybridLogicalClock(new SystemTimestampOracle(), 60000);
+
+        // follows physical time.
+        long before = System.currentTimeMillis();
+        long timestamp = clock.next();
+        Assert.assertTrue(timestamp >= before);
+        Assert.assertTrue(clock.next() > timestamp);
+
+        // orders after observed timestamp which is ahead of physical time.
+        long observed = System.currentTimeMillis() + 10000;
+        clock.observe(observed);
+        Assert.assertEquals(clock.next(), observed + 1);
+        Assert.assertEquals(clock.next(), observed + 2);
+
+        // observed timestamp behind doesn't move the clock back.
+        clock.observe(before);
+        Assert.assertEquals(clock.next(), observed + 3);
+
+        // timestamp too far ahead is merged only up to max offset.
+        clock.observe(Long.MAX_VALUE / 2);
+        long bounded = clock.getLast();
+        Assert.assertTrue(bounded <= observed + 3 + 60000);
+        Assert.assertTrue(bounded < Long.MAX_VALUE / 2);
+        Assert.assertEquals(clock.next(), bounded + 1);
+    }
+}
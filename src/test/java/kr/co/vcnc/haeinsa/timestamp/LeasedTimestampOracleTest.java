@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.timestamp;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class LeasedTimestampOracleTest {
+
+    @Test
+    public void testBlocks() throws Exception {
+        LocalTimestampBlockAllocator allocator = new LocalTimestampBlockAllocator(Long.MAX_VALUE / 2);
+        LeasedTimestampOracle oracle = new LeasedTimestampOracle(allocator, 10, 60000);
+        long previous = oracle.next();
+        Assert.assertEquals(previous, Long.MAX_VALUE / 2);
+        for (int i = 1; i < 25; i++) {
+            long timestamp = oracle.next();
+            Assert.assertEquals(timestamp, previous + 1);
+            previous = timestamp;
+        }
+        // third block is leased.
+        Assert.assertEquals(allocator.allocate(1), Long.MAX_VALUE / 2 + 30);
+
+        // block is discarded after lease is expired, and timestamps still increase.
+        oracle = new LeasedTimestampOracle(allocator, 10, 1);
+        previous = oracle.next();
+        Thread.sleep(5);
+        Assert.assertEquals(oracle.next(), previous + 10);
+    }
+
+    @Test
+    public void testRemoteOracles() throws Exception {
+        final int threads = 4;
+        final int count = 1000;
+        TimestampOracleServer server = new TimestampOracleServer(0, new LocalTimestampBlockAllocator());
+        List<RemoteTimestampBlockAllocator> allocators = Lists.newArrayList();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final Set<Long> issued = Sets.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        List<Future<Void>> futures = Lists.newArrayList();
+        for (int i = 0; i < threads; i++) {
+            RemoteTimestampBlockAllocator allocator = new RemoteTimestampBlockAllocator("localhost", server.getPort());
+            allocators.add(allocator);
+            final TimestampOracle oracle = new LeasedTimestampOracle(allocator, 16, 60000);
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    long previous = Long.MIN_VALUE;
+                    for (int j = 0; j < count; j++) {
+                        long timestamp = oracle.next();
+                        Assert.assertTrue(timestamp > previous);
+                        Assert.assertTrue(issued.add(timestamp));
+                        previous = timestamp;
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        Assert.assertEquals(issued.size(), threads * count);
+
+        for (RemoteTimestampBlockAllocator allocator : allocators) {
+            allocator.close();
+        }
+        executor.shutdown();
+        server.close();
+    }
+}